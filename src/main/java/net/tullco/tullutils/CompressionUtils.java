@@ -6,10 +6,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import net.tullco.tullutils.compressionutils.AdaptiveGzipOutputStream;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.compressionutils.CompressionObjective;
+import net.tullco.tullutils.compressionutils.LevelProfile;
+import net.tullco.tullutils.compressionutils.ParallelGzipOutputStream;
+import net.tullco.tullutils.compressionutils.ParallelUnzipper;
+import net.tullco.tullutils.compressionutils.ParallelZipper;
+import net.tullco.tullutils.compressionutils.PipelinedGzipInputStream;
+
 public class CompressionUtils {
 
 	private static int BYTE_ARRAY_BUFFER_SIZE = 1024*1024;
@@ -24,7 +36,7 @@ public class CompressionUtils {
 		try(ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile)));
 				BufferedInputStream fileStream = new BufferedInputStream(new FileInputStream(originFile))){
 			zipStream.setMethod(ZipOutputStream.DEFLATED);
-			writeFileToZipStream(originFile, originFile.getName(), zipStream);
+			writeFileToZipStream(originFile, originFile.getName(), zipStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
 		}
 	}
 	/**
@@ -38,10 +50,93 @@ public class CompressionUtils {
 			zipFile(originDirectory, destinationFile);
 		else{
 			try(ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile)))){
-				zipDirectoryRecursive(originDirectory, "", zipStream);
+				zipDirectoryRecursive(originDirectory, "", zipStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
 			}
 		}
 	}
+	/**
+	 * Zips the given directory to the given file, compressing the files on several threads at once.
+	 * The entries are written to the archive in order of their paths.
+	 * @param originDirectory The directory whose contents you want to zip. If this is a file, just that file will be zipped.
+	 * @param destinationFile The destination of the zip file.
+	 * @param threads The number of threads to compress with.
+	 * @throws IOException If the origin directory could not be read or the destination file could not be written.
+	 */
+	public static void zipDirectoryParallel(File originDirectory, File destinationFile, int threads) throws IOException{
+		ParallelZipper.zipDirectory(originDirectory, destinationFile, threads);
+	}
+	/**
+	 * Gzips a single file, compressing it on several threads at once. The result is an ordinary gzip file that any gzip tool can read.
+	 * @param originFile The file to gzip.
+	 * @param destinationFile The location of the resulting gzip file.
+	 * @param threads The number of threads to compress with.
+	 * @throws IOException If the origin file could not be read or the destination file could not be written.
+	 */
+	public static void gzipFile(File originFile, File destinationFile, int threads) throws IOException{
+		try(FileInputStream fileStream = new FileInputStream(originFile);
+				ParallelGzipOutputStream gzipStream = new ParallelGzipOutputStream(new FileOutputStream(destinationFile), threads)){
+			copyStream(fileStream, gzipStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
+		}
+	}
+	/**
+	 * Gzips a single file at whichever level best meets the objective. The start of the file is compressed at several levels
+	 * to measure them, and the file is then compressed at the level the objective likes best.
+	 * @param originFile The file to gzip.
+	 * @param destinationFile The location of the resulting gzip file.
+	 * @param objective What to aim for, like CompressionObjective.minimumTime(diskBytesPerSecond).
+	 * @return The measurements of the level that was used, or null if the file was empty.
+	 * @throws IOException If the origin file could not be read or the destination file could not be written.
+	 */
+	public static LevelProfile gzipFileAdaptive(File originFile, File destinationFile, CompressionObjective objective) throws IOException{
+		AdaptiveGzipOutputStream gzipStream;
+		try(FileInputStream fileStream = new FileInputStream(originFile)){
+			gzipStream = new AdaptiveGzipOutputStream(new FileOutputStream(destinationFile), objective);
+			try{
+				copyStream(fileStream, gzipStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
+			}finally{
+				gzipStream.close();
+			}
+		}
+		return gzipStream.getChosenProfile();
+	}
+	/**
+	 * Decompresses a gzip file. The decompressing happens on a background thread while the output is being written.
+	 * @param gzipFile The gzip file to decompress.
+	 * @param destinationFile The location of the decompressed file.
+	 * @throws IOException If the gzip file could not be read or the destination file could not be written.
+	 */
+	public static void gunzipFile(File gzipFile, File destinationFile) throws IOException{
+		try(PipelinedGzipInputStream gzipStream = new PipelinedGzipInputStream(new FileInputStream(gzipFile));
+				FileOutputStream fileStream = new FileOutputStream(destinationFile)){
+			copyStream(gzipStream, fileStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
+		}
+	}
+	/**
+	 * Compresses a file with the given codec.
+	 * @param originFile The file to compress.
+	 * @param destinationFile The location of the compressed file.
+	 * @param codec The codec to compress with.
+	 * @throws IOException If the origin file could not be read or the destination file could not be written.
+	 */
+	public static void compressFile(File originFile, File destinationFile, CompressionCodec codec) throws IOException{
+		try(FileInputStream fileStream = new FileInputStream(originFile);
+				OutputStream compressedStream = codec.compress(new FileOutputStream(destinationFile))){
+			copyStream(fileStream, compressedStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
+		}
+	}
+	/**
+	 * Decompresses a file that was compressed with the given codec.
+	 * @param compressedFile The compressed file.
+	 * @param destinationFile The location of the decompressed file.
+	 * @param codec The codec the file was compressed with.
+	 * @throws IOException If the compressed file could not be read or is corrupt, or the destination file could not be written.
+	 */
+	public static void decompressFile(File compressedFile, File destinationFile, CompressionCodec codec) throws IOException{
+		try(InputStream compressedStream = codec.decompress(new FileInputStream(compressedFile));
+				FileOutputStream fileStream = new FileOutputStream(destinationFile)){
+			copyStream(compressedStream, fileStream, new byte[BYTE_ARRAY_BUFFER_SIZE]);
+		}
+	}
 	/**
 	 * Unzips a file to the given destination directory.
 	 * @param zipFile The file to unzip
@@ -50,12 +145,17 @@ public class CompressionUtils {
 	 */
 	public static void unzipFile(File zipFile, File destinationDirectory) throws IOException{
 		try(ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))){
-			destinationDirectory.mkdir();
+			destinationDirectory.mkdirs();
 			ZipEntry entry = zipStream.getNextEntry();
 			byte[] byteBuffer = new byte[BYTE_ARRAY_BUFFER_SIZE];
 			while(entry != null){
-				File outputFile = new File(destinationDirectory.getAbsolutePath() + File.separator + entry.getName());
-				outputFile.getParentFile().mkdir();
+				File outputFile = ParallelUnzipper.resolveEntry(destinationDirectory, entry.getName());
+				if(entry.isDirectory()){
+					outputFile.mkdirs();
+					entry = zipStream.getNextEntry();
+					continue;
+				}
+				outputFile.getParentFile().mkdirs();
 				try(BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile))){
 					while(true){
 						int readBytes = zipStream.read(byteBuffer);
@@ -68,20 +168,33 @@ public class CompressionUtils {
 			}
 		}
 	}
-	private static void zipDirectoryRecursive(File originDirectory, String path, ZipOutputStream zipStream) throws IOException{
+	/**
+	 * Unzips the entries of a zip file whose names match a glob, extracting them on several threads at once.
+	 * Only the matching entries are read, so taking a few files out of a big archive is quick.
+	 * @param zipFile The file to unzip.
+	 * @param destinationDirectory The directory to unzip to.
+	 * @param glob A glob the entry names must match, like "reports/**.csv". Null unzips everything.
+	 * @param threads The number of threads to extract with.
+	 * @return The files that were extracted.
+	 * @throws IOException If the origin file could not be read, the destination file could not be written,
+	 * or an entry would have been extracted outside of the destination directory.
+	 */
+	public static List<File> unzipFile(File zipFile, File destinationDirectory, String glob, int threads) throws IOException{
+		return ParallelUnzipper.extract(zipFile, destinationDirectory, glob, threads);
+	}
+	private static void zipDirectoryRecursive(File originDirectory, String path, ZipOutputStream zipStream, byte[] byteBuffer) throws IOException{
 		File[] fileList = originDirectory.listFiles();
 		for(File f: fileList){
 			if(f.isFile())
-				writeFileToZipStream(f, path + f.getName(), zipStream);
+				writeFileToZipStream(f, path + f.getName(), zipStream, byteBuffer);
 			else
-				zipDirectoryRecursive(f, path + f.getName()+File.separator, zipStream);
+				zipDirectoryRecursive(f, path + f.getName()+File.separator, zipStream, byteBuffer);
 		}
 	}
-	private static void writeFileToZipStream(File originFile, String path, ZipOutputStream zipStream) throws IOException{
+	private static void writeFileToZipStream(File originFile, String path, ZipOutputStream zipStream, byte[] byteBuffer) throws IOException{
 		try(FileInputStream fileStream = new FileInputStream(originFile)){
 			ZipEntry entry = new ZipEntry(path);
 			zipStream.putNextEntry(entry);
-			byte[] byteBuffer = new byte[BYTE_ARRAY_BUFFER_SIZE];
 			while(true){
 				int readBytes = fileStream.read(byteBuffer);
 				if (readBytes == -1)
@@ -91,4 +204,12 @@ public class CompressionUtils {
 			
 		}
 	}
+	private static void copyStream(InputStream in, OutputStream out, byte[] byteBuffer) throws IOException{
+		while(true){
+			int readBytes = in.read(byteBuffer);
+			if(readBytes == -1)
+				break;
+			out.write(byteBuffer, 0, readBytes);
+		}
+	}
 }
@@ -0,0 +1,84 @@
+package net.tullco.tullutils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for waiting on the background work the parallel utilities hand off to thread pools.
+ * @author Tull Gearreald
+ */
+public final class ConcurrencyUtils {
+	
+	private ConcurrencyUtils(){}
+	
+	/**
+	 * Waits for a task and returns its result. If the task failed, whatever it threw is rethrown as itself instead of
+	 * wrapped in an ExecutionException. UncheckedIOExceptions are unwrapped to their IOException, and checked exceptions
+	 * other than IOException and the given type are wrapped in an IOException.
+	 * @param <T> The type of the task's result.
+	 * @param <E> The checked exception type the task may throw besides IOException.
+	 * @param task The task to wait for.
+	 * @param checked The checked exception type the task may throw besides IOException.
+	 * @return The task's result.
+	 * @throws IOException If the task threw one, or the waiting thread was interrupted, in which case its interrupt flag is restored.
+	 * @throws E If the task threw one.
+	 */
+	public static <T, E extends Exception> T await(Future<T> task, Class<E> checked) throws IOException, E{
+		try{
+			return task.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for a task to finish.");
+			interrupted.initCause(e);
+			throw interrupted;
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			while(cause instanceof ExecutionException && cause.getCause() != null)
+				cause = cause.getCause();
+			if(cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(checked.isInstance(cause))
+				throw checked.cast(cause);
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException("A task failed.", cause);
+		}
+	}
+	/**
+	 * Waits for a task and returns its result, rethrowing whatever it threw as itself instead of wrapped in an ExecutionException.
+	 * @param <T> The type of the task's result.
+	 * @param task The task to wait for.
+	 * @return The task's result.
+	 * @throws IOException If the task threw one, threw some other checked exception, or the waiting thread was interrupted.
+	 */
+	public static <T> T await(Future<T> task) throws IOException{
+		return await(task, IOException.class);
+	}
+	/**
+	 * Waits for every task of a pool that has been shut down to stop, so none are still running once the caller returns or throws.
+	 * If the waiting thread is interrupted, it keeps waiting and its interrupt flag is restored afterwards.
+	 * @param pool The pool to wait for. It should already be shut down.
+	 */
+	public static void awaitTermination(ExecutorService pool){
+		boolean interrupted = false;
+		while(true){
+			try{
+				if(pool.awaitTermination(1, TimeUnit.MINUTES))
+					break;
+			}catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
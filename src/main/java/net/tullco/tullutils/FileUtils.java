@@ -8,23 +8,49 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.csvutils.BufferedCSVWriter;
+import net.tullco.tullutils.csvutils.MappedCSVReader;
+import net.tullco.tullutils.csvutils.ParallelCSVReader;
+import net.tullco.tullutils.hashutils.HashAlgorithm;
+import net.tullco.tullutils.hashutils.Hex;
+import net.tullco.tullutils.hashutils.MultiHash;
+
 public final class FileUtils {
 
-	private static final int BYTE_BUFFER_SIZE = 1024*100;
 	private static final int WRITER_RETRIES = 5;
+	private static final int HASH_BUFFER_SIZE = 1024*1024;
+	private static final long PARTIAL_HASH_BLOCK = 64*1024;
+	private static final String DEDUP_ALGORITHM = "SHA-256";
+	private static final long MAPPED_REGION_SIZE = 64*1024*1024;
 	
 	/**
 	 * Gets a File Writer from a string containing the full path.
@@ -96,6 +122,27 @@ public final class FileUtils {
 	public static FileWriter getFileWriter(File f) throws IOException {
 		return getFileWriter(f,false);
 	}
+	/**
+	 * Gets a Writer for a File object that compresses what's written with the given codec.
+	 * Characters are encoded with the platform's default charset, the same as getFileWriter.
+	 * Unlike getFileWriter, it doesn't wait and try again if the file can't be opened.
+	 * @param f A file object that you want to write to.
+	 * @param append If set to true, will open the file to append instead of overwrite
+	 * @param codec The codec to compress with, like CompressionCodec.lz(). Null gives the same writer as getFileWriter(f, append).
+	 * @return A writer for the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public static Writer getFileWriter(File f, boolean append, CompressionCodec codec) throws IOException{
+		if(codec == null)
+			return getFileWriter(f, append);
+		FileOutputStream stream = new FileOutputStream(f, append);
+		try{
+			return new BufferedWriter(new OutputStreamWriter(codec.compress(stream)));
+		}catch(IOException | RuntimeException e){
+			stream.close();
+			throw e;
+		}
+	}
 	/**
 	 * Gets a File Reader for the file at the given string.
 	 * @param s The full path to the file.
@@ -134,6 +181,41 @@ public final class FileUtils {
 		File f = new File(s);
 		return getCSVReader(f);
 	}
+	/**
+	 * Gets a MappedCSVReader for the given file. It reads UTF-8 files much faster than a CSVReader,
+	 * and can hand out fields without turning them into Strings.
+	 * @param f The file to create a reader for
+	 * @return A MappedCSVReader over the file.
+	 * @throws IOException If the file can't be opened or mapped.
+	 */
+	public static MappedCSVReader getMappedCSVReader(File f) throws IOException{
+		return new MappedCSVReader(f);
+	}
+	/**
+	 * Reads a UTF-8 CSV file on several threads, handing the rows to the consumer in batches.
+	 * The batches come from many threads at once and in no particular order, so the consumer must be thread safe.
+	 * @param f The file to read.
+	 * @param skipHeaders True if the header row shouldn't be handed to the consumer.
+	 * @param threads The number of threads to read with.
+	 * @param consumer The consumer for the batches of rows.
+	 * @return The number of rows read.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public static long readCSVParallel(File f, boolean skipHeaders, int threads, Consumer<List<String[]>> consumer) throws IOException{
+		return ParallelCSVReader.forEachBatch(f, skipHeaders, threads, ParallelCSVReader.DEFAULT_BATCH_ROWS, consumer);
+	}
+	/**
+	 * Reads a UTF-8 CSV file on several threads, returning the rows as a stream in the order they are in the file.
+	 * The stream should be closed when you're done with it.
+	 * @param f The file to read.
+	 * @param skipHeaders True if the header row shouldn't be in the stream.
+	 * @param threads The number of threads to read with.
+	 * @return A stream of the rows in the file.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public static Stream<String[]> streamCSVParallel(File f, boolean skipHeaders, int threads) throws IOException{
+		return ParallelCSVReader.stream(f, skipHeaders, threads);
+	}
 	/**
 	 * Gets a CSVWriter for the file. If it can't get a write lock on the file,
 	 * it will wait until it can.
@@ -155,6 +237,18 @@ public final class FileUtils {
 	public static CSVWriter getCSVWriter(File f) throws IOException {
 		return getCSVWriter(f,false);
 	}
+	/**
+	 * Gets a CSVWriter for the file that compresses its output with the given codec.
+	 * Unlike getCSVWriter(File, boolean), it doesn't wait and try again if the file can't be opened.
+	 * @param f The file.
+	 * @param append If this is true, append instead of overwriting.
+	 * @param codec The codec to compress with, like CompressionCodec.gzip(). Null gives the same writer as getCSVWriter(f, append).
+	 * @return A CSVWriter to the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public static CSVWriter getCSVWriter(File f, boolean append, CompressionCodec codec) throws IOException {
+		return new CSVWriter(getFileWriter(f, append, codec));
+	}
 	/**
 	 * Gets a CSVWriter for the file at the given path. If it can't get a write lock on the file,
 	 * it will wait until it can.
@@ -177,6 +271,40 @@ public final class FileUtils {
 	public static CSVWriter getCSVWriter(String s) throws IOException {
 		return getCSVWriter(s,false);
 	}
+	/**
+	 * Gets a BufferedCSVWriter for the file. It writes the same output as a CSVWriter, but always in UTF-8, and much faster.
+	 * Unlike getCSVWriter, it doesn't wait and try again if the file can't be opened.
+	 * @param f The file.
+	 * @return A BufferedCSVWriter to the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public static BufferedCSVWriter getBufferedCSVWriter(File f) throws IOException {
+		return new BufferedCSVWriter(f);
+	}
+	/**
+	 * Gets a BufferedCSVWriter for the file. It writes the same output as a CSVWriter, but always in UTF-8, and much faster.
+	 * Unlike getCSVWriter, it doesn't wait and try again if the file can't be opened.
+	 * @param f The file.
+	 * @param append If this is true, append instead of overwriting.
+	 * @param gzip If this is true, gzip the output as it's written.
+	 * @return A BufferedCSVWriter to the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public static BufferedCSVWriter getBufferedCSVWriter(File f, boolean append, boolean gzip) throws IOException {
+		return new BufferedCSVWriter(f, append, gzip, BufferedCSVWriter.DEFAULT_BUFFER_SIZE);
+	}
+	/**
+	 * Gets a BufferedCSVWriter for the file that compresses the output as it's written.
+	 * Unlike getCSVWriter, it doesn't wait and try again if the file can't be opened.
+	 * @param f The file.
+	 * @param append If this is true, append instead of overwriting.
+	 * @param codec The codec to compress with, like CompressionCodec.lz(). Null leaves the output uncompressed.
+	 * @return A BufferedCSVWriter to the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public static BufferedCSVWriter getBufferedCSVWriter(File f, boolean append, CompressionCodec codec) throws IOException {
+		return new BufferedCSVWriter(f, append, codec, BufferedCSVWriter.DEFAULT_BUFFER_SIZE);
+	}
 	/**
 	 * Gets a file as a string.
 	 * @param s The path to the file.
@@ -259,6 +387,61 @@ public final class FileUtils {
 		File f = new File(filePath);
 		writeBytesToFile(b, f);
 	}
+	/**
+	 * Writes a string to the given file atomically. The string is written to a temporary file next to the
+	 * destination, which is then renamed over it, so other readers see either the old file or the whole new one.
+	 * The string is encoded in the platform's default charset, the same as writeStringToFile.
+	 * @param s The string to write.
+	 * @param f The file to write to.
+	 * @param sync Whether to force the data to the disk before the rename, so it also survives a crash.
+	 * @throws IOException If there is a problem writing or renaming the file. The destination is left untouched if so.
+	 */
+	public static void writeStringToFileAtomically(String s, File f, boolean sync) throws IOException {
+		writeBuffersToFileAtomically(f, sync, ByteBuffer.wrap(s.getBytes()));
+	}
+	/**
+	 * Writes a byte array to the given file atomically. The bytes are written to a temporary file next to the
+	 * destination, which is then renamed over it, so other readers see either the old file or the whole new one.
+	 * @param b The byte array to write.
+	 * @param f The file to write to.
+	 * @param sync Whether to force the data to the disk before the rename, so it also survives a crash.
+	 * @throws IOException If there is a problem writing or renaming the file. The destination is left untouched if so.
+	 */
+	public static void writeBytesToFileAtomically(byte[] b, File f, boolean sync) throws IOException {
+		writeBuffersToFileAtomically(f, sync, ByteBuffer.wrap(b));
+	}
+	/**
+	 * Writes the contents of several buffers, one after another, to the given file atomically.
+	 * The buffers are written with a single gathering write where the OS allows it, so headers,
+	 * bodies and the like don't need to be copied into one array first.
+	 * The buffers' positions end up at their limits.
+	 * @param f The file to write to.
+	 * @param sync Whether to force the data to the disk before the rename, so it also survives a crash.
+	 * @param buffers The buffers to write, in order.
+	 * @throws IOException If there is a problem writing or renaming the file. The destination is left untouched if so.
+	 * If the file system can't rename atomically, this is an AtomicMoveNotSupportedException rather than a non-atomic write.
+	 */
+	public static void writeBuffersToFileAtomically(File f, boolean sync, ByteBuffer... buffers) throws IOException {
+		Path target = f.getAbsoluteFile().toPath();
+		Path directory = target.getParent();
+		Path temp = directory.resolve("." + target.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+		try{
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+				long remaining = 0;
+				for(ByteBuffer buffer: buffers)
+					remaining += buffer.remaining();
+				while(remaining > 0)
+					remaining -= channel.write(buffers);
+				if(sync)
+					channel.force(true);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}finally{
+			Files.deleteIfExists(temp);
+		}
+		if(sync)
+			syncDirectory(directory);
+	}
 	/**
 	 * Creates a new copy of the source file at the destination location.
 	 * @param source The location of the original file.
@@ -291,14 +474,25 @@ public final class FileUtils {
 	 * @throws IOException If there is a problem reading the files.
 	 */
 	public static String sha1Hash(File f) throws NoSuchAlgorithmException, IOException{
-		MessageDigest md = MessageDigest.getInstance("SHA-1");
-		byte[] buffer = new byte[BYTE_BUFFER_SIZE];
-		try (DigestInputStream dis = new DigestInputStream(new FileInputStream(f), md))	{
-			while(dis.read(buffer)!=-1);
+		return hashFile(f, HashAlgorithm.SHA1).get(HashAlgorithm.SHA1);
+	}
+	/**
+	 * Computes several hashes of the given file in a single pass over it. The file is memory mapped a region at a time,
+	 * and every hash is updated from each region before moving on to the next.
+	 * @param f The file to hash.
+	 * @param algorithms The hashes to compute.
+	 * @return The hashes as upper case hex strings, keyed by algorithm.
+	 * @throws NoSuchAlgorithmException If one of the cryptographic hashes isn't currently available.
+	 * @throws IOException If there is a problem reading the file.
+	 */
+	public static Map<HashAlgorithm,String> hashFile(File f, HashAlgorithm... algorithms) throws NoSuchAlgorithmException, IOException{
+		MultiHash hash = new MultiHash(algorithms);
+		try(FileChannel channel = new FileInputStream(f).getChannel()){
+			long size = channel.size();
+			for(long position = 0; position < size; position += MAPPED_REGION_SIZE)
+				hash.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, size-position)));
 		}
-		
-		byte[] digest = md.digest();
-		return DatatypeConverter.printHexBinary(digest);
+		return hash.hexDigests();
 	}
 	/**
 	 * Generates a sha1 hash for the given byte array.
@@ -309,7 +503,7 @@ public final class FileUtils {
 	public static String sha1Hash(byte[] b) throws NoSuchAlgorithmException {
 		MessageDigest md = MessageDigest.getInstance("SHA-1");
 		byte[] digest =md.digest(b);
-		return DatatypeConverter.printHexBinary(digest);
+		return Hex.encode(digest);
 	}
 	/**
 	 * Hashes the two files and returns true if the hashes are the same and false if they are different.
@@ -320,6 +514,8 @@ public final class FileUtils {
 	 * @throws IOException If the files can't be read
 	 */
 	public static boolean filesSHA1Equal(File f1, File f2) throws NoSuchAlgorithmException, IOException{
+		if(f1.length() != f2.length())
+			return false;
 		try{
 			String f1Hash = sha1Hash(f1);
 			String f2Hash = sha1Hash(f2);
@@ -328,47 +524,184 @@ public final class FileUtils {
 			return false;
 		}
 	}
+	/**
+	 * Finds every set of files with the same contents under the directory, including in subdirectories.
+	 * 
+	 * Files are first grouped by size, since files of different sizes can't be the same. Files that share a size are then
+	 * hashed on just their first and last blocks, and only files that still match are hashed in full with SHA-256.
+	 * The hashing is spread over the given number of threads.
+	 * @param directory The directory to search.
+	 * @param threads The number of threads to hash files with.
+	 * @return The groups of files with the same contents. Only groups of two or more are returned, biggest files first,
+	 * and the files in each group are sorted by path.
+	 * @throws NoSuchAlgorithmException If the SHA-256 hashing algorithm isn't currently available.
+	 * @throws IOException If there is a problem walking the directory or reading the files.
+	 */
+	public static List<List<File>> findDuplicateFiles(File directory, int threads) throws NoSuchAlgorithmException, IOException{
+		MessageDigest.getInstance(DEDUP_ALGORITHM);
+		Map<Long,List<File>> bySize = new HashMap<Long,List<File>>();
+		Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>(){
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+				if(attrs.isRegularFile())
+					bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<File>()).add(file.toFile());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		List<List<File>> candidates = new ArrayList<List<File>>();
+		for(List<File> group: bySize.values()){
+			if(group.size() > 1)
+				candidates.add(group);
+		}
+		
+		List<List<File>> duplicates = new ArrayList<List<File>>();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try{
+			List<List<File>> partialMatches = groupByHash(candidates, true, pool);
+			List<List<File>> needFullHash = new ArrayList<List<File>>();
+			for(List<File> group: partialMatches){
+				// Small files were hashed whole by the partial hash already.
+				if(group.get(0).length() <= 2*PARTIAL_HASH_BLOCK)
+					duplicates.add(group);
+				else
+					needFullHash.add(group);
+			}
+			duplicates.addAll(groupByHash(needFullHash, false, pool));
+		}finally{
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+		}
+		Comparator<File> byPath = Comparator.comparing(File::getPath);
+		for(List<File> group: duplicates)
+			group.sort(byPath);
+		duplicates.sort(Comparator.comparing((List<File> group) -> group.get(0).length()).reversed()
+				.thenComparing(group -> group.get(0), byPath));
+		return duplicates;
+	}
 	/**
 	 * Compares the contents of two files for exact equality. Will not load either file into memory.
 	 * Will be false if either or both files don't exist.
+	 * Files of different sizes are never read. Otherwise the files are memory mapped and compared eight bytes at a time,
+	 * stopping at the first difference.
 	 * @param f1 The file to compare.
 	 * @param f2 The file to compare against.
 	 * @return True if the files are equal. False otherwise.
 	 * @throws IOException If there is a problem reading the files.
 	 */
 	public static boolean filesEqual(File f1, File f2) throws IOException{
-		FileInputStream f1stream=null;
-		FileInputStream f2stream=null;
+		if(!f1.isFile() || !f2.isFile() || f1.length() != f2.length())
+			return false;
 		try{
-			f1stream= new FileInputStream(f1);
-			f2stream= new FileInputStream(f2);
-			byte[] buffer1 = new byte[BYTE_BUFFER_SIZE];
-			byte[] buffer2 = new byte[BYTE_BUFFER_SIZE];
-			int read1;
-			int read2;
-			while(true){
-				read1 = f1stream.read(buffer1);
-				read2 = f2stream.read(buffer2);
-				if (read1!=read2)
-					return false;
-				if(read1==-1 && read1==-1)
-					return true;
-				if(read1==-1 || read2==-1)
-					return false;
-				if(Arrays.equals(buffer1, buffer2)){
-					continue;
-				}else{
-					return false;
-				}
-			}
+			return firstDifference(f1, f2) == -1;
 		}catch(FileNotFoundException e){
 			return false;
-		}finally{
-			if(f1stream!=null)
-				f1stream.close();
-			if(f2stream!=null)
-				f2stream.close();
 		}
-		
+	}
+	/**
+	 * Finds the offset of the first byte where two files differ. The files are memory mapped a region at a time
+	 * and compared eight bytes at a time, stopping at the first difference.
+	 * @param f1 The file to compare.
+	 * @param f2 The file to compare against.
+	 * @return The offset of the first byte that differs, or -1 if the files are the same. If one file is the start of the other,
+	 * this is the length of the shorter file.
+	 * @throws IOException If there is a problem reading the files.
+	 */
+	public static long firstDifference(File f1, File f2) throws IOException{
+		try(FileChannel c1 = new FileInputStream(f1).getChannel();
+				FileChannel c2 = new FileInputStream(f2).getChannel()){
+			long size1 = c1.size();
+			long size2 = c2.size();
+			long common = Math.min(size1, size2);
+			for(long position = 0; position < common; position += MAPPED_REGION_SIZE){
+				long length = Math.min(MAPPED_REGION_SIZE, common-position);
+				ByteBuffer b1 = c1.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+				ByteBuffer b2 = c2.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+				int mismatch = mismatch(b1, b2, (int) length);
+				if(mismatch >= 0)
+					return position + mismatch;
+			}
+			return size1 == size2 ? -1 : common;
+		}
+	}
+	/**
+	 * Splits each group of files into smaller groups of files with the same hash, dropping files that don't match any other.
+	 */
+	private static List<List<File>> groupByHash(List<List<File>> groups, boolean partial, ForkJoinPool pool) throws NoSuchAlgorithmException, IOException{
+		List<List<ForkJoinTask<ByteBuffer>>> hashes = new ArrayList<List<ForkJoinTask<ByteBuffer>>>();
+		for(List<File> group: groups){
+			List<ForkJoinTask<ByteBuffer>> groupHashes = new ArrayList<ForkJoinTask<ByteBuffer>>();
+			for(File f: group)
+				groupHashes.add(pool.submit(() -> hashForDedup(f, partial)));
+			hashes.add(groupHashes);
+		}
+		List<List<File>> matches = new ArrayList<List<File>>();
+		for(int g=0; g<groups.size(); g++){
+			Map<ByteBuffer,List<File>> byHash = new HashMap<ByteBuffer,List<File>>();
+			for(int i=0; i<groups.get(g).size(); i++)
+				byHash.computeIfAbsent(ConcurrencyUtils.await(hashes.get(g).get(i), NoSuchAlgorithmException.class), hash -> new ArrayList<File>()).add(groups.get(g).get(i));
+			for(List<File> match: byHash.values()){
+				if(match.size() > 1)
+					matches.add(match);
+			}
+		}
+		return matches;
+	}
+	/**
+	 * Hashes a file, or only its first and last blocks if partial is true and the file is big enough to have separate ones.
+	 */
+	private static ByteBuffer hashForDedup(File f, boolean partial) throws NoSuchAlgorithmException, IOException{
+		MessageDigest md = MessageDigest.getInstance(DEDUP_ALGORITHM);
+		try(FileChannel channel = new FileInputStream(f).getChannel()){
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+			if(partial && size > 2*PARTIAL_HASH_BLOCK){
+				digestRange(channel, 0, PARTIAL_HASH_BLOCK, md, buffer);
+				digestRange(channel, size-PARTIAL_HASH_BLOCK, size, md, buffer);
+			}else{
+				digestRange(channel, 0, size, md, buffer);
+			}
+		}
+		return ByteBuffer.wrap(md.digest());
+	}
+	private static void digestRange(FileChannel channel, long start, long end, MessageDigest md, ByteBuffer buffer) throws IOException{
+		long position = start;
+		while(position < end){
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end-position));
+			int read = channel.read(buffer, position);
+			if(read < 0)
+				break;
+			buffer.flip();
+			md.update(buffer);
+			position += read;
+		}
+	}
+	/**
+	 * Finds the first index where two little endian buffers differ, comparing eight bytes at a time.
+	 * @return The index, or -1 if the first length bytes are the same.
+	 */
+	private static int mismatch(ByteBuffer b1, ByteBuffer b2, int length){
+		int i = 0;
+		for(; i+Long.BYTES <= length; i += Long.BYTES){
+			long difference = b1.getLong(i) ^ b2.getLong(i);
+			if(difference != 0)
+				return i + Long.numberOfTrailingZeros(difference) / Byte.SIZE;
+		}
+		for(; i<length; i++){
+			if(b1.get(i) != b2.get(i))
+				return i;
+		}
+		return -1;
+	}
+	/**
+	 * Forces a directory's entries to the disk, so a rename into it survives a crash.
+	 * Not every platform lets a directory be opened like this (Windows doesn't), in which case this does nothing.
+	 */
+	private static void syncDirectory(Path directory){
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+			channel.force(true);
+		}catch(IOException e){
+			return;
+		}
 	}
 }
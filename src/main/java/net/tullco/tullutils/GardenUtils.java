@@ -8,17 +8,21 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import net.tullco.tullutils.exceptions.UnconfiguredException;
+import net.tullco.tullutils.sqlutils.ConnectionPool;
 
 public final class GardenUtils {
 
 	private static HashMap<String,JSONObject> keyringCache = new HashMap<String,JSONObject>();
+	private static final ConcurrentHashMap<String,Pair<Long,Map<String,String>>> pooledKeyMaps = new ConcurrentHashMap<String,Pair<Long,Map<String,String>>>();
 	
 	private static final String KEYRING_LOCATION = "api/resources/%s";
+	private static final long POOLED_KEYRING_CACHE_MILLIS = 5*60*1000;
 	
 	/**
 	 * Gets the JSON keyring of the connection.
@@ -71,8 +75,87 @@ public final class GardenUtils {
 	 * @throws UnconfiguredException If the value GARDEN_API_KEY or GARDEN_URL is not configured in the Configuration class.
 	 */
 	public final static Connection getPgConnectionFromGarden(String keyring) throws IOException, SQLException, UnconfiguredException {
-		Map<String,String> keyValues = getKeyMap(keyring);
-		
+		return connectToPg(getKeyMap(keyring));
+	}
+	
+	/**
+	 * Connects to a presto keyring.
+	 * @param keyring The name of the keyring of the given resource.
+	 * @param trustStoreLocation The location of the truststore containing the ssl certificate
+	 * @param trustStorePassword The password to the truststore containing the ssl certificate
+	 * @return A JDBC connection to the Presto database at the keyring specified
+	 * @throws IOException If a network problem happens
+	 * @throws SQLException If an SQL problem happens
+	 * @throws UnconfiguredException If the value GARDEN_API_KEY or GARDEN_URL is not configured in the Configuration class.
+	 */
+	public final static Connection getPrestoConnection(String keyring, String trustStoreLocation, String trustStorePassword) throws UnconfiguredException, IOException, SQLException{
+		return connectToPresto(getKeyMap(keyring), trustStoreLocation, trustStorePassword);
+	}
+	
+	public final static Connection getDremioConnection() throws UnconfiguredException, IOException, SQLException{
+		String jdbcURL = String.format("jdbc:dremio:direct=%s;ssl=true"
+				,Configuration.getConfiguration("DREMIO_PROD_JDBC_URL"));
+        Properties props = new Properties();
+        props.setProperty("user",Configuration.getConfiguration("DREMIO_USERNAME"));
+        props.setProperty("password",Configuration.getConfiguration("DREMIO_PAT"));
+		Connection c = DriverManager.getConnection(jdbcURL, props);
+		return c;
+	}
+	
+	/**
+	 * Borrows a connection to a postgres garden keyring from a shared connection pool, opening a new connection only if
+	 * none are free. Closing the connection returns it to the pool.
+	 * The pool keeps the keyring for five minutes between new connections, and fetches it again sooner if a connection fails to open.
+	 * @param keyring The name of the keyring of the given resource.
+	 * @return A pooled connection to the given resource
+	 * @throws SQLException If an SQL problem happens, the keyring couldn't be fetched, or it isn't a postgres keyring.
+	 * @throws UnconfiguredException If the value GARDEN_API_KEY or GARDEN_URL is not configured in the Configuration class.
+	 */
+	public final static Connection getPooledPgConnectionFromGarden(String keyring) throws SQLException, UnconfiguredException {
+		return ConnectionPool.getSharedPool("postgres:"+keyring, () -> {
+			Connection c = connectWithPooledKeyMap(keyring, GardenUtils::connectToPg);
+			if(c == null)
+				throw new SQLException("The keyring "+keyring+" is not a postgres keyring.");
+			return c;
+		}).getConnection();
+	}
+	
+	/**
+	 * Borrows a connection to a presto keyring from a shared connection pool, opening a new connection only if
+	 * none are free. Closing the connection returns it to the pool. Each keyring and truststore has its own pool.
+	 * The pool keeps the keyring for five minutes between new connections, and fetches it again sooner if a connection fails to open.
+	 * @param keyring The name of the keyring of the given resource.
+	 * @param trustStoreLocation The location of the truststore containing the ssl certificate
+	 * @param trustStorePassword The password to the truststore containing the ssl certificate
+	 * @return A pooled JDBC connection to the Presto database at the keyring specified
+	 * @throws SQLException If an SQL problem happens, or the keyring couldn't be fetched.
+	 * @throws UnconfiguredException If the value GARDEN_API_KEY or GARDEN_URL is not configured in the Configuration class.
+	 */
+	public final static Connection getPooledPrestoConnection(String keyring, String trustStoreLocation, String trustStorePassword) throws SQLException, UnconfiguredException {
+		String poolKey = "presto:"+keyring+":"+trustStoreLocation+":"+trustStorePassword;
+		return ConnectionPool.getSharedPool(poolKey, () ->
+			connectWithPooledKeyMap(keyring, keys -> connectToPresto(keys, trustStoreLocation, trustStorePassword))
+		).getConnection();
+	}
+	
+	/**
+	 * Borrows a connection to dremio from a shared connection pool, opening a new connection only if
+	 * none are free. Closing the connection returns it to the pool.
+	 * @return A pooled JDBC connection to dremio.
+	 * @throws SQLException If an SQL problem happens
+	 * @throws UnconfiguredException If DREMIO_PROD_JDBC_URL, DREMIO_USERNAME or DREMIO_PAT is not configured in the Configuration class.
+	 */
+	public final static Connection getPooledDremioConnection() throws SQLException, UnconfiguredException {
+		return ConnectionPool.getSharedPool("dremio", () -> {
+			try{
+				return getDremioConnection();
+			}catch(IOException e){
+				throw new SQLException("Could not connect to dremio", e);
+			}
+		}).getConnection();
+	}
+	
+	private static Connection connectToPg(Map<String,String> keyValues) throws SQLException{
 		String username = keyValues.get("user");
 		String password = keyValues.get("password");
 		String database = keyValues.get("database");
@@ -87,19 +170,7 @@ public final class GardenUtils {
 		Connection c = DriverManager.getConnection(jdbcURL, username, password);
 		return c;
 	}
-	
-	/**
-	 * Connects to a presto keyring.
-	 * @param keyring The name of the keyring of the given resource.
-	 * @param trustStoreLocation The location of the truststore containing the ssl certificate
-	 * @param trustStorePassword The password to the truststore containing the ssl certificate
-	 * @return A JDBC connection to the Presto database at the keyring specified
-	 * @throws IOException If a network problem happens
-	 * @throws SQLException If an SQL problem happens
-	 * @throws UnconfiguredException If the value GARDEN_API_KEY or GARDEN_URL is not configured in the Configuration class.
-	 */
-	public final static Connection getPrestoConnection(String keyring, String trustStoreLocation, String trustStorePassword) throws UnconfiguredException, IOException, SQLException{
-		Map<String,String> prestoKeys = getKeyMap(keyring);
+	private static Connection connectToPresto(Map<String,String> prestoKeys, String trustStoreLocation, String trustStorePassword) throws SQLException{
 		String jdbcURL = String.format("jdbc:presto://%s:%s/%s/dw?SSL=true&user=%s&SSLTrustStorePath=%s&SSLTrustStorePassword=%s"
 				,prestoKeys.get("host")
 				,prestoKeys.get("port")
@@ -110,14 +181,30 @@ public final class GardenUtils {
 		Connection c = DriverManager.getConnection(jdbcURL);
 		return c;
 	}
+	/**
+	 * Opens a connection for a pool using the keyring's keys, fetching them only if the ones from the last connection have expired.
+	 * If the connection fails, the keys are dropped, so a rotated credential is picked up on the next try.
+	 */
+	private static Connection connectWithPooledKeyMap(String keyring, KeyMapConnector connector) throws SQLException{
+		Pair<Long,Map<String,String>> cached = pooledKeyMaps.get(keyring);
+		if(cached == null || System.currentTimeMillis() - cached.left() > POOLED_KEYRING_CACHE_MILLIS){
+			try{
+				cached = Pair.of(System.currentTimeMillis(), getKeyMap(keyring));
+			}catch(IOException e){
+				throw new SQLException("Could not fetch the keyring "+keyring, e);
+			}
+			pooledKeyMaps.put(keyring, cached);
+		}
+		try{
+			return connector.connect(cached.right());
+		}catch(SQLException | RuntimeException e){
+			pooledKeyMaps.remove(keyring, cached);
+			throw e;
+		}
+	}
 	
-	public final static Connection getDremioConnection() throws UnconfiguredException, IOException, SQLException{
-		String jdbcURL = String.format("jdbc:dremio:direct=%s;ssl=true"
-				,Configuration.getConfiguration("DREMIO_PROD_JDBC_URL"));
-        Properties props = new Properties();
-        props.setProperty("user",Configuration.getConfiguration("DREMIO_USERNAME"));
-        props.setProperty("password",Configuration.getConfiguration("DREMIO_PAT"));
-		Connection c = DriverManager.getConnection(jdbcURL, props);
-		return c;
+	@FunctionalInterface
+	private static interface KeyMapConnector {
+		Connection connect(Map<String,String> keyValues) throws SQLException;
 	}
 }
\ No newline at end of file
@@ -1,15 +1,52 @@
 package net.tullco.tullutils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.csvutils.MappedCSVReader;
+import net.tullco.tullutils.csvutils.ParallelCSVReader;
+import net.tullco.tullutils.mergeutils.CompactSupplementTable;
+import net.tullco.tullutils.mergeutils.JoinType;
+import net.tullco.tullutils.mergeutils.MergeKey;
+import net.tullco.tullutils.mergeutils.Supplement;
+
 public class MergeUtils {
 	
+	// Rows packed into a CompactSupplementTable take about twice the size of the file. A HashMap of Strings takes about ten times.
+	private static final long LOADED_SIZE_FACTOR = 2;
+	private static final int MAX_PARTITIONS = 512;
+	private static final int MAX_PARTITION_DEPTH = 3;
+	private static final int PARTITION_BUFFER_SIZE = 64*1024;
+	private static final int MAX_MERGE_FAN_IN = 128;
+	private static final int SEGMENTS_PER_THREAD = 4;
+
 	/**
 	 * Merges two CSV files together into a temporary file using the keys at the specified indices.
 	 * The temporary file containing the merged data will be returned.
@@ -45,34 +82,283 @@ public class MergeUtils {
 	 * @throws CsvValidationException 
 	 */
 	public static void mergeFiles(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination) throws IOException, CsvValidationException{
-		//First, load the small file into memory.
+		mergeFiles(supplementCsv, baseCsv, supplementKeyIndex, baseKeyIndex, destination, null);
+	}
+	/**
+	 * Merges two CSV files together into a new file using the keys at the specified indices, compressing the merged file as it's written.
+	 * The output is the same as mergeFiles(File, File, int, int, File) once it's decompressed.
+	 * @param supplementCsv The file containing the data to be merged. This file will be entirely loaded into memory. 
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @param codec The codec to compress the merged file with, like CompressionCodec.gzip(). Null leaves it uncompressed.
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFiles(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination, CompressionCodec codec) throws IOException, CsvValidationException{
 		CSVReader smallReader = FileUtils.getCSVReader(supplementCsv);
-		String[] smallHeaders = removeItemFromStringArray(smallReader.readNext(),supplementKeyIndex);
-		HashMap<String,String[]> mergeData = new HashMap<String,String[]>();
-		String[] line;
-		while ( (line = smallReader.readNext()) != null){
-			String key = line[supplementKeyIndex];
-			String[] rowData = removeItemFromStringArray(line,supplementKeyIndex);
-			mergeData.put(key, rowData);
-		}
-		smallReader.close();
-		
-		//Now, lets get the large file ready for work...
 		CSVReader largeReader = FileUtils.getCSVReader(baseCsv);
+		CSVWriter writer = FileUtils.getCSVWriter(destination, false, codec);
+		try{
+			String[] smallHeaders = removeItemFromStringArray(smallReader.readNext(),supplementKeyIndex);
+			String[] largeHeaders = largeReader.readNext();
+			writer.writeNext(mergeStringArrays(largeHeaders,smallHeaders));
+			hashJoin(smallReader, largeReader, supplementKeyIndex, baseKeyIndex, smallHeaders.length, writer);
+		}finally{
+			smallReader.close();
+			largeReader.close();
+			writer.close();
+		}
+	}
+	/**
+	 * Merges two CSV files together into a new file using the keys at the specified indices.
+	 * 
+	 * The base file will have the non-key columns of the supplement added to the end of it. The output is the same as mergeFiles.
+	 * 
+	 * The supplement is packed into a CompactSupplementTable instead of a map of Strings, which takes around a fifth of the memory,
+	 * at the cost of decoding the supplement row each time a key matches.
+	 * @param supplementCsv The file containing the data to be merged. This file will be entirely loaded into memory. 
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFilesCompact(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination) throws IOException, CsvValidationException{
+		CSVReader supplementReader = FileUtils.getCSVReader(supplementCsv);
+		CSVReader baseReader = FileUtils.getCSVReader(baseCsv);
 		CSVWriter writer = FileUtils.getCSVWriter(destination);
-		String[] largeHeaders = largeReader.readNext();
-		String[] outputHeaders = mergeStringArrays(largeHeaders,smallHeaders);
-		writer.writeNext(outputHeaders);
-		while ( (line = largeReader.readNext()) != null){
-			String key= line[baseKeyIndex];
-			String[] mergeLine = mergeData.get(key);
-			if(mergeLine==null){
-				mergeLine=createArrayOfEmptyStrings(smallHeaders.length);
+		try{
+			String[] supplementHeaders = removeItemFromStringArray(supplementReader.readNext(),supplementKeyIndex);
+			String[] baseHeaders = baseReader.readNext();
+			writer.writeNext(mergeStringArrays(baseHeaders,supplementHeaders));
+			compactHashJoin(supplementReader, baseReader, supplementKeyIndex, baseKeyIndex, supplementHeaders.length, writer);
+		}finally{
+			supplementReader.close();
+			baseReader.close();
+			writer.close();
+		}
+	}
+	/**
+	 * Merges two CSV files together into a new file using keys that can be made up of several columns.
+	 * 
+	 * The base file will have the columns of the supplement that aren't part of its key added to the end of it.
+	 * 
+	 * Each key can normalize its columns, for example trimming whitespace or ignoring case, and the normalizing is done as the
+	 * keys are compared, so the files don't need to be cleaned up before merging. The two keys must have the same number of columns,
+	 * and the columns are matched up in order. The supplement is packed into a CompactSupplementTable.
+	 * @param supplementCsv The file containing the data to be merged. This file will be entirely loaded into memory. 
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param supplementKey The key columns in the supplementary file.
+	 * @param baseKey The key columns in the base file.
+	 * @param destination The output file for the merged data
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFiles(File supplementCsv, File baseCsv, MergeKey supplementKey, MergeKey baseKey, File destination) throws IOException, CsvValidationException{
+		mergeFiles(Collections.singletonList(new Supplement(supplementCsv, supplementKey, baseKey)), baseCsv, destination);
+	}
+	/**
+	 * Merges several supplementary CSV files into a base file in a single pass over the base.
+	 * 
+	 * The base file will have the columns of each supplement that aren't part of its key added to the end of it, in the order the
+	 * supplements are listed. A base row with no match in a supplement gets empty columns for that supplement.
+	 * 
+	 * Every supplement is packed into its own CompactSupplementTable, so all of them have to fit in memory together. The base is read
+	 * and the merged file is written only once, no matter how many supplements there are.
+	 * @param supplements The supplementary files and the keys to join each of them on.
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param destination The output file for the merged data
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If any of the files is not a valid CSV.
+	 */
+	public static void mergeFiles(List<Supplement> supplements, File baseCsv, File destination) throws IOException, CsvValidationException{
+		mergeFiles(supplements, baseCsv, destination, null);
+	}
+	/**
+	 * Merges several supplementary CSV files into a base file in a single pass over the base, compressing the merged file as it's written.
+	 * The output is the same as mergeFiles(List, File, File) once it's decompressed.
+	 * @param supplements The supplementary files and the keys to join each of them on.
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param destination The output file for the merged data
+	 * @param codec The codec to compress the merged file with, like CompressionCodec.gzip(). Null leaves it uncompressed.
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If any of the files is not a valid CSV.
+	 */
+	public static void mergeFiles(List<Supplement> supplements, File baseCsv, File destination, CompressionCodec codec) throws IOException, CsvValidationException{
+		int count = supplements.size();
+		CompactSupplementTable[] tables = new CompactSupplementTable[count];
+		String[][] supplementHeaders = new String[count][];
+		for(int i=0; i<count; i++){
+			MergeKey supplementKey = supplements.get(i).getSupplementKey();
+			CSVReader supplementReader = FileUtils.getCSVReader(supplements.get(i).getFile());
+			try{
+				supplementHeaders[i] = supplementKey.removeKeyColumns(supplementReader.readNext());
+				tables[i] = new CompactSupplementTable();
+				String[] line;
+				while ( (line = supplementReader.readNext()) != null){
+					tables[i].put(supplementKey.keyOf(line), supplementKey.removeKeyColumns(line));
+				}
+			}finally{
+				supplementReader.close();
 			}
-			writer.writeNext(mergeStringArrays(line,mergeLine));
 		}
-		largeReader.close();
-		writer.close();
+		
+		CSVReader baseReader = FileUtils.getCSVReader(baseCsv);
+		CSVWriter writer = FileUtils.getCSVWriter(destination, false, codec);
+		try{
+			String[] headers = baseReader.readNext();
+			String[][] emptyMerges = new String[count][];
+			for(int i=0; i<count; i++){
+				headers = mergeStringArrays(headers, supplementHeaders[i]);
+				emptyMerges[i] = createArrayOfEmptyStrings(supplementHeaders[i].length);
+			}
+			writer.writeNext(headers);
+			
+			String[][] mergeLines = new String[count][];
+			String[] line;
+			while ( (line = baseReader.readNext()) != null){
+				int length = line.length;
+				for(int i=0; i<count; i++){
+					mergeLines[i] = tables[i].get(supplements.get(i).getBaseKey().keyOf(line));
+					if(mergeLines[i] == null)
+						mergeLines[i] = emptyMerges[i];
+					length += mergeLines[i].length;
+				}
+				String[] merged = Arrays.copyOf(line, length);
+				int position = line.length;
+				for(String[] mergeLine: mergeLines){
+					System.arraycopy(mergeLine, 0, merged, position, mergeLine.length);
+					position += mergeLine.length;
+				}
+				writer.writeNext(merged);
+			}
+		}finally{
+			baseReader.close();
+			writer.close();
+		}
+	}
+	/**
+	 * Merges two CSV files together into a new file using the keys at the specified indices, using several threads.
+	 * 
+	 * The base file will have the non-key columns of the supplement added to the end of it. The output is the same as mergeFiles.
+	 * 
+	 * The supplement is loaded into memory once and shared. The base is split into segments on record boundaries, the segments are merged
+	 * on a fork-join pool, and their outputs are joined back together in order.
+	 * @param supplementCsv The file containing the data to be merged. This file will be entirely loaded into memory. 
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @param threads The number of threads to merge with.
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFilesParallel(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination, int threads) throws IOException, CsvValidationException{
+		threads = Math.max(1, threads);
+		String[] supplementHeaders;
+		HashMap<String,String[]> mergeData;
+		CSVReader supplementReader = FileUtils.getCSVReader(supplementCsv);
+		try{
+			supplementHeaders = removeItemFromStringArray(supplementReader.readNext(),supplementKeyIndex);
+			mergeData = loadSupplement(supplementReader, supplementKeyIndex);
+		}finally{
+			supplementReader.close();
+		}
+		
+		final int supplementColumns = supplementHeaders.length;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<ForkJoinTask<File>> segments = new ArrayList<ForkJoinTask<File>>();
+		Queue<File> segmentFiles = new ConcurrentLinkedQueue<File>();
+		try{
+			long headerEnd;
+			try(MappedCSVReader headerScanner = FileUtils.getMappedCSVReader(baseCsv)){
+				headerScanner.next();
+				headerEnd = headerScanner.getOffset();
+			}
+			String[] baseHeaders;
+			try(CSVReader headerReader = new CSVReader(openSegment(baseCsv, 0, headerEnd))){
+				baseHeaders = headerReader.readNext();
+			}
+			CSVWriter headerWriter = FileUtils.getCSVWriter(destination);
+			try{
+				headerWriter.writeNext(mergeStringArrays(baseHeaders,supplementHeaders));
+			}finally{
+				headerWriter.close();
+			}
+			
+			long segmentSize = (baseCsv.length() - headerEnd) / (threads*SEGMENTS_PER_THREAD);
+			long[] boundaries = ParallelCSVReader.findRecordBoundaries(baseCsv, headerEnd, segmentSize, pool);
+			for(int i=0; i+1<boundaries.length; i++){
+				final long start = boundaries[i];
+				final long end = boundaries[i+1];
+				segments.add(pool.submit(() -> {
+					File segmentOutput = File.createTempFile("merge_segment", ".csv");
+					segmentFiles.add(segmentOutput);
+					try(CSVReader segmentReader = new CSVReader(openSegment(baseCsv, start, end));
+							CSVWriter segmentWriter = new CSVWriter(new BufferedWriter(FileUtils.getFileWriter(segmentOutput), PARTITION_BUFFER_SIZE))){
+						probe(row -> mergeData.get(row[baseKeyIndex]), segmentReader, supplementColumns, segmentWriter);
+					}
+					return segmentOutput;
+				}));
+			}
+			try(FileChannel output = new FileOutputStream(destination, true).getChannel()){
+				for(ForkJoinTask<File> segment: segments){
+					File segmentOutput = ConcurrencyUtils.await(segment, CsvValidationException.class);
+					try(FileChannel input = new FileInputStream(segmentOutput).getChannel()){
+						long position = 0;
+						long size = input.size();
+						while(position < size)
+							position += input.transferTo(position, size-position, output);
+					}
+					segmentOutput.delete();
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+			for(File segmentFile: segmentFiles)
+				segmentFile.delete();
+		}
+	}
+	/**
+	 * Merges two CSV files together into a new file using the keys at the specified indices, keeping memory use within the given budget.
+	 * 
+	 * The base file will have the non-key columns of the supplement added to the end of it.
+	 * 
+	 * If the supplement is small enough to fit in the budget, this is the same as mergeFilesCompact. Otherwise, both files are split
+	 * into buckets on disk by a hash of their keys, and each bucket of the supplement is loaded into memory and merged with the
+	 * matching bucket of the base on its own. A bucket that is still too big is split again.
+	 * When the files are split, the merged rows come out grouped by bucket instead of in the order of the base file.
+	 * @param supplementCsv The file containing the data to be merged.
+	 * @param baseCsv The file containing the data to merge into. This file will not be loaded into memory.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @param memoryBudget The number of bytes of heap the loaded supplement is allowed to take up.
+	 * @throws IOException If there was a problem reading the files or writing the merged file.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFiles(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination, long memoryBudget) throws IOException, CsvValidationException{
+		if(estimateLoadedSize(supplementCsv) <= memoryBudget){
+			mergeFilesCompact(supplementCsv, baseCsv, supplementKeyIndex, baseKeyIndex, destination);
+			return;
+		}
+		CSVReader supplementReader = FileUtils.getCSVReader(supplementCsv);
+		CSVReader baseReader = FileUtils.getCSVReader(baseCsv);
+		CSVWriter writer = FileUtils.getCSVWriter(destination);
+		try{
+			String[] supplementHeaders = removeItemFromStringArray(supplementReader.readNext(),supplementKeyIndex);
+			String[] baseHeaders = baseReader.readNext();
+			writer.writeNext(mergeStringArrays(baseHeaders,supplementHeaders));
+			graceHashJoin(supplementReader, estimateLoadedSize(supplementCsv), baseReader, supplementKeyIndex, baseKeyIndex, supplementHeaders.length, writer, memoryBudget, 0);
+		}finally{
+			supplementReader.close();
+			baseReader.close();
+			writer.close();
+		}
 	}
 	/**
 	 * Merges two CSV files together into a new file using the keys at the specified indices.
@@ -120,6 +406,128 @@ public class MergeUtils {
 		baseReader.close();
 		writer.close();
 	}
+	/**
+	 * Merges two CSV files together into a new file by streaming through both of them in key order, once.
+	 * 
+	 * The base file will have the non-key columns of the supplement added to the end of it. If a key shows up more than once
+	 * on both sides, every combination of the matching rows is written. Rows come out in key order.
+	 * 
+	 * Neither file is loaded into memory, except for the supplement rows sharing a single key.
+	 * If the files aren't already sorted by their keys, they're sorted first with sortFile, which is still far cheaper than mergeFilesSlow.
+	 * @param supplementCsv The file containing the data to be merged.
+	 * @param baseCsv The file containing the data to merge into.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @param joinType Which rows to keep when a key is only in one of the files.
+	 * @param inputsSorted True if both files are already sorted by their keys. If this is true and they aren't, an IOException is thrown.
+	 * @param memoryBudget The number of bytes of rows to hold in memory at once when sorting.
+	 * @throws IOException If there was a problem reading or writing, or the files were supposed to be sorted and weren't.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFilesSorted(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination, JoinType joinType, boolean inputsSorted, long memoryBudget) throws IOException, CsvValidationException{
+		mergeFilesSorted(supplementCsv, baseCsv, supplementKeyIndex, baseKeyIndex, destination, joinType, inputsSorted, memoryBudget, null);
+	}
+	/**
+	 * Merges two CSV files together into a new file by streaming through both of them in key order, once, compressing the merged file as it's written.
+	 * The output is the same as mergeFilesSorted without a codec once it's decompressed. Only the merged file is compressed, not the sorted temporary files.
+	 * @param supplementCsv The file containing the data to be merged.
+	 * @param baseCsv The file containing the data to merge into.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file
+	 * @param baseKeyIndex The index of the merge key in base file.
+	 * @param destination The output file for the merged data
+	 * @param joinType Which rows to keep when a key is only in one of the files.
+	 * @param inputsSorted True if both files are already sorted by their keys. If this is true and they aren't, an IOException is thrown.
+	 * @param memoryBudget The number of bytes of rows to hold in memory at once when sorting.
+	 * @param codec The codec to compress the merged file with, like CompressionCodec.gzip(). Null leaves it uncompressed.
+	 * @throws IOException If there was a problem reading or writing, or the files were supposed to be sorted and weren't.
+	 * @throws CsvValidationException If either file is not a valid CSV.
+	 */
+	public static void mergeFilesSorted(File supplementCsv, File baseCsv, int supplementKeyIndex, int baseKeyIndex, File destination, JoinType joinType, boolean inputsSorted, long memoryBudget, CompressionCodec codec) throws IOException, CsvValidationException{
+		File sortedSupplement = supplementCsv;
+		File sortedBase = baseCsv;
+		try{
+			if(!inputsSorted){
+				sortedSupplement = File.createTempFile("merge_sorted", ".csv");
+				sortFile(supplementCsv, supplementKeyIndex, sortedSupplement, memoryBudget);
+				sortedBase = File.createTempFile("merge_sorted", ".csv");
+				sortFile(baseCsv, baseKeyIndex, sortedBase, memoryBudget);
+			}
+			CSVReader supplementReader = FileUtils.getCSVReader(sortedSupplement);
+			CSVReader baseReader = FileUtils.getCSVReader(sortedBase);
+			CSVWriter writer = FileUtils.getCSVWriter(destination, false, codec);
+			try{
+				String[] supplementHeaders = removeItemFromStringArray(supplementReader.readNext(),supplementKeyIndex);
+				String[] baseHeaders = baseReader.readNext();
+				writer.writeNext(mergeStringArrays(baseHeaders,supplementHeaders));
+				sortMergeJoin(supplementReader, baseReader, supplementKeyIndex, baseKeyIndex, baseHeaders.length, supplementHeaders.length, joinType, writer);
+			}finally{
+				supplementReader.close();
+				baseReader.close();
+				writer.close();
+			}
+		}finally{
+			if(sortedSupplement != supplementCsv)
+				sortedSupplement.delete();
+			if(sortedBase != baseCsv)
+				sortedBase.delete();
+		}
+	}
+	/**
+	 * Sorts a CSV file by the given key column, without loading more than the memory budget into memory.
+	 * The header line stays at the top. Rows with equal keys keep their original order.
+	 * 
+	 * Rows are read into memory until they hit the budget, sorted, and written out to a temporary run file. The runs are then merged together.
+	 * @param csv The file to sort.
+	 * @param keyIndex The index of the column to sort by.
+	 * @param destination The file to write the sorted rows to.
+	 * @param memoryBudget The number of bytes of rows to hold in memory at once.
+	 * @throws IOException If there was a problem reading or writing.
+	 * @throws CsvValidationException If the file is not a valid CSV.
+	 */
+	public static void sortFile(File csv, int keyIndex, File destination, long memoryBudget) throws IOException, CsvValidationException{
+		Comparator<String[]> byKey = (a, b) -> a[keyIndex].compareTo(b[keyIndex]);
+		List<File> runs = new ArrayList<File>();
+		try{
+			String[] headers;
+			CSVReader reader = FileUtils.getCSVReader(csv);
+			try{
+				headers = reader.readNext();
+				List<String[]> rows = new ArrayList<String[]>();
+				long rowBytes = 0;
+				String[] line;
+				while((line = reader.readNext()) != null){
+					rows.add(line);
+					rowBytes += estimateRowSize(line);
+					if(rowBytes >= memoryBudget){
+						runs.add(writeRun(rows, byKey));
+						rows.clear();
+						rowBytes = 0;
+					}
+				}
+				if(runs.isEmpty()){
+					rows.sort(byKey);
+					writeRows(headers, rows, destination);
+					return;
+				}
+				if(!rows.isEmpty())
+					runs.add(writeRun(rows, byKey));
+			}finally{
+				reader.close();
+			}
+			while(runs.size() > MAX_MERGE_FAN_IN){
+				List<File> group = new ArrayList<File>(runs.subList(0, MAX_MERGE_FAN_IN));
+				File merged = File.createTempFile("merge_run", ".csv");
+				mergeRuns(group, null, merged, byKey);
+				runs.removeAll(group);
+				runs.add(merged);
+				deleteFiles(group.toArray(new File[group.size()]));
+			}
+			mergeRuns(runs, headers, destination, byKey);
+		}finally{
+			deleteFiles(runs.toArray(new File[runs.size()]));
+		}
+	}
 	/**
 	 * Creates a new array containing the contents of the starting array with the merge array concatenated to the end.
 	 * Will have length startingArray.length+mergeArray.length.
@@ -162,6 +570,294 @@ public class MergeUtils {
 		}
 		return newArray;
 	}
+	/**
+	 * Loads the rest of the supplement into memory and then streams the rest of the base past it, writing a merged row for every base row.
+	 */
+	private static void hashJoin(CSVReader supplementReader, CSVReader baseReader, int supplementKeyIndex, int baseKeyIndex, int supplementColumns, CSVWriter writer) throws IOException, CsvValidationException{
+		HashMap<String,String[]> mergeData = loadSupplement(supplementReader, supplementKeyIndex);
+		probe(row -> mergeData.get(row[baseKeyIndex]), baseReader, supplementColumns, writer);
+	}
+	/**
+	 * The same as hashJoin, but packs the supplement into a CompactSupplementTable.
+	 */
+	private static void compactHashJoin(CSVReader supplementReader, CSVReader baseReader, int supplementKeyIndex, int baseKeyIndex, int supplementColumns, CSVWriter writer) throws IOException, CsvValidationException{
+		CompactSupplementTable mergeData = new CompactSupplementTable();
+		String[] line;
+		while ( (line = supplementReader.readNext()) != null){
+			mergeData.put(line, supplementKeyIndex);
+		}
+		probe(row -> mergeData.get(row[baseKeyIndex]), baseReader, supplementColumns, writer);
+	}
+	private static HashMap<String,String[]> loadSupplement(CSVReader supplementReader, int supplementKeyIndex) throws IOException, CsvValidationException{
+		HashMap<String,String[]> mergeData = new HashMap<String,String[]>();
+		String[] line;
+		while ( (line = supplementReader.readNext()) != null){
+			String key = line[supplementKeyIndex];
+			String[] rowData = removeItemFromStringArray(line,supplementKeyIndex);
+			mergeData.put(key, rowData);
+		}
+		return mergeData;
+	}
+	/**
+	 * Streams the rest of the base past the loaded supplement, writing a merged row for every base row. The function finds the supplement
+	 * row for a base row, or returns null if there isn't one. Only reads from the supplement,
+	 * so many threads can probe the same one at once.
+	 */
+	private static void probe(Function<String[],String[]> mergeData, CSVReader baseReader, int supplementColumns, CSVWriter writer) throws IOException, CsvValidationException{
+		String[] emptyMerge = createArrayOfEmptyStrings(supplementColumns);
+		String[] line;
+		while ( (line = baseReader.readNext()) != null){
+			String[] mergeLine = mergeData.apply(line);
+			if(mergeLine==null){
+				mergeLine=emptyMerge;
+			}
+			writer.writeNext(mergeStringArrays(line,mergeLine));
+		}
+	}
+	/**
+	 * Splits the rest of both readers into buckets on disk by key hash, then merges each pair of buckets.
+	 * Buckets whose supplement is still over the budget are split again with a different hash, up to MAX_PARTITION_DEPTH times.
+	 */
+	private static void graceHashJoin(CSVReader supplementReader, long supplementSize, CSVReader baseReader, int supplementKeyIndex, int baseKeyIndex, int supplementColumns, CSVWriter writer, long memoryBudget, int depth) throws IOException, CsvValidationException{
+		int partitions = (int) Math.min(MAX_PARTITIONS, Math.max(2, 2 * supplementSize / Math.max(1, memoryBudget) + 1));
+		File[] supplementBuckets = partition(supplementReader, supplementKeyIndex, partitions, depth);
+		File[] baseBuckets = null;
+		try{
+			baseBuckets = partition(baseReader, baseKeyIndex, partitions, depth);
+			for(int i=0; i<partitions; i++){
+				long bucketSize = estimateLoadedSize(supplementBuckets[i]);
+				CSVReader supplementBucket = FileUtils.getCSVReader(supplementBuckets[i]);
+				CSVReader baseBucket = FileUtils.getCSVReader(baseBuckets[i]);
+				try{
+					if(bucketSize > memoryBudget && depth < MAX_PARTITION_DEPTH)
+						graceHashJoin(supplementBucket, bucketSize, baseBucket, supplementKeyIndex, baseKeyIndex, supplementColumns, writer, memoryBudget, depth+1);
+					else
+						compactHashJoin(supplementBucket, baseBucket, supplementKeyIndex, baseKeyIndex, supplementColumns, writer);
+				}finally{
+					supplementBucket.close();
+					baseBucket.close();
+				}
+				supplementBuckets[i].delete();
+				baseBuckets[i].delete();
+			}
+		}finally{
+			deleteFiles(supplementBuckets);
+			deleteFiles(baseBuckets);
+		}
+	}
+	private static File[] partition(CSVReader reader, int keyIndex, int partitions, int depth) throws IOException, CsvValidationException{
+		File[] buckets = new File[partitions];
+		CSVWriter[] writers = new CSVWriter[partitions];
+		try{
+			for(int i=0; i<partitions; i++){
+				buckets[i] = File.createTempFile("merge_bucket", ".csv");
+				writers[i] = new CSVWriter(new BufferedWriter(FileUtils.getFileWriter(buckets[i]), PARTITION_BUFFER_SIZE));
+			}
+			String[] line;
+			while ( (line = reader.readNext()) != null){
+				writers[bucketFor(line[keyIndex], depth, partitions)].writeNext(line);
+			}
+		}catch(IOException | CsvValidationException | RuntimeException e){
+			closeWriters(writers);
+			deleteFiles(buckets);
+			throw e;
+		}
+		closeWriters(writers);
+		return buckets;
+	}
+	/**
+	 * Picks the bucket for a key. The hash code is salted with the depth and mixed,
+	 * so keys that landed in the same bucket at one depth spread out at the next.
+	 */
+	private static int bucketFor(String key, int depth, int partitions){
+		int h = key.hashCode() ^ (depth * 0x9E3779B9);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return Math.floorMod(h, partitions);
+	}
+	private static long estimateLoadedSize(File csv){
+		return csv.length() * LOADED_SIZE_FACTOR;
+	}
+	private static void closeWriters(CSVWriter[] writers) throws IOException{
+		IOException failure = null;
+		for(CSVWriter writer: writers){
+			if(writer == null)
+				continue;
+			try{
+				writer.close();
+			}catch(IOException e){
+				failure = e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+	private static void deleteFiles(File[] files){
+		if(files == null)
+			return;
+		for(File f: files){
+			if(f != null)
+				f.delete();
+		}
+	}
+	/**
+	 * Streams two key-sorted readers past each other, buffering only the supplement rows of the current key.
+	 */
+	private static void sortMergeJoin(CSVReader supplementReader, CSVReader baseReader, int supplementKeyIndex, int baseKeyIndex, int baseColumns, int supplementColumns, JoinType joinType, CSVWriter writer) throws IOException, CsvValidationException{
+		String[] emptySupplement = createArrayOfEmptyStrings(supplementColumns);
+		List<String[]> group = new ArrayList<String[]>();
+		String groupKey = null;
+		String[] supplementLine = supplementReader.readNext();
+		String previousSupplementKey = null;
+		String previousBaseKey = null;
+		String[] baseLine;
+		while((baseLine = baseReader.readNext()) != null){
+			String key = baseLine[baseKeyIndex];
+			previousBaseKey = checkSorted(previousBaseKey, key);
+			if(groupKey == null || !groupKey.equals(key)){
+				group.clear();
+				groupKey = null;
+				while(supplementLine != null && supplementLine[supplementKeyIndex].compareTo(key) < 0){
+					previousSupplementKey = checkSorted(previousSupplementKey, supplementLine[supplementKeyIndex]);
+					if(joinType == JoinType.FULL_OUTER)
+						writer.writeNext(unmatchedSupplementRow(supplementLine, supplementKeyIndex, baseColumns, baseKeyIndex));
+					supplementLine = supplementReader.readNext();
+				}
+				while(supplementLine != null && supplementLine[supplementKeyIndex].equals(key)){
+					previousSupplementKey = checkSorted(previousSupplementKey, supplementLine[supplementKeyIndex]);
+					group.add(removeItemFromStringArray(supplementLine, supplementKeyIndex));
+					supplementLine = supplementReader.readNext();
+				}
+				if(!group.isEmpty())
+					groupKey = key;
+			}
+			if(group.isEmpty()){
+				if(joinType != JoinType.INNER)
+					writer.writeNext(mergeStringArrays(baseLine, emptySupplement));
+			}else{
+				for(String[] supplementRow: group)
+					writer.writeNext(mergeStringArrays(baseLine, supplementRow));
+			}
+		}
+		while(supplementLine != null){
+			previousSupplementKey = checkSorted(previousSupplementKey, supplementLine[supplementKeyIndex]);
+			if(joinType == JoinType.FULL_OUTER)
+				writer.writeNext(unmatchedSupplementRow(supplementLine, supplementKeyIndex, baseColumns, baseKeyIndex));
+			supplementLine = supplementReader.readNext();
+		}
+	}
+	private static String[] unmatchedSupplementRow(String[] supplementLine, int supplementKeyIndex, int baseColumns, int baseKeyIndex){
+		String[] emptyBase = createArrayOfEmptyStrings(baseColumns);
+		emptyBase[baseKeyIndex] = supplementLine[supplementKeyIndex];
+		return mergeStringArrays(emptyBase, removeItemFromStringArray(supplementLine, supplementKeyIndex));
+	}
+	private static String checkSorted(String previousKey, String key) throws IOException{
+		if(previousKey != null && previousKey.compareTo(key) > 0)
+			throw new IOException("The file is not sorted by its key: "+key+" comes after "+previousKey);
+		return key;
+	}
+	private static File writeRun(List<String[]> rows, Comparator<String[]> byKey) throws IOException{
+		rows.sort(byKey);
+		File run = File.createTempFile("merge_run", ".csv");
+		try{
+			writeRows(null, rows, run);
+		}catch(IOException | RuntimeException e){
+			run.delete();
+			throw e;
+		}
+		return run;
+	}
+	private static void writeRows(String[] headers, List<String[]> rows, File destination) throws IOException{
+		CSVWriter writer = new CSVWriter(new BufferedWriter(FileUtils.getFileWriter(destination), PARTITION_BUFFER_SIZE));
+		try{
+			if(headers != null)
+				writer.writeNext(headers);
+			for(String[] row: rows)
+				writer.writeNext(row);
+		}finally{
+			writer.close();
+		}
+	}
+	/**
+	 * Does a k-way merge of sorted run files. Ties go to the earlier run, which keeps the sort stable.
+	 */
+	private static void mergeRuns(List<File> runs, String[] headers, File destination, Comparator<String[]> byKey) throws IOException, CsvValidationException{
+		List<CSVReader> readers = new ArrayList<CSVReader>();
+		PriorityQueue<Pair<String[],Integer>> heads = new PriorityQueue<Pair<String[],Integer>>(Math.max(1, runs.size()),
+				(a, b) -> {
+					int compare = byKey.compare(a.left(), b.left());
+					return compare != 0 ? compare : Integer.compare(a.right(), b.right());
+				});
+		CSVWriter writer = new CSVWriter(new BufferedWriter(FileUtils.getFileWriter(destination), PARTITION_BUFFER_SIZE));
+		try{
+			if(headers != null)
+				writer.writeNext(headers);
+			for(int i=0; i<runs.size(); i++){
+				CSVReader reader = FileUtils.getCSVReader(runs.get(i));
+				readers.add(reader);
+				String[] first = reader.readNext();
+				if(first != null)
+					heads.add(Pair.of(first, i));
+			}
+			while(!heads.isEmpty()){
+				Pair<String[],Integer> head = heads.poll();
+				writer.writeNext(head.left());
+				String[] next = readers.get(head.right()).readNext();
+				if(next != null)
+					heads.add(Pair.of(next, head.right()));
+			}
+		}finally{
+			writer.close();
+			for(CSVReader reader: readers)
+				reader.close();
+		}
+	}
+	/**
+	 * A rough guess of how much heap a parsed row takes up.
+	 */
+	private static long estimateRowSize(String[] row){
+		long size = 16 + 4L*row.length;
+		for(String field: row)
+			size += 40 + 2L*field.length();
+		return size;
+	}
+	/**
+	 * Opens a reader over the bytes of the file from start up to end.
+	 */
+	private static Reader openSegment(File f, long start, long end) throws IOException{
+		FileInputStream input = new FileInputStream(f);
+		try{
+			input.getChannel().position(start);
+		}catch(IOException e){
+			input.close();
+			throw e;
+		}
+		InputStream segment = new FilterInputStream(new BufferedInputStream(input, PARTITION_BUFFER_SIZE)){
+			private long remaining = end - start;
+			@Override
+			public int read() throws IOException{
+				if(remaining <= 0)
+					return -1;
+				int b = super.read();
+				if(b != -1)
+					remaining--;
+				return b;
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException{
+				if(remaining <= 0)
+					return -1;
+				int read = super.read(b, off, (int) Math.min(len, remaining));
+				if(read > 0)
+					remaining -= read;
+				return read;
+			}
+		};
+		return new InputStreamReader(segment, Charset.defaultCharset());
+	}
 	private static String[] removeItemFromStringArray(String[] array, int popIndex){
 		String[] newArray = new String[array.length-1];
 		int oldArrayIndex=0;
@@ -1,17 +1,44 @@
 package net.tullco.tullutils;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.opencsv.CSVWriter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import net.tullco.tullutils.columnarutils.ColumnarWriter;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.sqlutils.ColumnEncoder;
+import net.tullco.tullutils.sqlutils.ConnectionSupplier;
+import net.tullco.tullutils.sqlutils.PipelinedCSVExport;
+import net.tullco.tullutils.sqlutils.ResultSetCSVWriter;
 
 /**
  * A JDBC connection wrapper that abstracts away some of the complexities of querying for most use cases.
@@ -20,6 +47,14 @@ import com.opencsv.CSVWriter;
  */
 public class SQLUtil implements Closeable {
 
+	private static final int BULK_LOAD_BUFFER_SIZE = 1024*1024;
+	private static final int MIN_PAGE_SIZE = 100;
+	private static final int DEFAULT_PAGE_SIZE = 10000;
+	private static final int MAX_PAGE_SIZE = 1000000;
+	private static final long DEFAULT_PAGE_MILLIS = 10000;
+	private static final long RETRY_BACKOFF_MILLIS = 1000;
+	private static final long MAX_RETRY_BACKOFF_MILLIS = 30000;
+	
 	private final Connection conn;
 	private boolean isClosed=false;
 	
@@ -30,6 +65,15 @@ public class SQLUtil implements Closeable {
 	public SQLUtil(Connection conn){
 		this.conn=conn;
 	}
+	/**
+	 * Creates an SQL Util object that makes queries against a connection taken from the supplier.
+	 * If the supplier is a ConnectionPool, closing this object returns the connection to the pool instead of closing it.
+	 * @param connections The supplier to take the connection from.
+	 * @throws SQLException If a connection could not be gotten.
+	 */
+	public SQLUtil(ConnectionSupplier connections) throws SQLException{
+		this(connections.getConnection());
+	}
 	/**
 	 * Executes a select statement and returns the ResultSet.
 	 * @param statement The statement to execute
@@ -75,6 +119,199 @@ public class SQLUtil implements Closeable {
 		s.executeUpdate(statement);
 		s.close();
 	}
+	/**
+	 * Runs the given parameterized statement once for every row, sending the rows to the database in batches.
+	 * The connection is taken out of auto-commit for the load and a commit is made every commitEvery batches.
+	 * If the load fails, the uncommitted batches are rolled back.
+	 * @param statement The statement to run, with a ? for each value in the rows. For example, "INSERT INTO t (a,b) VALUES (?,?)"
+	 * @param rows The rows to bind to the statement. Each array must have a value for every parameter. None of the rows can be null.
+	 * @param batchSize The number of rows to send to the database at a time. Must be at least 1.
+	 * @param commitEvery The number of batches to send between commits. Must be at least 1.
+	 * @return The number of rows loaded.
+	 * @throws SQLException If there was a problem running the statement, or the resource is closed.
+	 * @throws IllegalArgumentException If one of the rows is null, or the batch size or commit interval is less than 1.
+	 */
+	public long executeBatch(String statement, Iterable<? extends Object[]> rows, int batchSize, int commitEvery) throws SQLException {
+		checkBatching(batchSize, commitEvery);
+		Iterator<? extends Object[]> iterator = rows.iterator();
+		RowSource source = () -> {
+			if(!iterator.hasNext())
+				return null;
+			Object[] row = iterator.next();
+			if(row == null)
+				throw new IllegalArgumentException("The rows to load can't contain nulls.");
+			return row;
+		};
+		try{
+			return executeBatch(statement, source, batchSize, commitEvery, false);
+		}catch(IOException | CsvValidationException e){
+			throw new SQLException("Could not read the rows to load.", e);
+		}
+	}
+	/**
+	 * Runs the given parameterized statement once for every row of the CSV, sending the rows to the database in batches.
+	 * The values are bound as the types the database expects for each parameter, and empty fields are loaded as nulls.
+	 * The connection is taken out of auto-commit for the load and a commit is made every commitEvery batches.
+	 * If the load fails, the uncommitted batches are rolled back.
+	 * @param statement The statement to run, with a ? for each column of the CSV. For example, "INSERT INTO t (a,b) VALUES (?,?)"
+	 * @param reader The reader for the CSV, like one from FileUtils.getCSVReader(). It will not be closed.
+	 * @param skipHeaders If true, the first line of the CSV will not be loaded.
+	 * @param batchSize The number of rows to send to the database at a time. Must be at least 1.
+	 * @param commitEvery The number of batches to send between commits. Must be at least 1.
+	 * @return The number of rows loaded.
+	 * @throws SQLException If there was a problem running the statement, or the resource is closed.
+	 * @throws IOException If there was a problem reading the CSV.
+	 * @throws CsvValidationException If the CSV is malformed.
+	 * @throws IllegalArgumentException If the batch size or commit interval is less than 1.
+	 */
+	public long executeBatch(String statement, CSVReader reader, boolean skipHeaders, int batchSize, int commitEvery) throws SQLException, IOException, CsvValidationException {
+		checkBatching(batchSize, commitEvery);
+		if(skipHeaders)
+			reader.readNext();
+		return executeBatch(statement, reader::readNext, batchSize, commitEvery, true);
+	}
+	/**
+	 * Loads a CSV file into a postgres table using COPY FROM STDIN, which is much faster than any batch of inserts.
+	 * The connection must be a postgres connection.
+	 * 
+	 * Note that postgres loads unquoted empty fields as nulls and quoted empty fields as empty strings, and the CSVs written
+	 * by this class quote every field, nulls included. To load those, list the columns whose empty fields are nulls
+	 * with copyCSVToPostgres(String, File, boolean, String...).
+	 * @param table The table to load into. You can include a column list, like "t (a,b)"
+	 * @param csv The CSV file to load.
+	 * @param hasHeaders True if the first line of the CSV is a header line that should be skipped.
+	 * @return The number of rows loaded.
+	 * @throws SQLException If this isn't a postgres connection, or there was a problem running the copy.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public long copyCSVToPostgres(String table, File csv, boolean hasHeaders) throws SQLException, IOException {
+		return copyCSVToPostgres(table, csv, hasHeaders, new String[0]);
+	}
+	/**
+	 * Loads a CSV file into a postgres table using COPY FROM STDIN, which is much faster than any batch of inserts.
+	 * The connection must be a postgres connection. Progress is printed every 100,000 rows while the file is streamed to the database.
+	 * 
+	 * Empty fields in the given columns are loaded as nulls, even when they're quoted, using COPY's FORCE_NULL option.
+	 * The CSVs written by this class quote every field, nulls included, so every column that isn't text needs to be listed
+	 * for them to load at all, along with any text columns whose nulls should stay null rather than become empty strings.
+	 * @param table The table to load into. You can include a column list, like "t (a,b)"
+	 * @param csv The CSV file to load.
+	 * @param hasHeaders True if the first line of the CSV is a header line that should be skipped.
+	 * @param nullColumns The columns whose empty fields should be loaded as nulls.
+	 * @return The number of rows loaded.
+	 * @throws SQLException If this isn't a postgres connection, or there was a problem running the copy.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public long copyCSVToPostgres(String table, File csv, boolean hasHeaders, String... nullColumns) throws SQLException, IOException {
+		throwIfClosed();
+		CopyManager copyManager = getPostgresConnection().getCopyAPI();
+		StringJoiner options = new StringJoiner(", ", " WITH (", ")");
+		options.add("FORMAT csv");
+		if(hasHeaders)
+			options.add("HEADER true");
+		if(nullColumns.length > 0)
+			options.add("FORCE_NULL ("+String.join(", ", nullColumns)+")");
+		String copyStatement = "COPY "+table+" FROM STDIN"+options;
+		Stopwatch watch = new Stopwatch();
+		watch.start();
+		try(CopyProgressInputStream input = new CopyProgressInputStream(new FileInputStream(csv), hasHeaders, watch)){
+			long rows = copyManager.copyIn(copyStatement, input);
+			watch.stop();
+			reportLoadProgress(rows, watch);
+			return rows;
+		}
+	}
+	private long executeBatch(String statement, RowSource rows, int batchSize, int commitEvery, boolean bindAsStrings) throws SQLException, IOException, CsvValidationException {
+		throwIfClosed();
+		boolean autoCommit = this.conn.getAutoCommit();
+		this.conn.setAutoCommit(false);
+		Stopwatch watch = new Stopwatch();
+		watch.start();
+		try(PreparedStatement ps = this.conn.prepareStatement(statement)){
+			int[] parameterTypes = bindAsStrings ? getParameterTypes(ps) : null;
+			long loadedRows = 0;
+			int rowsInBatch = 0;
+			int uncommittedBatches = 0;
+			Object[] row;
+			while((row = rows.next()) != null){
+				for(int i=0; i<row.length; i++){
+					if(bindAsStrings)
+						bindString(ps, i+1, (String) row[i], parameterTypes);
+					else
+						ps.setObject(i+1, row[i]);
+				}
+				ps.addBatch();
+				rowsInBatch++;
+				if(rowsInBatch >= batchSize){
+					ps.executeBatch();
+					loadedRows += rowsInBatch;
+					rowsInBatch = 0;
+					uncommittedBatches++;
+					if(uncommittedBatches >= commitEvery){
+						this.conn.commit();
+						uncommittedBatches = 0;
+						reportLoadProgress(loadedRows, watch);
+					}
+				}
+			}
+			if(rowsInBatch > 0){
+				ps.executeBatch();
+				loadedRows += rowsInBatch;
+			}
+			this.conn.commit();
+			watch.stop();
+			reportLoadProgress(loadedRows, watch);
+			return loadedRows;
+		}catch(SQLException | IOException | CsvValidationException | RuntimeException e){
+			try{
+				this.conn.rollback();
+			}catch(SQLException e2){}
+			throw e;
+		}finally{
+			this.conn.setAutoCommit(autoCommit);
+		}
+	}
+	private static void checkBatching(int batchSize, int commitEvery){
+		if(batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be at least 1, not "+batchSize+".");
+		if(commitEvery < 1)
+			throw new IllegalArgumentException("The commit interval must be at least 1 batch, not "+commitEvery+".");
+	}
+	/**
+	 * Gets the SQL types of the statement's parameters, so string values can be converted by the driver.
+	 * Returns null if the driver can't describe the parameters.
+	 */
+	private static int[] getParameterTypes(PreparedStatement ps){
+		try{
+			ParameterMetaData pmd = ps.getParameterMetaData();
+			int[] types = new int[pmd.getParameterCount()];
+			for(int i=1; i<=types.length; i++)
+				types[i-1] = pmd.getParameterType(i);
+			return types;
+		}catch(SQLException e){
+			return null;
+		}
+	}
+	private static void bindString(PreparedStatement ps, int index, String value, int[] parameterTypes) throws SQLException{
+		boolean typeKnown = parameterTypes != null && index <= parameterTypes.length;
+		if(value == null || value.isEmpty())
+			ps.setNull(index, typeKnown ? parameterTypes[index-1] : Types.VARCHAR);
+		else if(typeKnown)
+			ps.setObject(index, value, parameterTypes[index-1]);
+		else
+			ps.setString(index, value);
+	}
+	private static void reportLoadProgress(long rows, Stopwatch watch){
+		long millis = Math.max(1L, watch.getTotalMillis());
+		System.out.println(String.format("Loaded %d rows (%.0f rows/sec).", rows, rows * 1000d / millis));
+	}
+	private PGConnection getPostgresConnection() throws SQLException{
+		if(this.conn instanceof PGConnection)
+			return (PGConnection) this.conn;
+		if(this.conn.isWrapperFor(PGConnection.class))
+			return this.conn.unwrap(PGConnection.class);
+		throw new SQLException("This is not a postgres connection.");
+	}
 	/**
 	 * Gets the results of the given query as a CSV and saves them to the given file.
 	 * @param csv The file to save the results to.
@@ -83,20 +320,74 @@ public class SQLUtil implements Closeable {
 	 * @throws IOException If there was a problem writing the file.
 	 */
 	public void getResultsAsCSV(File csv, String statement) throws SQLException, IOException {
+		getResultsAsCSV(csv, statement, null);
+	}
+	/**
+	 * Gets the results of the given query as a CSV and saves them to the given file, compressed with the given codec as they're written.
+	 * @param csv The file to save the results to.
+	 * @param statement The SELECT statement to run against the database.
+	 * @param codec The codec to compress with, like CompressionCodec.gzip(). Null leaves the file uncompressed.
+	 * @throws SQLException If there was a problem running the query.
+	 * @throws IOException If there was a problem writing the file.
+	 */
+	public void getResultsAsCSV(File csv, String statement, CompressionCodec codec) throws SQLException, IOException {
 		ResultSet rs = this.executeSelect(statement);
-		ResultSetMetaData rsmd = rs.getMetaData();
-		CSVWriter writer = FileUtils.getCSVWriter(csv);
-		String[] headers = new String[rsmd.getColumnCount()];
-		for(int i=1;i<=rsmd.getColumnCount();i++){
-			headers[i-1] = rsmd.getColumnLabel(i);			
-		}
-		writer.writeNext(headers);
+		ResultSetCSVWriter writer = new ResultSetCSVWriter(FileUtils.getFileWriter(csv, false, codec));
 		try{
-			writeResultSetToCSV(writer,rs);
+			writer.writeHeaders(rs.getMetaData());
+			writer.writeResultSet(rs);
 		}finally{
 			writer.close();
 		}
 	}
+	/**
+	 * Gets the results of the given query as a CSV and saves them to the given file, fetching, encoding and writing
+	 * the rows at the same time on separate threads. The file is the same as the one getResultsAsCSV(File, String) writes.
+	 * @param csv The file to save the results to.
+	 * @param statement The SELECT statement to run against the database.
+	 * @param encoderThreads The number of threads turning rows into CSV text.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem running the query.
+	 * @throws IOException If there was a problem writing the file.
+	 */
+	public long getResultsAsCSV(File csv, String statement, int encoderThreads) throws SQLException, IOException {
+		return getResultsAsCSV(csv, statement, encoderThreads, null);
+	}
+	/**
+	 * Gets the results of the given query as a CSV and saves them to the given file, fetching, encoding and writing
+	 * the rows at the same time on separate threads, and compressing them with the given codec as they're written.
+	 * Decompressed, the file is the same as the one getResultsAsCSV(File, String) writes.
+	 * @param csv The file to save the results to.
+	 * @param statement The SELECT statement to run against the database.
+	 * @param encoderThreads The number of threads turning rows into CSV text.
+	 * @param codec The codec to compress with, like CompressionCodec.lz(). Null leaves the file uncompressed.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem running the query.
+	 * @throws IOException If there was a problem writing the file.
+	 */
+	public long getResultsAsCSV(File csv, String statement, int encoderThreads, CompressionCodec codec) throws SQLException, IOException {
+		ResultSet rs = this.executeSelect(statement);
+		try(Writer writer = FileUtils.getFileWriter(csv, false, codec)){
+			return PipelinedCSVExport.export(rs, writer, true, encoderThreads, PipelinedCSVExport.DEFAULT_BATCH_ROWS);
+		}
+	}
+	/**
+	 * Gets the results of the given query in the columnar format and saves them to the given file.
+	 * Numbers keep their full precision, and the file can be read back with a ColumnarReader.
+	 * If the export fails, the partial file is deleted.
+	 * @param columnar The file to save the results to.
+	 * @param statement The SELECT statement to run against the database.
+	 * @param compress True if each column chunk should be deflated.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem running the query.
+	 * @throws IOException If there was a problem writing the file.
+	 */
+	public long getResultsAsColumnar(File columnar, String statement, boolean compress) throws SQLException, IOException {
+		ResultSet rs = this.executeSelect(statement);
+		try(ColumnarWriter writer = ColumnarWriter.forResultSet(columnar, rs.getMetaData(), compress)){
+			return writer.writeResultSet(rs);
+		}
+	}
 	/**
 	 * This method appends the results of the query to the given CSV. No headers will be written.
 	 * @param csv The CSV to append the results to.
@@ -105,9 +396,12 @@ public class SQLUtil implements Closeable {
 	 * @throws IOException If there was a problem writing the file.
 	 */
 	public void appendResultsToCSV(File csv, String statement) throws SQLException, IOException {
-		CSVWriter writer = FileUtils.getCSVWriter(csv, true);
+		writeResultsToCSV(csv, statement, true);
+	}
+	private void writeResultsToCSV(File csv, String statement, boolean append) throws SQLException, IOException {
+		ResultSetCSVWriter writer = new ResultSetCSVWriter(FileUtils.getFileWriter(csv, append));
 		try{
-			writeResultSetToCSV(writer,this.executeSelect(statement));
+			writer.writeResultSet(this.executeSelect(statement));
 		}finally{
 			writer.close();
 		}
@@ -149,6 +443,160 @@ public class SQLUtil implements Closeable {
 		}while(maxRunId<maxId);
 	}
 	
+	/**
+	 * Runs the query a page at a time using keyset pagination, and outputs all the results to the given file as a CSV.
+	 * Unlike the id range chunking, only pages that actually contain rows are ever queried, and the same prepared statement is
+	 * reused for every page.
+	 * 
+	 * The statement must have two parameters: the key to start after, and the page size. It must also be ordered by the key. For example:
+	 * "SELECT * FROM t WHERE id &gt; ? ORDER BY id LIMIT ?"
+	 * 
+	 * The key must be unique. If rows share a key, the ones past the end of a page with the same key as its last row are
+	 * silently skipped, since the next page starts after that key.
+	 * 
+	 * The page size starts at the given size and then adapts so each page takes roughly the target time to fetch and write.
+	 * @param statement The SQL string you want to page through, with the two parameters described above.
+	 * @param keyColumn The label of the key column in the results, which must be unique. The key of the last row on each page is bound into the next page.
+	 * @param startAfter The key to start after. The rows with this key will not be included.
+	 * @param initialPageSize The page size of the first page.
+	 * @param maxPageSize The largest page size that will ever be requested.
+	 * @param targetPageMillis The time each page should take. Page sizes are adjusted towards this after every page.
+	 * @param f The file you want to output to.
+	 * @return The number of rows written.
+	 * @throws SQLException If there is an SQLException while running the query, or the key column isn't in the results.
+	 * @throws IOException If there is an IOException writing to the file.
+	 */
+	public long chunkifyQueryByKeysetCSV(String statement, String keyColumn, Object startAfter, int initialPageSize, int maxPageSize, long targetPageMillis, File f) throws SQLException, IOException{
+		throwIfClosed();
+		int pageSize = Math.max(1, Math.min(initialPageSize, maxPageSize));
+		Object lastKey = startAfter;
+		long totalRows = 0;
+		int pages = 1;
+		Stopwatch watch = new Stopwatch();
+		try(PreparedStatement ps = this.conn.prepareStatement(statement);
+				ResultSetCSVWriter writer = new ResultSetCSVWriter(FileUtils.getFileWriter(f))){
+			ps.setFetchSize(5000);
+			ColumnEncoder[] encoders = null;
+			int keyIndex = -1;
+			while(true){
+				System.out.println("Running page #"+pages+" after "+lastKey+".");
+				watch.start();
+				ps.setObject(1, lastKey);
+				ps.setInt(2, pageSize);
+				int pageRows = 0;
+				try(ResultSet rs = ps.executeQuery()){
+					if(encoders == null){
+						ResultSetMetaData rsmd = rs.getMetaData();
+						encoders = ResultSetCSVWriter.getEncoders(rsmd);
+						keyIndex = findColumn(rsmd, keyColumn);
+						writer.writeHeaders(rsmd);
+					}
+					while(rs.next()){
+						writer.writeCurrentRow(rs, encoders);
+						lastKey = rs.getObject(keyIndex);
+						pageRows++;
+					}
+				}
+				watch.stop();
+				totalRows += pageRows;
+				if(pageRows < pageSize)
+					return totalRows;
+				pageSize = nextPageSize(pageSize, watch.getLastMillis(), targetPageMillis, maxPageSize);
+				pages++;
+			}
+		}
+	}
+	/**
+	 * Runs the query a page at a time using keyset pagination, and outputs all the results to the given file as a CSV.
+	 * Pages start at 10,000 rows and adapt so each page takes about 10 seconds.
+	 * 
+	 * The statement must have two parameters: the key to start after, and the page size. It must also be ordered by the key. For example:
+	 * "SELECT * FROM t WHERE id &gt; ? ORDER BY id LIMIT ?"
+	 * @param statement The SQL string you want to page through, with the two parameters described above.
+	 * @param keyColumn The label of the key column in the results, which must be unique.
+	 * @param startAfter The key to start after. The rows with this key will not be included.
+	 * @param f The file you want to output to.
+	 * @return The number of rows written.
+	 * @throws SQLException If there is an SQLException while running the query, or the key column isn't in the results.
+	 * @throws IOException If there is an IOException writing to the file.
+	 */
+	public long chunkifyQueryByKeysetCSV(String statement, String keyColumn, Object startAfter, File f) throws SQLException, IOException{
+		return chunkifyQueryByKeysetCSV(statement, keyColumn, startAfter, DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE, DEFAULT_PAGE_MILLIS, f);
+	}
+	/**
+	 * Will chunk up the query into smaller chunks and run them concurrently, each on its own connection from the supplier.
+	 * Can either put chunk files in the given directory or output all results to the same file. When outputting to the same file,
+	 * the chunks are written in id order, exactly as the sequential version would write them.
+	 * If the export fails, nothing it wrote is left behind, so a partial export can't be mistaken for a finished one.
+	 * @param connections The supplier that new connections will be taken from. Each chunk attempt opens and closes its own connection.
+	 * @param parallelism The maximum number of chunks that will be running against the database at the same time.
+	 * @param retries The number of times a failed chunk will be retried before the whole export fails.
+	 * @param statement The SQL string you want to chunk. Make sure it has minIdString and maxIdString in the appropriate locations.
+	 * @param minIdString The string that is in the location you want to put the minimum id in the query. All instances will be replaced. 
+	 * @param maxIdString The string that is in the location you want to put the maximum id in the query. All instances will be replaced.
+	 * @param minId The smallest id that you want to check. (Inclusive)
+	 * @param maxId The largest id that you want to check. (Exclusive)
+	 * @param chunkSize The size of the chunks you want to run.
+	 * @param f The File/Directory you want to output to.
+	 * @param separateFiles True if you want the outputs to be in individual files for each chunk. False if you want the results all in one file.
+	 * @throws IOException If there is an IOException writing to the file, or the export was interrupted.
+	 * @throws SQLException If there is an SQLException while running the query.
+	 */
+	public static void chunkifyQueryByIdCSVParallel(ConnectionSupplier connections, int parallelism, int retries, String statement, String minIdString, String maxIdString, int minId, int maxId, int chunkSize, File f, boolean separateFiles) throws SQLException, IOException{
+		List<Pair<Integer,Integer>> ranges = getIdRanges(minId, maxId, chunkSize);
+		if(separateFiles)
+			f.mkdir();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		List<Future<File>> chunkFiles = new ArrayList<Future<File>>();
+		Queue<File> writtenFiles = new ConcurrentLinkedQueue<File>();
+		boolean finished = false;
+		try{
+			for(int i=0; i<ranges.size(); i++){
+				final Pair<Integer,Integer> range = ranges.get(i);
+				final boolean headers = separateFiles || i==0;
+				final String chunkedStatement = statement.replace(minIdString, Integer.toString(range.left())).replace(maxIdString, Integer.toString(range.right()));
+				chunkFiles.add(pool.submit(() -> {
+					File chunk;
+					if(separateFiles){
+						chunk = new File(f, range.left()+"-"+range.right()+".csv");
+					}else{
+						chunk = File.createTempFile("sql_chunk", ".csv");
+					}
+					writtenFiles.add(chunk);
+					runChunkWithRetries(connections, retries, chunkedStatement, chunk, headers, range.left()+" to "+range.right());
+					return chunk;
+				}));
+			}
+			if(separateFiles){
+				for(Future<File> chunk: chunkFiles)
+					ConcurrencyUtils.await(chunk, SQLException.class);
+			}else{
+				try(FileChannel output = new FileOutputStream(f).getChannel()){
+					for(Future<File> chunk: chunkFiles){
+						File chunkFile = ConcurrencyUtils.await(chunk, SQLException.class);
+						try(FileChannel input = new FileInputStream(chunkFile).getChannel()){
+							long position = 0;
+							long size = input.size();
+							while(position < size)
+								position += input.transferTo(position, size-position, output);
+						}
+						chunkFile.delete();
+					}
+				}
+			}
+			finished = true;
+		}finally{
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+			if(!separateFiles || !finished){
+				for(File writtenFile: writtenFiles)
+					writtenFile.delete();
+			}
+			if(!separateFiles && !finished)
+				f.delete();
+		}
+	}
+	
 	/**
 	 * Splits the query into smaller chunks. All IDs in the given list will be run and the results will be output to the given file as a CSV
 	 * @param statement The SQL string you want to chunk. Assure it has idString in the appropriate location.
@@ -191,62 +639,133 @@ public class SQLUtil implements Closeable {
 			}
 		}
 	}
-	private void writeResultSetToCSV(CSVWriter writer, ResultSet rs) throws SQLException, IOException{
-		ResultSetMetaData rsmd = rs.getMetaData();
-		while(rs.next()){
-			String[] rowData = new String[rsmd.getColumnCount()];
-			for(int i=1; i<=rsmd.getColumnCount(); i++){
+	/**
+	 * Runs a single chunk of a parallel export on a fresh connection, retrying it on failure.
+	 * Each attempt overwrites whatever the last attempt wrote.
+	 */
+	private static void runChunkWithRetries(ConnectionSupplier connections, int retries, String statement, File chunk, boolean headers, String description) throws SQLException, IOException{
+		int attempt = 0;
+		while(true){
+			System.out.println("Running "+description+".");
+			try(SQLUtil sql = new SQLUtil(connections.getConnection())){
+				if(headers)
+					sql.getResultsAsCSV(chunk, statement);
+				else
+					sql.writeResultsToCSV(chunk, statement, false);
+				return;
+			}catch(SQLException | IOException e){
+				if(attempt >= retries)
+					throw e;
+				attempt++;
+				long backoff = retryBackoffMillis(attempt);
+				System.out.println("Chunk "+description+" failed. Retrying in "+backoff+"ms ("+attempt+"/"+retries+")...");
 				try{
-					if((rsmd.getColumnType(i)==Types.INTEGER) ||
-							(rsmd.getColumnType(i)==Types.SMALLINT) ||
-							(rsmd.getColumnType(i)==Types.TINYINT)){
-						rowData[i-1] = Integer.toString(rs.getInt(i));
-					}
-					else if(rsmd.getColumnType(i)==Types.BIGINT){
-						rowData[i-1] = Long.toString(rs.getLong(i));
-					}
-					else if(rsmd.getColumnType(i)==Types.DOUBLE ||
-							rsmd.getColumnType(i)==Types.FLOAT ||
-							rsmd.getColumnType(i)==Types.DECIMAL ||
-							rsmd.getColumnType(i)==Types.NUMERIC ||
-							rsmd.getColumnType(i)==Types.REAL){
-						rowData[i-1] = Double.toString(rs.getDouble(i));
-					}
-					else if(rsmd.getColumnType(i)==Types.VARCHAR ||
-							rsmd.getColumnType(i)==Types.BLOB ||
-							rsmd.getColumnType(i)==Types.LONGNVARCHAR ||
-							rsmd.getColumnType(i)==Types.LONGVARCHAR ||
-							rsmd.getColumnType(i)==Types.CHAR ||
-							rsmd.getColumnType(i)==Types.SQLXML){
-						rowData[i-1] = rs.getString(i);
-					}
-					else if(rsmd.getColumnType(i)==Types.BOOLEAN ||
-							rsmd.getColumnType(i)==(Types.BIT)){
-						rowData[i-1] = Boolean.toString(rs.getBoolean(i));
-					}
-					else if(rsmd.getColumnType(i)==Types.DATE){
-						rowData[i-1] = rs.getDate(i).toLocalDate().toString();
-					}
-					else if(rsmd.getColumnType(i)==Types.TIME ||
-						rsmd.getColumnType(i)==Types.TIME_WITH_TIMEZONE){
-						rowData[i-1] = rs.getTime(i).toLocalTime().toString();
-					}
-					else if(rsmd.getColumnType(i)==Types.TIMESTAMP ||
-							rsmd.getColumnType(i)==Types.TIMESTAMP_WITH_TIMEZONE){
-						rowData[i-1] = rs.getTimestamp(i).toLocalDateTime().toString();
-					}
-					else{
-						rowData[i-1] = rs.getObject(i).toString();
-					}
-					if(rs.wasNull())
-						rowData[i-1] = "";
-				}catch(NullPointerException e){
-					rowData[i-1]="";
+					Thread.sleep(backoff);
+				}catch(InterruptedException e2){
+					Thread.currentThread().interrupt();
+					e.addSuppressed(e2);
+					throw e;
 				}
 			}
-			writer.writeNext(rowData);
 		}
-		rs.close();
+	}
+	/**
+	 * Gets how long to wait before retrying a chunk. The wait doubles with every attempt, up to a limit,
+	 * so a database that's struggling isn't hit again straight away by every failed chunk at once.
+	 */
+	private static long retryBackoffMillis(int attempt){
+		return Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(attempt-1, 16));
+	}
+	/**
+	 * Scales a keyset pagination page size towards the target time based on how fast the last page went.
+	 * Growth and shrinkage are limited to a factor of two per page so one slow page doesn't swing things too far.
+	 * The result is never more than the max page size, and never less than 100 rows unless the max page size is smaller.
+	 * @param pageSize The size of the last page.
+	 * @param pageMillis The time the last page took.
+	 * @param targetPageMillis The time each page should take.
+	 * @param maxPageSize The largest page size that may be returned.
+	 * @return The size of the next page.
+	 */
+	private static int nextPageSize(int pageSize, long pageMillis, long targetPageMillis, int maxPageSize){
+		double scale = (double) targetPageMillis / Math.max(1L, pageMillis);
+		scale = Math.max(0.5, Math.min(2.0, scale));
+		long next = Math.round(pageSize * scale);
+		int minPageSize = Math.max(1, Math.min(MIN_PAGE_SIZE, maxPageSize));
+		return (int) Math.max(minPageSize, Math.min(maxPageSize, next));
+	}
+	private static int findColumn(ResultSetMetaData rsmd, String label) throws SQLException{
+		for(int i=1; i<=rsmd.getColumnCount(); i++){
+			if(rsmd.getColumnLabel(i).equalsIgnoreCase(label))
+				return i;
+		}
+		throw new SQLException("The column "+label+" is not in the results.");
+	}
+	/**
+	 * Splits the id space into [start, end) ranges the same way the sequential chunker walks it.
+	 * The first range is always included, and the last range may run past maxId.
+	 */
+	private static List<Pair<Integer,Integer>> getIdRanges(int minId, int maxId, int chunkSize){
+		List<Pair<Integer,Integer>> ranges = new ArrayList<Pair<Integer,Integer>>();
+		int currentStart = minId;
+		int currentEnd = minId+chunkSize;
+		do{
+			ranges.add(Pair.of(currentStart, currentEnd));
+			currentStart+=chunkSize;
+			currentEnd+=chunkSize;
+		}while(currentStart<maxId);
+		return ranges;
+	}
+	/**
+	 * The file being copied to postgres, counting the rows as the driver reads them so the rate can be reported during the load.
+	 * Rows are counted by the newlines outside of quoted fields.
+	 */
+	private static class CopyProgressInputStream extends BufferedInputStream {
+		
+		private static final long PROGRESS_ROWS = 100000;
+		
+		private final Stopwatch watch;
+		private long rows;
+		private long nextReport = PROGRESS_ROWS;
+		private boolean inQuotes = false;
+		
+		private CopyProgressInputStream(InputStream in, boolean hasHeaders, Stopwatch watch){
+			super(in, BULK_LOAD_BUFFER_SIZE);
+			this.watch = watch;
+			this.rows = hasHeaders ? -1 : 0;
+		}
+		@Override
+		public synchronized int read() throws IOException{
+			int b = super.read();
+			if(b != -1)
+				count(new byte[] {(byte) b}, 0, 1);
+			return b;
+		}
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException{
+			int read = super.read(b, off, len);
+			if(read > 0)
+				count(b, off, read);
+			return read;
+		}
+		private void count(byte[] b, int off, int len){
+			for(int i=off; i<off+len; i++){
+				if(b[i] == '"')
+					inQuotes = !inQuotes;
+				else if(b[i] == '\n' && !inQuotes)
+					rows++;
+			}
+			if(rows >= nextReport){
+				reportLoadProgress(rows, watch);
+				nextReport = (rows / PROGRESS_ROWS + 1) * PROGRESS_ROWS;
+			}
+		}
+	}
+	/**
+	 * A source of rows for the batch loader. Returns null once there are no more rows.
+	 */
+	@FunctionalInterface
+	private static interface RowSource {
+		Object[] next() throws IOException, CsvValidationException;
 	}
 	/**
 	 * Throws an SQL Exception if the object is closed.
@@ -0,0 +1,85 @@
+package net.tullco.tullutils.columnarutils;
+
+import java.util.Arrays;
+
+/**
+ * The statistics stored for one block of a columnar file. Readers can use these to skip blocks without reading them.
+ * The min and max values are Longs, Doubles, Booleans, Strings or BigDecimals depending on the column type, and are null if every value
+ * in the block is null. NaN doubles are left out of the min and max, so they never match a range.
+ * @author Tull Gearreald
+ */
+public class BlockStatistics {
+	
+	private final String[] columnNames;
+	private final int rowCount;
+	private final Object[] mins;
+	private final Object[] maxes;
+	private final int[] nullCounts;
+	
+	BlockStatistics(String[] columnNames, int rowCount, Object[] mins, Object[] maxes, int[] nullCounts){
+		this.columnNames = columnNames;
+		this.rowCount = rowCount;
+		this.mins = mins;
+		this.maxes = maxes;
+		this.nullCounts = nullCounts;
+	}
+	/**
+	 * Gets the number of rows in the block.
+	 * @return The number of rows.
+	 */
+	public int getRowCount(){
+		return rowCount;
+	}
+	/**
+	 * Gets the smallest non-null value of the column in this block, ignoring NaNs.
+	 * @param column The name of the column.
+	 * @return The smallest value, or null if every value is null or NaN.
+	 */
+	public Object getMin(String column){
+		return mins[indexOf(column)];
+	}
+	/**
+	 * Gets the largest non-null value of the column in this block, ignoring NaNs.
+	 * @param column The name of the column.
+	 * @return The largest value, or null if every value is null or NaN.
+	 */
+	public Object getMax(String column){
+		return maxes[indexOf(column)];
+	}
+	/**
+	 * Gets the number of null values of the column in this block.
+	 * @param column The name of the column.
+	 * @return The number of nulls.
+	 */
+	public int getNullCount(String column){
+		return nullCounts[indexOf(column)];
+	}
+	/**
+	 * Checks if any value of the column in this block could be in the given range.
+	 * Null bounds are treated as unbounded.
+	 * @param <T> The type of the column values.
+	 * @param column The name of the column.
+	 * @param low The smallest value you're interested in. (Inclusive)
+	 * @param high The largest value you're interested in. (Inclusive)
+	 * @return False if the block definitely has no values in the range. True otherwise.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Comparable<T>> boolean mightContain(String column, T low, T high){
+		T min = (T) getMin(column);
+		T max = (T) getMax(column);
+		if(min == null)
+			return false;
+		if(low != null && max.compareTo(low) < 0)
+			return false;
+		if(high != null && min.compareTo(high) > 0)
+			return false;
+		return true;
+	}
+	private int indexOf(String column){
+		for(int i=0; i<columnNames.length; i++){
+			if(columnNames[i].equals(column))
+				return i;
+		}
+		throw new IllegalArgumentException("There is no column "+column+" in "+Arrays.toString(columnNames));
+	}
+}
@@ -0,0 +1,49 @@
+package net.tullco.tullutils.columnarutils;
+
+import java.sql.Types;
+
+/**
+ * The types a column in a columnar file can have.
+ * @author Tull Gearreald
+ */
+public enum ColumnType {
+	/** Whole numbers, stored as zig-zag variable length longs. */
+	LONG,
+	/** Floating point numbers, stored as their exact 8 byte representation. */
+	DOUBLE,
+	/** Booleans, stored as a bitmap. */
+	BOOLEAN,
+	/** Text, stored as UTF-8. Blocks with few distinct values are dictionary encoded. */
+	STRING,
+	/** Exact decimals, stored as their plain text like STRING, with min and max statistics compared by numeric value. */
+	DECIMAL;
+	
+	/**
+	 * Gets the column type that values of the given SQL type are stored as.
+	 * Dates and times are stored as strings so no precision is lost. They're ISO formatted, so their min and max statistics
+	 * still sort correctly. Decimals are stored as text too, but in DECIMAL columns, since their text doesn't sort like their values.
+	 * @param sqlType The type from java.sql.Types
+	 * @return The column type to store the values as.
+	 */
+	public static ColumnType forSqlType(int sqlType){
+		switch(sqlType){
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+			case Types.BIGINT:
+				return LONG;
+			case Types.DOUBLE:
+			case Types.FLOAT:
+			case Types.REAL:
+				return DOUBLE;
+			case Types.BOOLEAN:
+			case Types.BIT:
+				return BOOLEAN;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return DECIMAL;
+			default:
+				return STRING;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package net.tullco.tullutils.columnarutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * The constants and low level encodings shared by the columnar writer and reader.
+ * 
+ * A columnar file is laid out as the magic bytes, then the blocks, then the footer, then the footer offset and the magic bytes again.
+ * Each block holds a chunk for every column, which can be read on its own. The footer holds the schema and, for every block, the
+ * position of each chunk along with the block statistics.
+ * @author Tull Gearreald
+ */
+final class ColumnarFormat {
+	
+	static final byte[] MAGIC = {'T','C','O','L'};
+	static final int VERSION = 1;
+	static final int TRAILER_LENGTH = 8 + 4;
+	
+	static final byte PLAIN_STRINGS = 0;
+	static final byte DICTIONARY_STRINGS = 1;
+	
+	private ColumnarFormat(){}
+	
+	/**
+	 * A byte array output stream whose buffer can be used without copying it.
+	 */
+	static final class ChunkBuffer extends ByteArrayOutputStream {
+		ChunkBuffer(int size){
+			super(size);
+		}
+		byte[] buffer(){
+			return this.buf;
+		}
+		void writeVarLong(long value){
+			while((value & ~0x7FL) != 0){
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+		void writeZigZag(long value){
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+		void writeDouble(double value){
+			long bits = Double.doubleToRawLongBits(value);
+			for(int shift=56; shift>=0; shift-=8)
+				write((int) (bits >>> shift));
+		}
+		void writeBitmap(boolean[] bits, int count){
+			for(int i=0; i<count; i+=8){
+				int b = 0;
+				for(int j=0; j<8 && i+j<count; j++){
+					if(bits[i+j])
+						b |= 1 << j;
+				}
+				write(b);
+			}
+		}
+	}
+	
+	static long readVarLong(ByteBuffer buffer){
+		long value = 0;
+		int shift = 0;
+		while(true){
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+			shift += 7;
+		}
+	}
+	static long readZigZag(ByteBuffer buffer){
+		long value = readVarLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	static boolean[] readBitmap(ByteBuffer buffer, int count){
+		boolean[] bits = new boolean[count];
+		for(int i=0; i<count; i+=8){
+			int b = buffer.get() & 0xFF;
+			for(int j=0; j<8 && i+j<count; j++)
+				bits[i+j] = (b & (1 << j)) != 0;
+		}
+		return bits;
+	}
+	
+	static void writeStatistic(DataOutput out, ColumnType type, Object value, boolean isMax) throws IOException{
+		switch(type){
+			case LONG:
+				out.writeLong((Long) value);
+				break;
+			case DOUBLE:
+				out.writeDouble((Double) value);
+				break;
+			case BOOLEAN:
+				out.writeBoolean((Boolean) value);
+				break;
+			case STRING:
+				out.writeUTF(truncate((String) value, isMax));
+				break;
+			case DECIMAL:
+				out.writeUTF(((BigDecimal) value).toString());
+				break;
+		}
+	}
+	static Object readStatistic(DataInput in, ColumnType type) throws IOException{
+		switch(type){
+			case LONG:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case BOOLEAN:
+				return in.readBoolean();
+			case DECIMAL:
+				return new BigDecimal(in.readUTF());
+			default:
+				return in.readUTF();
+		}
+	}
+	/**
+	 * Keeps string statistics from blowing past the limit of writeUTF.
+	 * A truncated min is still a valid lower bound. A truncated max gets the largest char appended so it stays an upper bound.
+	 */
+	private static String truncate(String s, boolean isMax){
+		if(s.length() <= MAX_STRING_STATISTIC)
+			return s;
+		String prefix = s.substring(0, MAX_STRING_STATISTIC);
+		return isMax ? prefix + Character.MAX_VALUE : prefix;
+	}
+	static final int MAX_STRING_STATISTIC = 1024;
+}
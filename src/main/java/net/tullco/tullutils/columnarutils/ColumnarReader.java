@@ -0,0 +1,305 @@
+package net.tullco.tullutils.columnarutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads files written by ColumnarWriter. Only the chunks of the requested columns are read from disk,
+ * and whole blocks can be skipped based on their statistics.
+ * 
+ * Values are returned as Longs, Doubles, Booleans, Strings and BigDecimals depending on the column type, or null.
+ * @author Tull Gearreald
+ */
+public class ColumnarReader implements Closeable {
+	
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final String[] names;
+	private final ColumnType[] types;
+	private final boolean compressed;
+	private final int[] blockRows;
+	private final long[][] offsets;
+	private final int[][] storedLengths;
+	private final int[][] rawLengths;
+	private final BlockStatistics[] statistics;
+	private final Inflater inflater = new Inflater();
+	
+	/**
+	 * Opens a columnar file and reads its footer.
+	 * @param f The file to read.
+	 * @throws IOException If the file couldn't be read, or isn't a columnar file.
+	 */
+	public ColumnarReader(File f) throws IOException{
+		this.file = new RandomAccessFile(f, "r");
+		this.channel = file.getChannel();
+		try{
+			ByteBuffer header = readFully(0, ColumnarFormat.MAGIC.length + 4);
+			checkMagic(header);
+			int version = header.getInt();
+			if(version != ColumnarFormat.VERSION)
+				throw new IOException("Unsupported columnar file version "+version);
+			long size = channel.size();
+			ByteBuffer trailer = readFully(size - ColumnarFormat.TRAILER_LENGTH, ColumnarFormat.TRAILER_LENGTH);
+			long footerOffset = trailer.getLong();
+			checkMagic(trailer);
+			ByteBuffer footerBuffer = readFully(footerOffset, (int) (size - ColumnarFormat.TRAILER_LENGTH - footerOffset));
+			DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBuffer.array()));
+			int columns = footer.readInt();
+			this.names = new String[columns];
+			this.types = new ColumnType[columns];
+			for(int i=0; i<columns; i++){
+				names[i] = footer.readUTF();
+				types[i] = ColumnType.values()[footer.readByte()];
+			}
+			this.compressed = footer.readBoolean();
+			int blocks = footer.readInt();
+			this.blockRows = new int[blocks];
+			this.offsets = new long[blocks][columns];
+			this.storedLengths = new int[blocks][columns];
+			this.rawLengths = new int[blocks][columns];
+			this.statistics = new BlockStatistics[blocks];
+			for(int b=0; b<blocks; b++){
+				blockRows[b] = footer.readInt();
+				Object[] mins = new Object[columns];
+				Object[] maxes = new Object[columns];
+				int[] nullCounts = new int[columns];
+				for(int i=0; i<columns; i++){
+					offsets[b][i] = footer.readLong();
+					storedLengths[b][i] = footer.readInt();
+					rawLengths[b][i] = footer.readInt();
+					nullCounts[i] = footer.readInt();
+					if(footer.readBoolean()){
+						mins[i] = ColumnarFormat.readStatistic(footer, types[i]);
+						maxes[i] = ColumnarFormat.readStatistic(footer, types[i]);
+					}
+				}
+				statistics[b] = new BlockStatistics(names, blockRows[b], mins, maxes, nullCounts);
+			}
+		}catch(IOException | RuntimeException e){
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Gets the names of the columns in the file.
+	 * @return The column names.
+	 */
+	public String[] getColumnNames(){
+		return names.clone();
+	}
+	/**
+	 * Gets the types of the columns in the file.
+	 * @return The column types, in the same order as the names.
+	 */
+	public ColumnType[] getColumnTypes(){
+		return types.clone();
+	}
+	/**
+	 * Gets the number of blocks in the file.
+	 * @return The number of blocks.
+	 */
+	public int getBlockCount(){
+		return blockRows.length;
+	}
+	/**
+	 * Gets the total number of rows in the file.
+	 * @return The number of rows.
+	 */
+	public long getRowCount(){
+		long rows = 0;
+		for(int r: blockRows)
+			rows += r;
+		return rows;
+	}
+	/**
+	 * Gets the statistics of a block.
+	 * @param block The index of the block.
+	 * @return The statistics of the block.
+	 */
+	public BlockStatistics getBlockStatistics(int block){
+		return statistics[block];
+	}
+	
+	/**
+	 * Reads the given columns of a block. Only those columns are read from disk.
+	 * @param block The index of the block.
+	 * @param columns The names of the columns to read. If none are given, every column is read.
+	 * @return An array for each requested column, in the order requested, holding the values of every row of the block.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public Object[][] readBlock(int block, String... columns) throws IOException{
+		int[] indices = resolveColumns(columns);
+		Object[][] values = new Object[indices.length][];
+		for(int i=0; i<indices.length; i++)
+			values[i] = readColumn(block, indices[i]);
+		return values;
+	}
+	
+	/**
+	 * Reads the given columns of every row in every block that passes the filter.
+	 * @param blockFilter Blocks whose statistics don't pass this filter are skipped without being read. Can be null to read every block.
+	 * @param rowConsumer Receives each row, with the values in the order the columns were requested. The array is reused between rows.
+	 * @param columns The names of the columns to read. If none are given, every column is read.
+	 * @return The number of rows read.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public long forEachRow(Predicate<BlockStatistics> blockFilter, Consumer<Object[]> rowConsumer, String... columns) throws IOException{
+		int[] indices = resolveColumns(columns);
+		Object[] row = new Object[indices.length];
+		long rowsRead = 0;
+		for(int b=0; b<blockRows.length; b++){
+			if(blockFilter != null && !blockFilter.test(statistics[b]))
+				continue;
+			Object[][] values = new Object[indices.length][];
+			for(int i=0; i<indices.length; i++)
+				values[i] = readColumn(b, indices[i]);
+			for(int r=0; r<blockRows[b]; r++){
+				for(int i=0; i<indices.length; i++)
+					row[i] = values[i][r];
+				rowConsumer.accept(row);
+			}
+			rowsRead += blockRows[b];
+		}
+		return rowsRead;
+	}
+	
+	private int[] resolveColumns(String[] columns){
+		if(columns == null || columns.length == 0){
+			int[] all = new int[names.length];
+			for(int i=0; i<all.length; i++)
+				all[i] = i;
+			return all;
+		}
+		int[] indices = new int[columns.length];
+		for(int c=0; c<columns.length; c++){
+			indices[c] = -1;
+			for(int i=0; i<names.length; i++){
+				if(names[i].equals(columns[c]))
+					indices[c] = i;
+			}
+			if(indices[c] == -1)
+				throw new IllegalArgumentException("There is no column "+columns[c]+" in "+Arrays.toString(names));
+		}
+		return indices;
+	}
+	
+	private Object[] readColumn(int block, int column) throws IOException{
+		int rows = blockRows[block];
+		ByteBuffer data = readFully(offsets[block][column], storedLengths[block][column]);
+		if(compressed && storedLengths[block][column] < rawLengths[block][column])
+			data = inflate(data, rawLengths[block][column]);
+		Object[] values = new Object[rows];
+		int nullCount = statistics[block].getNullCount(names[column]);
+		if(nullCount == rows)
+			return values;
+		boolean[] nulls = nullCount > 0 ? ColumnarFormat.readBitmap(data, rows) : new boolean[rows];
+		switch(types[column]){
+			case LONG:
+				for(int r=0; r<rows; r++){
+					if(!nulls[r])
+						values[r] = ColumnarFormat.readZigZag(data);
+				}
+				break;
+			case DOUBLE:
+				for(int r=0; r<rows; r++){
+					if(!nulls[r])
+						values[r] = data.getDouble();
+				}
+				break;
+			case BOOLEAN:
+				boolean[] present = ColumnarFormat.readBitmap(data, rows - nullCount);
+				int p = 0;
+				for(int r=0; r<rows; r++){
+					if(!nulls[r])
+						values[r] = present[p++];
+				}
+				break;
+			case STRING:
+			case DECIMAL:
+				byte encoding = data.get();
+				if(encoding == ColumnarFormat.DICTIONARY_STRINGS){
+					String[] dictionary = new String[(int) ColumnarFormat.readVarLong(data)];
+					for(int d=0; d<dictionary.length; d++)
+						dictionary[d] = readString(data);
+					for(int r=0; r<rows; r++){
+						if(!nulls[r])
+							values[r] = dictionary[(int) ColumnarFormat.readVarLong(data)];
+					}
+				}else{
+					for(int r=0; r<rows; r++){
+						if(!nulls[r])
+							values[r] = readString(data);
+					}
+				}
+				if(types[column] == ColumnType.DECIMAL){
+					for(int r=0; r<rows; r++){
+						if(!nulls[r])
+							values[r] = new BigDecimal((String) values[r]);
+					}
+				}
+				break;
+		}
+		return values;
+	}
+	private static String readString(ByteBuffer data){
+		int length = (int) ColumnarFormat.readVarLong(data);
+		String s = new String(data.array(), data.arrayOffset() + data.position(), length, StandardCharsets.UTF_8);
+		data.position(data.position() + length);
+		return s;
+	}
+	private ByteBuffer inflate(ByteBuffer data, int rawLength) throws IOException{
+		byte[] raw = new byte[rawLength];
+		inflater.reset();
+		inflater.setInput(data.array(), data.arrayOffset(), data.remaining());
+		try{
+			int inflated = 0;
+			while(inflated < rawLength && !inflater.finished()){
+				int count = inflater.inflate(raw, inflated, rawLength - inflated);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += count;
+			}
+			if(inflated != rawLength)
+				throw new IOException("A column chunk was shorter than expected.");
+		}catch(DataFormatException e){
+			throw new IOException("A column chunk is corrupt.", e);
+		}
+		return ByteBuffer.wrap(raw);
+	}
+	private ByteBuffer readFully(long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+				throw new EOFException("Unexpected end of columnar file.");
+		}
+		buffer.flip();
+		return buffer;
+	}
+	private static void checkMagic(ByteBuffer buffer) throws IOException{
+		for(byte b: ColumnarFormat.MAGIC){
+			if(buffer.get() != b)
+				throw new IOException("This is not a columnar file.");
+		}
+	}
+	@Override
+	public void close() throws IOException{
+		inflater.end();
+		file.close();
+	}
+}
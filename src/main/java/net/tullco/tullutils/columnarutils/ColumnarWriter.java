@@ -0,0 +1,544 @@
+package net.tullco.tullutils.columnarutils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import net.tullco.tullutils.columnarutils.ColumnarFormat.ChunkBuffer;
+
+/**
+ * Writes rows to a columnar file. Rows are collected into blocks, and each block is written column by column with
+ * min/max statistics so readers can skip whole blocks and only read the columns they need.
+ * Strings are dictionary encoded in blocks where they repeat, and each column chunk can optionally be deflated.
+ * @author Tull Gearreald
+ */
+public class ColumnarWriter implements Closeable {
+	
+	/**
+	 * The number of rows in each block if no other size is given.
+	 */
+	public static final int DEFAULT_BLOCK_ROWS = 65536;
+	private static final int OUTPUT_BUFFER_SIZE = 1024*1024;
+	
+	private final File file;
+	private final String[] names;
+	private final ColumnType[] types;
+	private final boolean compress;
+	private final int blockRows;
+	private final DataOutputStream out;
+	
+	private final boolean[][] nulls;
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final boolean[][] booleans;
+	private final String[][] strings;
+	private int rows = 0;
+	
+	private final ChunkBuffer chunk;
+	private final Deflater deflater;
+	private byte[] deflateBuffer;
+	private final List<BlockEntry> blocks = new ArrayList<BlockEntry>();
+	private long position;
+	private boolean isClosed = false;
+	private boolean failed = false;
+	
+	/**
+	 * Creates a writer with the default block size.
+	 * @param f The file to write to. It will be overwritten.
+	 * @param names The names of the columns.
+	 * @param types The types of the columns.
+	 * @param compress True if each column chunk should be deflated.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public ColumnarWriter(File f, String[] names, ColumnType[] types, boolean compress) throws IOException{
+		this(f, names, types, compress, DEFAULT_BLOCK_ROWS);
+	}
+	/**
+	 * Creates a writer.
+	 * @param f The file to write to. It will be overwritten.
+	 * @param names The names of the columns.
+	 * @param types The types of the columns.
+	 * @param compress True if each column chunk should be deflated.
+	 * @param blockRows The number of rows in each block. Smaller blocks can be skipped more precisely, but have more overhead.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public ColumnarWriter(File f, String[] names, ColumnType[] types, boolean compress, int blockRows) throws IOException{
+		if(names.length != types.length)
+			throw new IllegalArgumentException("There must be a type for every column name.");
+		this.file = f;
+		this.names = names.clone();
+		this.types = types.clone();
+		this.compress = compress;
+		this.blockRows = Math.max(1, blockRows);
+		int columns = names.length;
+		this.nulls = new boolean[columns][];
+		this.longs = new long[columns][];
+		this.doubles = new double[columns][];
+		this.booleans = new boolean[columns][];
+		this.strings = new String[columns][];
+		for(int i=0; i<columns; i++){
+			nulls[i] = new boolean[this.blockRows];
+			switch(types[i]){
+				case LONG:
+					longs[i] = new long[this.blockRows];
+					break;
+				case DOUBLE:
+					doubles[i] = new double[this.blockRows];
+					break;
+				case BOOLEAN:
+					booleans[i] = new boolean[this.blockRows];
+					break;
+				case STRING:
+				case DECIMAL:
+					strings[i] = new String[this.blockRows];
+					break;
+			}
+		}
+		this.chunk = new ChunkBuffer(64*1024);
+		this.deflater = compress ? new Deflater() : null;
+		this.deflateBuffer = new byte[64*1024];
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), OUTPUT_BUFFER_SIZE));
+		this.out.write(ColumnarFormat.MAGIC);
+		this.out.writeInt(ColumnarFormat.VERSION);
+		this.position = ColumnarFormat.MAGIC.length + 4;
+	}
+	/**
+	 * Creates a writer with columns matching the result set metadata. 
+	 * @param f The file to write to. It will be overwritten.
+	 * @param rsmd The metadata to take the column names and types from.
+	 * @param compress True if each column chunk should be deflated.
+	 * @return The new writer.
+	 * @throws SQLException If the metadata couldn't be read.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public static ColumnarWriter forResultSet(File f, ResultSetMetaData rsmd, boolean compress) throws SQLException, IOException{
+		String[] names = new String[rsmd.getColumnCount()];
+		ColumnType[] types = new ColumnType[names.length];
+		for(int i=1; i<=names.length; i++){
+			names[i-1] = rsmd.getColumnLabel(i);
+			types[i-1] = ColumnType.forSqlType(rsmd.getColumnType(i));
+		}
+		return new ColumnarWriter(f, names, types, compress);
+	}
+	
+	/**
+	 * Writes a row. Values can be null, and must otherwise match the column types: Numbers for LONG and DOUBLE columns,
+	 * Booleans for BOOLEAN columns, and BigDecimals or anything whose toString() is a decimal number for DECIMAL columns.
+	 * Anything in a STRING column is written with toString().
+	 * @param values The values of the row.
+	 * @throws IOException If there was a problem writing a finished block.
+	 */
+	public void writeRow(Object... values) throws IOException{
+		if(values.length != names.length)
+			throw new IllegalArgumentException("Expected "+names.length+" values, got "+values.length);
+		for(int i=0; i<values.length; i++){
+			Object value = values[i];
+			nulls[i][rows] = value == null;
+			if(value == null)
+				continue;
+			switch(types[i]){
+				case LONG:
+					longs[i][rows] = ((Number) value).longValue();
+					break;
+				case DOUBLE:
+					doubles[i][rows] = ((Number) value).doubleValue();
+					break;
+				case BOOLEAN:
+					booleans[i][rows] = (Boolean) value;
+					break;
+				case STRING:
+					strings[i][rows] = value.toString();
+					break;
+				case DECIMAL:
+					BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+					strings[i][rows] = decimal.toPlainString();
+					break;
+			}
+		}
+		finishRow();
+	}
+	
+	/**
+	 * Writes every remaining row of the result set, then closes it. The columns of the result set must line up with the columns of this writer,
+	 * like they do when the writer comes from forResultSet().
+	 * If this fails, the writer won't write a footer when it's closed, and deletes the file instead, so a partial file can't pass for a complete one.
+	 * @param rs The result set to write.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem reading the results.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public long writeResultSet(ResultSet rs) throws SQLException, IOException{
+		try{
+			ResultSetMetaData rsmd = rs.getMetaData();
+			int[] sqlTypes = new int[names.length];
+			for(int i=1; i<=sqlTypes.length; i++)
+				sqlTypes[i-1] = rsmd.getColumnType(i);
+			long written = 0;
+			while(rs.next()){
+				for(int i=0; i<names.length; i++){
+					int column = i+1;
+					switch(types[i]){
+						case LONG:
+							longs[i][rows] = rs.getLong(column);
+							nulls[i][rows] = rs.wasNull();
+							break;
+						case DOUBLE:
+							doubles[i][rows] = rs.getDouble(column);
+							nulls[i][rows] = rs.wasNull();
+							break;
+						case BOOLEAN:
+							booleans[i][rows] = rs.getBoolean(column);
+							nulls[i][rows] = rs.wasNull();
+							break;
+						case STRING:
+						case DECIMAL:
+							String value = readString(rs, column, sqlTypes[i]);
+							strings[i][rows] = value;
+							nulls[i][rows] = value == null;
+							break;
+					}
+				}
+				finishRow();
+				written++;
+			}
+			return written;
+		}catch(SQLException | IOException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			rs.close();
+		}
+	}
+	private static String readString(ResultSet rs, int column, int sqlType) throws SQLException{
+		switch(sqlType){
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				BigDecimal decimal = rs.getBigDecimal(column);
+				return decimal == null ? null : decimal.toPlainString();
+			case Types.DATE:
+				Date date = rs.getDate(column);
+				return date == null ? null : date.toLocalDate().toString();
+			case Types.TIME:
+			case Types.TIME_WITH_TIMEZONE:
+				Time time = rs.getTime(column);
+				return time == null ? null : time.toLocalTime().toString();
+			case Types.TIMESTAMP:
+			case Types.TIMESTAMP_WITH_TIMEZONE:
+				Timestamp timestamp = rs.getTimestamp(column);
+				return timestamp == null ? null : timestamp.toLocalDateTime().toString();
+			default:
+				return rs.getString(column);
+		}
+	}
+	
+	private void finishRow() throws IOException{
+		rows++;
+		if(rows < blockRows)
+			return;
+		try{
+			writeBlock();
+		}catch(IOException | RuntimeException e){
+			failed = true;
+			throw e;
+		}
+	}
+	
+	private void writeBlock() throws IOException{
+		if(rows == 0)
+			return;
+		BlockEntry block = new BlockEntry(names.length, rows);
+		for(int i=0; i<names.length; i++){
+			chunk.reset();
+			encodeColumn(i, block);
+			block.offsets[i] = position;
+			block.rawLengths[i] = chunk.size();
+			byte[] data = chunk.buffer();
+			int length = chunk.size();
+			if(compress){
+				int deflatedLength = deflate(data, length);
+				if(deflatedLength < length){
+					data = deflateBuffer;
+					length = deflatedLength;
+				}
+			}
+			block.storedLengths[i] = length;
+			out.write(data, 0, length);
+			position += length;
+		}
+		blocks.add(block);
+		rows = 0;
+	}
+	private int deflate(byte[] data, int length){
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		int deflatedLength = 0;
+		while(!deflater.finished()){
+			if(deflatedLength == deflateBuffer.length){
+				if(deflatedLength >= length)
+					return Integer.MAX_VALUE;
+				byte[] bigger = new byte[deflateBuffer.length*2];
+				System.arraycopy(deflateBuffer, 0, bigger, 0, deflatedLength);
+				deflateBuffer = bigger;
+			}
+			deflatedLength += deflater.deflate(deflateBuffer, deflatedLength, deflateBuffer.length - deflatedLength);
+		}
+		return deflatedLength;
+	}
+	private void encodeColumn(int column, BlockEntry block){
+		boolean[] columnNulls = nulls[column];
+		int nullCount = 0;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				nullCount++;
+		}
+		block.nullCounts[column] = nullCount;
+		if(nullCount > 0)
+			chunk.writeBitmap(columnNulls, rows);
+		if(nullCount == rows)
+			return;
+		switch(types[column]){
+			case LONG:
+				encodeLongs(column, block);
+				break;
+			case DOUBLE:
+				encodeDoubles(column, block);
+				break;
+			case BOOLEAN:
+				encodeBooleans(column, block, nullCount);
+				break;
+			case STRING:
+				stringStatistics(column, block);
+				encodeStrings(column, block, nullCount);
+				break;
+			case DECIMAL:
+				decimalStatistics(column, block);
+				encodeStrings(column, block, nullCount);
+				break;
+		}
+	}
+	private void encodeLongs(int column, BlockEntry block){
+		long[] values = longs[column];
+		boolean[] columnNulls = nulls[column];
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			long value = values[r];
+			chunk.writeZigZag(value);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		block.mins[column] = min;
+		block.maxes[column] = max;
+	}
+	private void encodeDoubles(int column, BlockEntry block){
+		double[] values = doubles[column];
+		boolean[] columnNulls = nulls[column];
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		boolean hasValue = false;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			double value = values[r];
+			chunk.writeDouble(value);
+			if(Double.isNaN(value))
+				continue;
+			hasValue = true;
+			if(Double.compare(value, min) < 0)
+				min = value;
+			if(Double.compare(value, max) > 0)
+				max = value;
+		}
+		if(hasValue){
+			block.mins[column] = min;
+			block.maxes[column] = max;
+		}
+	}
+	private void encodeBooleans(int column, BlockEntry block, int nullCount){
+		boolean[] values = booleans[column];
+		boolean[] columnNulls = nulls[column];
+		boolean[] present = new boolean[rows - nullCount];
+		int count = 0;
+		boolean sawTrue = false;
+		boolean sawFalse = false;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			present[count++] = values[r];
+			sawTrue |= values[r];
+			sawFalse |= !values[r];
+		}
+		chunk.writeBitmap(present, count);
+		block.mins[column] = !sawFalse;
+		block.maxes[column] = sawTrue;
+	}
+	private void stringStatistics(int column, BlockEntry block){
+		String[] values = strings[column];
+		boolean[] columnNulls = nulls[column];
+		String min = null;
+		String max = null;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			String value = values[r];
+			if(min == null || value.compareTo(min) < 0)
+				min = value;
+			if(max == null || value.compareTo(max) > 0)
+				max = value;
+		}
+		block.mins[column] = min;
+		block.maxes[column] = max;
+	}
+	private void decimalStatistics(int column, BlockEntry block){
+		String[] values = strings[column];
+		boolean[] columnNulls = nulls[column];
+		BigDecimal min = null;
+		BigDecimal max = null;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			BigDecimal value = new BigDecimal(values[r]);
+			if(min == null || value.compareTo(min) < 0)
+				min = value;
+			if(max == null || value.compareTo(max) > 0)
+				max = value;
+		}
+		block.mins[column] = min;
+		block.maxes[column] = max;
+	}
+	private void encodeStrings(int column, BlockEntry block, int nullCount){
+		String[] values = strings[column];
+		boolean[] columnNulls = nulls[column];
+		HashMap<String,Integer> dictionary = new HashMap<String,Integer>();
+		List<String> entries = new ArrayList<String>();
+		int limit = (rows - nullCount) / 2;
+		for(int r=0; r<rows; r++){
+			if(columnNulls[r])
+				continue;
+			String value = values[r];
+			if(dictionary != null && !dictionary.containsKey(value)){
+				if(entries.size() >= limit){
+					dictionary = null;
+				}else{
+					dictionary.put(value, entries.size());
+					entries.add(value);
+				}
+			}
+		}
+		if(dictionary != null){
+			chunk.write(ColumnarFormat.DICTIONARY_STRINGS);
+			chunk.writeVarLong(entries.size());
+			for(String entry: entries)
+				writeString(entry);
+			for(int r=0; r<rows; r++){
+				if(!columnNulls[r])
+					chunk.writeVarLong(dictionary.get(values[r]));
+			}
+		}else{
+			chunk.write(ColumnarFormat.PLAIN_STRINGS);
+			for(int r=0; r<rows; r++){
+				if(!columnNulls[r])
+					writeString(values[r]);
+			}
+		}
+		for(int r=0; r<rows; r++)
+			values[r] = null;
+	}
+	private void writeString(String s){
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		chunk.writeVarLong(bytes.length);
+		chunk.write(bytes, 0, bytes.length);
+	}
+	
+	private void writeFooter() throws IOException{
+		long footerOffset = position;
+		out.writeInt(names.length);
+		for(int i=0; i<names.length; i++){
+			out.writeUTF(names[i]);
+			out.writeByte(types[i].ordinal());
+		}
+		out.writeBoolean(compress);
+		out.writeInt(blocks.size());
+		for(BlockEntry block: blocks){
+			out.writeInt(block.rows);
+			for(int i=0; i<names.length; i++){
+				out.writeLong(block.offsets[i]);
+				out.writeInt(block.storedLengths[i]);
+				out.writeInt(block.rawLengths[i]);
+				out.writeInt(block.nullCounts[i]);
+				boolean hasStatistics = block.mins[i] != null;
+				out.writeBoolean(hasStatistics);
+				if(hasStatistics){
+					ColumnarFormat.writeStatistic(out, types[i], block.mins[i], false);
+					ColumnarFormat.writeStatistic(out, types[i], block.maxes[i], true);
+				}
+			}
+		}
+		out.writeLong(footerOffset);
+		out.write(ColumnarFormat.MAGIC);
+	}
+	
+	/**
+	 * Writes the last block and the footer, then closes the file. The file can't be read until this is called.
+	 * If writing a result set or a block failed, no footer is written and the file is deleted instead.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(isClosed)
+			return;
+		isClosed = true;
+		try{
+			if(!failed){
+				writeBlock();
+				writeFooter();
+			}
+		}catch(IOException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			out.close();
+			if(deflater != null)
+				deflater.end();
+			if(failed)
+				file.delete();
+		}
+	}
+	
+	private static final class BlockEntry {
+		final int rows;
+		final long[] offsets;
+		final int[] storedLengths;
+		final int[] rawLengths;
+		final int[] nullCounts;
+		final Object[] mins;
+		final Object[] maxes;
+		BlockEntry(int columns, int rows){
+			this.rows = rows;
+			this.offsets = new long[columns];
+			this.storedLengths = new int[columns];
+			this.rawLengths = new int[columns];
+			this.nullCounts = new int[columns];
+			this.mins = new Object[columns];
+			this.maxes = new Object[columns];
+		}
+	}
+}
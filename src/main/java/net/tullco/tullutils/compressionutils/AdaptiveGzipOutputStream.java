@@ -0,0 +1,200 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that picks its own compression level. The first megabyte written is held back and compressed at
+ * several levels to measure each one's ratio and speed, then the level the objective likes best is used for the whole stream.
+ *
+ * The right level depends on both the data and where it's going. Text like CSV gains a lot from higher levels, data that's
+ * already compressed gains nothing, and whether the extra time is worth it depends on how fast the output can be written.
+ * The measurements are kept, so they can be logged or used to tune later jobs.
+ *
+ * Profiling costs a few compressions of the sample, which is small next to compressing a big file.
+ * @author Tull Gearreald
+ */
+public class AdaptiveGzipOutputStream extends OutputStream {
+
+	/**
+	 * The levels tried if no others are given.
+	 */
+	public static final int[] DEFAULT_LEVELS = {1, 3, 6, 9};
+	/**
+	 * The number of bytes held back to profile.
+	 */
+	public static final int SAMPLE_SIZE = 1024*1024;
+
+	private final CountingOutputStream out;
+	private final CompressionObjective objective;
+	private final int[] levels;
+	private byte[] sample = new byte[SAMPLE_SIZE];
+	private int sampleLength = 0;
+	private List<LevelProfile> profiles = Collections.emptyList();
+	private LevelProfile chosen = null;
+	private OutputStream compressed = null;
+	private long bytesIn = 0;
+	private boolean closed = false;
+
+	/**
+	 * Creates a stream that tries the default levels.
+	 * @param out The stream to write the gzip data to. It is closed when this stream is.
+	 * @param objective What to aim for when picking the level.
+	 */
+	public AdaptiveGzipOutputStream(OutputStream out, CompressionObjective objective){
+		this(out, objective, DEFAULT_LEVELS);
+	}
+	/**
+	 * Creates a stream that tries the given levels.
+	 * @param out The stream to write the gzip data to. It is closed when this stream is.
+	 * @param objective What to aim for when picking the level.
+	 * @param levels The deflate levels to try, from 0 to 9.
+	 * @throws IllegalArgumentException If no levels are given, or one of them isn't from 0 to 9.
+	 */
+	public AdaptiveGzipOutputStream(OutputStream out, CompressionObjective objective, int... levels){
+		if(levels.length == 0)
+			throw new IllegalArgumentException("At least one level is needed.");
+		for(int level: levels){
+			if(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				throw new IllegalArgumentException("Levels go from 0 to 9, not " + level + ".");
+		}
+		this.out = new CountingOutputStream(out);
+		this.objective = objective;
+		this.levels = levels.clone();
+	}
+	@Override
+	public void write(int b) throws IOException{
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		bytesIn += len;
+		if(compressed == null){
+			int copied = Math.min(len, SAMPLE_SIZE - sampleLength);
+			System.arraycopy(b, off, sample, sampleLength, copied);
+			sampleLength += copied;
+			off += copied;
+			len -= copied;
+			if(sampleLength < SAMPLE_SIZE)
+				return;
+			chooseLevel();
+		}
+		compressed.write(b, off, len);
+	}
+	/**
+	 * Flushes the underlying stream. Data still being held back to profile isn't written until there's a full sample, or the stream is closed.
+	 * @throws IOException If there was a problem writing.
+	 */
+	@Override
+	public void flush() throws IOException{
+		if(compressed != null)
+			compressed.flush();
+		else
+			out.flush();
+	}
+	/**
+	 * Picks a level if one hasn't been picked yet, writes out the rest of the data and the gzip trailer, and closes the underlying stream.
+	 * @throws IOException If there was a problem writing.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		try{
+			if(compressed == null)
+				chooseLevel();
+		}finally{
+			if(compressed != null)
+				compressed.close();
+			else
+				out.close();
+		}
+	}
+	/**
+	 * Gets how each level did on the sample, in the order they were tried.
+	 * @return The profiles. This is empty until the level has been picked, or if nothing was written.
+	 */
+	public List<LevelProfile> getProfiles(){
+		return profiles;
+	}
+	/**
+	 * Gets the level being used.
+	 * @return The level.
+	 * @throws IllegalStateException If the level hasn't been picked yet.
+	 */
+	public int getChosenLevel(){
+		if(compressed == null)
+			throw new IllegalStateException("The level isn't picked until a full sample has been written, or the stream is closed.");
+		return getChosenLevelOrDefault();
+	}
+	/**
+	 * Gets the profile of the level being used.
+	 * @return The profile, or null if the level hasn't been picked yet or nothing was written.
+	 */
+	public LevelProfile getChosenProfile(){
+		return chosen;
+	}
+	/**
+	 * Gets the number of uncompressed bytes written to this stream.
+	 * @return The number of bytes.
+	 */
+	public long getBytesIn(){
+		return bytesIn;
+	}
+	/**
+	 * Gets the number of compressed bytes written to the underlying stream so far.
+	 * @return The number of bytes.
+	 */
+	public long getBytesOut(){
+		return out.count;
+	}
+
+	/**
+	 * Profiles the sample, picks the cheapest level, and writes the sample out at that level.
+	 */
+	private void chooseLevel() throws IOException{
+		if(sampleLength > 0){
+			List<LevelProfile> measured = new ArrayList<LevelProfile>();
+			for(int level: levels){
+				LevelProfile profile = LevelProfile.measure(sample, sampleLength, level);
+				measured.add(profile);
+				if(chosen == null || objective.cost(profile) < objective.cost(chosen))
+					chosen = profile;
+			}
+			profiles = Collections.unmodifiableList(measured);
+		}
+		compressed = CompressionCodec.gzip(getChosenLevelOrDefault()).compress(out);
+		compressed.write(sample, 0, sampleLength);
+		sample = null;
+	}
+	private int getChosenLevelOrDefault(){
+		return chosen == null ? Deflater.DEFAULT_COMPRESSION : chosen.getLevel();
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count = 0;
+
+		private CountingOutputStream(OutputStream out){
+			super(out);
+		}
+		@Override
+		public void write(int b) throws IOException{
+			out.write(b);
+			count++;
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A file that has already been compressed for a zip archive, along with everything the entry headers need to know about it.
+ * Small files are compressed into memory, and bigger ones into a temporary file, so only a few of them need to be held at once.
+ * If compressing doesn't make the file any smaller, it is stored as is instead.
+ * @author Tull Gearreald
+ */
+final class CompressedEntry {
+
+	private static final long IN_MEMORY_LIMIT = 4*1024*1024;
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final ThreadLocal<byte[]> INPUT_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+	private static final ThreadLocal<byte[]> OUTPUT_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+	private final String name;
+	private final File source;
+	private final long lastModified;
+	private int method;
+	private long crc;
+	private long size;
+	private long compressedSize;
+	private ByteArrayOutputStream data = null;
+	private File spill = null;
+
+	private CompressedEntry(String name, File source){
+		this.name = name;
+		this.source = source;
+		this.lastModified = source.lastModified();
+	}
+
+	/**
+	 * Compresses a file with raw deflate, computing its CRC on the way.
+	 * The buffers are kept per thread, so compressing many files on a pool doesn't allocate new ones for each.
+	 * @param source The file to compress.
+	 * @param name The name of the entry in the archive.
+	 * @param level The deflate level to use.
+	 * @return The compressed entry.
+	 * @throws IOException If there was a problem reading the file or writing the temporary file.
+	 */
+	static CompressedEntry deflate(File source, String name, int level) throws IOException{
+		CompressedEntry entry = new CompressedEntry(name, source);
+		byte[] input = INPUT_BUFFERS.get();
+		byte[] output = OUTPUT_BUFFERS.get();
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(level, true);
+		OutputStream out;
+		if(source.length() <= IN_MEMORY_LIMIT){
+			entry.data = new ByteArrayOutputStream((int) source.length()/2 + 64);
+			out = entry.data;
+		}else{
+			entry.spill = File.createTempFile("tullutils_zip", ".deflate");
+			out = new BufferedOutputStream(new FileOutputStream(entry.spill), BUFFER_SIZE);
+		}
+		try(OutputStream compressed = out; FileInputStream in = new FileInputStream(source)){
+			int read;
+			while((read = in.read(input)) != -1){
+				crc.update(input, 0, read);
+				deflater.setInput(input, 0, read);
+				while(!deflater.needsInput())
+					compressed.write(output, 0, deflater.deflate(output));
+			}
+			deflater.finish();
+			while(!deflater.finished())
+				compressed.write(output, 0, deflater.deflate(output));
+			entry.crc = crc.getValue();
+			entry.size = deflater.getBytesRead();
+			entry.compressedSize = deflater.getBytesWritten();
+			entry.method = ZipEntry.DEFLATED;
+		}catch(IOException | RuntimeException e){
+			entry.discard();
+			throw e;
+		}finally{
+			deflater.end();
+		}
+		if(entry.compressedSize >= entry.size){
+			entry.discard();
+			entry.method = ZipEntry.STORED;
+			entry.compressedSize = entry.size;
+		}
+		return entry;
+	}
+
+	String getName(){
+		return name;
+	}
+	long getLastModified(){
+		return lastModified;
+	}
+	int getMethod(){
+		return method;
+	}
+	long getCrc(){
+		return crc;
+	}
+	long getSize(){
+		return size;
+	}
+	long getCompressedSize(){
+		return compressedSize;
+	}
+	/**
+	 * Writes the entry's data, compressed or stored, to the channel.
+	 * @param out The channel to write to.
+	 * @throws IOException If there was a problem reading the data or writing it.
+	 */
+	void writeTo(WritableByteChannel out) throws IOException{
+		if(data != null){
+			data.writeTo(Channels.newOutputStream(out));
+			return;
+		}
+		try(FileChannel in = new FileInputStream(spill != null ? spill : source).getChannel()){
+			long position = 0;
+			while(position < compressedSize){
+				long transferred = in.transferTo(position, compressedSize-position, out);
+				if(transferred <= 0)
+					throw new IOException(name + " got shorter while it was being zipped.");
+				position += transferred;
+			}
+		}
+	}
+	/**
+	 * Throws away the compressed data, deleting the temporary file if there is one.
+	 */
+	void discard(){
+		data = null;
+		if(spill != null){
+			spill.delete();
+			spill = null;
+		}
+	}
+}
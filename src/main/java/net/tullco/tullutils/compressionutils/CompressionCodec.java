@@ -0,0 +1,91 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+
+/**
+ * A compression format that can be stacked on top of any stream or channel, so output can be compressed as it is written
+ * instead of being compressed afterwards.
+ *
+ * Codecs are thread safe and meant to be reused. Each one keeps pools of the buffers and compressors its streams use,
+ * which are handed back when a stream is closed, so opening many streams doesn't allocate much. Streams should always be closed.
+ * @author Tull Gearreald
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Wraps a stream so everything written to it is compressed.
+	 * @param out The stream to write the compressed data to. It is closed when the returned stream is.
+	 * @return The stream to write uncompressed data to.
+	 * @throws IOException If a header couldn't be written.
+	 */
+	public OutputStream compress(OutputStream out) throws IOException;
+	/**
+	 * Wraps a stream of compressed data so reading it gives the uncompressed data.
+	 * @param in The compressed data. It is closed when the returned stream is.
+	 * @return The stream to read uncompressed data from.
+	 * @throws IOException If a header couldn't be read, or isn't this codec's.
+	 */
+	public InputStream decompress(InputStream in) throws IOException;
+	/**
+	 * Gets the extension files in this format usually have.
+	 * @return The extension, including the dot.
+	 */
+	public String getFileExtension();
+
+	/**
+	 * Wraps a channel so everything written to it is compressed.
+	 * @param channel The channel to write the compressed data to. It is closed when the returned channel is.
+	 * @return The channel to write uncompressed data to.
+	 * @throws IOException If a header couldn't be written.
+	 */
+	public default WritableByteChannel compress(WritableByteChannel channel) throws IOException{
+		return Channels.newChannel(compress(Channels.newOutputStream(channel)));
+	}
+	/**
+	 * Wraps a channel of compressed data so reading it gives the uncompressed data.
+	 * @param channel The compressed data. It is closed when the returned channel is.
+	 * @return The channel to read uncompressed data from.
+	 * @throws IOException If a header couldn't be read, or isn't this codec's.
+	 */
+	public default ReadableByteChannel decompress(ReadableByteChannel channel) throws IOException{
+		return Channels.newChannel(decompress(Channels.newInputStream(channel)));
+	}
+
+	/**
+	 * Gets the codec for zlib wrapped deflate, the format of DeflaterOutputStream.
+	 * @param level The deflate level, from 0 to 9, or -1 for the default.
+	 * @return The codec.
+	 */
+	public static CompressionCodec deflate(int level){
+		return DeflateCodec.forLevel(level, false);
+	}
+	/**
+	 * Gets the codec for gzip.
+	 * @param level The deflate level, from 0 to 9, or -1 for the default.
+	 * @return The codec.
+	 */
+	public static CompressionCodec gzip(int level){
+		return DeflateCodec.forLevel(level, true);
+	}
+	/**
+	 * Gets the codec for gzip at the default level.
+	 * @return The codec.
+	 */
+	public static CompressionCodec gzip(){
+		return gzip(Deflater.DEFAULT_COMPRESSION);
+	}
+	/**
+	 * Gets the codec for this library's LZ format, which compresses many times faster than deflate at its default level, at a lower ratio.
+	 * It suits output that is mostly being kept off the disk rather than archived.
+	 * @return The codec.
+	 */
+	public static CompressionCodec lz(){
+		return LZCodec.INSTANCE;
+	}
+}
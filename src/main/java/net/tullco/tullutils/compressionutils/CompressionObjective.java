@@ -0,0 +1,45 @@
+package net.tullco.tullutils.compressionutils;
+
+/**
+ * What to aim for when picking a compression level. It gives each measured level a cost, and the level with the lowest cost is used.
+ * @author Tull Gearreald
+ */
+@FunctionalInterface
+public interface CompressionObjective {
+
+	/**
+	 * Works out the cost of using a level. Lower is better.
+	 * @param profile How the level did on a sample.
+	 * @return The cost.
+	 */
+	public double cost(LevelProfile profile);
+
+	/**
+	 * Gets the objective of finishing as soon as possible, counting both compressing the data and writing it out.
+	 * A slow disk favors higher levels, since there's less to write, and a fast one favors lower levels.
+	 * Compressing and writing are assumed to happen one after the other on the same thread, as they do with a plain stream.
+	 * @param diskBytesPerSecond How fast the output can be written, in bytes per second.
+	 * @return The objective.
+	 */
+	public static CompressionObjective minimumTime(double diskBytesPerSecond){
+		return profile -> 1 / profile.getBytesPerSecond() + profile.getRatio() / diskBytesPerSecond;
+	}
+	/**
+	 * Gets the objective of making the output as small as possible, no matter how long it takes.
+	 * @return The objective.
+	 */
+	public static CompressionObjective smallest(){
+		return profile -> profile.getRatio();
+	}
+	/**
+	 * Gets the objective of making the output as small as possible while still compressing at least a given speed.
+	 * If no level is fast enough, the fastest one is picked.
+	 * @param minimumBytesPerSecond The slowest acceptable speed, in uncompressed bytes per second.
+	 * @return The objective.
+	 */
+	public static CompressionObjective smallestAtLeast(double minimumBytesPerSecond){
+		return profile -> profile.getBytesPerSecond() >= minimumBytesPerSecond
+				? profile.getRatio()
+				: 1 + minimumBytesPerSecond / profile.getBytesPerSecond();
+	}
+}
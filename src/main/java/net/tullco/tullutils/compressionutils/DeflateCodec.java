@@ -0,0 +1,151 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The deflate and gzip codecs. There's one instance per level and format, so every user of a level shares its pools.
+ *
+ * The JDK's deflater streams take the Deflater or Inflater to use, and don't end it on close when it was passed in,
+ * so the pooled ones are handed over and taken back when the stream is closed. Their buffers are swapped for pooled ones too.
+ * GZIPOutputStream always makes its own Deflater, so gzip output is written here instead, with the same header and trailer.
+ * GZIPInputStream is still used for reading gzip, since it also handles files made of several gzip members.
+ * @author Tull Gearreald
+ */
+final class DeflateCodec implements CompressionCodec {
+
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final int MIN_LEVEL = -1;
+	private static final int MAX_LEVEL = 9;
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	private static final DeflateCodec[] DEFLATE = new DeflateCodec[MAX_LEVEL - MIN_LEVEL + 1];
+	private static final DeflateCodec[] GZIP = new DeflateCodec[MAX_LEVEL - MIN_LEVEL + 1];
+	static{
+		for(int level=MIN_LEVEL; level<=MAX_LEVEL; level++){
+			DEFLATE[level - MIN_LEVEL] = new DeflateCodec(level, false);
+			GZIP[level - MIN_LEVEL] = new DeflateCodec(level, true);
+		}
+	}
+
+	private final boolean gzip;
+	private final ObjectPool<Deflater> deflaters;
+	private final ObjectPool<Inflater> inflaters;
+	private final ObjectPool<byte[]> buffers = new ObjectPool<byte[]>(() -> new byte[BUFFER_SIZE], buffer -> {});
+
+	private DeflateCodec(int level, boolean gzip){
+		this.gzip = gzip;
+		this.deflaters = new ObjectPool<Deflater>(() -> new Deflater(level, gzip), Deflater::end);
+		this.inflaters = new ObjectPool<Inflater>(() -> new Inflater(gzip), Inflater::end);
+	}
+
+	/**
+	 * Gets the shared codec for a level.
+	 * @param level The deflate level, from 0 to 9, or -1 for the default.
+	 * @param gzip True for gzip, false for zlib wrapped deflate.
+	 * @return The codec.
+	 */
+	static DeflateCodec forLevel(int level, boolean gzip){
+		if(level < MIN_LEVEL || level > MAX_LEVEL)
+			throw new IllegalArgumentException("Deflate levels go from -1 to 9, not " + level + ".");
+		return gzip ? GZIP[level - MIN_LEVEL] : DEFLATE[level - MIN_LEVEL];
+	}
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException{
+		if(gzip)
+			return new PooledGzipOutputStream(out);
+		return new PooledDeflaterOutputStream(out);
+	}
+	@Override
+	public InputStream decompress(InputStream in) throws IOException{
+		if(gzip)
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		return new PooledInflaterInputStream(in);
+	}
+	@Override
+	public String getFileExtension(){
+		return gzip ? ".gz" : ".deflate";
+	}
+
+	private class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+		private boolean released = false;
+
+		private PooledDeflaterOutputStream(OutputStream out){
+			super(out, deflaters.acquire(), 1);
+			this.buf = buffers.acquire();
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			if(released)
+				throw new IOException("The stream is closed.");
+			super.write(b, off, len);
+		}
+		@Override
+		public void close() throws IOException{
+			try{
+				super.close();
+			}finally{
+				if(!released){
+					released = true;
+					def.reset();
+					deflaters.release(def);
+					buffers.release(buf);
+				}
+			}
+		}
+	}
+	private class PooledGzipOutputStream extends PooledDeflaterOutputStream {
+
+		private final CRC32 crc = new CRC32();
+
+		private PooledGzipOutputStream(OutputStream out) throws IOException{
+			super(out);
+			out.write(GZIP_HEADER);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			super.write(b, off, len);
+			crc.update(b, off, len);
+		}
+		@Override
+		public void finish() throws IOException{
+			if(def.finished())
+				return;
+			super.finish();
+			int value = (int) crc.getValue();
+			int size = (int) def.getBytesRead();
+			out.write(new byte[] {
+					(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24),
+					(byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)});
+		}
+	}
+	private class PooledInflaterInputStream extends InflaterInputStream {
+
+		private boolean released = false;
+
+		private PooledInflaterInputStream(InputStream in){
+			super(in, inflaters.acquire(), 1);
+			this.buf = buffers.acquire();
+		}
+		@Override
+		public void close() throws IOException{
+			try{
+				super.close();
+			}finally{
+				if(!released){
+					released = true;
+					inf.reset();
+					inflaters.release(inf);
+					buffers.release(buf);
+				}
+			}
+		}
+	}
+}
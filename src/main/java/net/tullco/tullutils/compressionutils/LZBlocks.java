@@ -0,0 +1,167 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses single blocks in the LZ4 block format: runs of literal bytes, each followed by a match
+ * that copies bytes from up to 64KB earlier in the block. The compressor is the simple greedy one, with a hash table
+ * of where each four byte sequence was last seen, which is what makes it so much faster than deflate.
+ * @author Tull Gearreald
+ */
+final class LZBlocks {
+
+	/** The number of entries in the hash table the compressor needs. */
+	static final int HASH_TABLE_SIZE = 1 << 14;
+	private static final int HASH_SHIFT = 32 - 14;
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 65535;
+	// The format requires the last five bytes to be literals, and the last match to start at least twelve bytes from the end.
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	// After this many misses in a row, start skipping ahead faster through data that doesn't compress.
+	private static final int SKIP_TRIGGER = 6;
+
+	private LZBlocks(){}
+
+	/**
+	 * Gets the most space a block of the given size could take once compressed.
+	 * @param length The size of the uncompressed block.
+	 * @return The most bytes the compressed block could be.
+	 */
+	static int maxCompressedLength(int length){
+		return length + length/255 + 16;
+	}
+	/**
+	 * Compresses a block.
+	 * @param source The array holding the block.
+	 * @param length The size of the block, which starts at the beginning of the array.
+	 * @param destination Where to write the compressed block. It must have room for maxCompressedLength(length) bytes.
+	 * @param table A hash table of HASH_TABLE_SIZE entries to work in. It doesn't need to be cleared first.
+	 * @return The size of the compressed block.
+	 */
+	static int compress(byte[] source, int length, byte[] destination, int[] table){
+		Arrays.fill(table, -1);
+		int anchor = 0;
+		int out = 0;
+		int matchLimit = length - LAST_LITERALS;
+		int position = 0;
+		int misses = 0;
+		while(position <= length - MATCH_FIND_LIMIT){
+			int sequence = readInt(source, position);
+			int hash = (sequence * -1640531535) >>> HASH_SHIFT;
+			int reference = table[hash];
+			table[hash] = position;
+			if(reference < 0 || position - reference > MAX_OFFSET || readInt(source, reference) != sequence){
+				position += 1 + (misses++ >>> SKIP_TRIGGER);
+				continue;
+			}
+			misses = 0;
+			while(position > anchor && reference > 0 && source[position-1] == source[reference-1]){
+				position--;
+				reference--;
+			}
+			int matchLength = MIN_MATCH;
+			while(position + matchLength < matchLimit && source[reference + matchLength] == source[position + matchLength])
+				matchLength++;
+			out = writeSequence(source, anchor, position - anchor, position - reference, matchLength, destination, out);
+			position += matchLength;
+			anchor = position;
+		}
+		return writeLastLiterals(source, anchor, length - anchor, destination, out);
+	}
+	/**
+	 * Decompresses a block.
+	 * @param source The array holding the compressed block.
+	 * @param length The size of the compressed block, which starts at the beginning of the array.
+	 * @param destination Where to write the decompressed block.
+	 * @return The size of the decompressed block.
+	 * @throws IOException If the block is corrupt, or doesn't fit in the destination.
+	 */
+	static int decompress(byte[] source, int length, byte[] destination) throws IOException{
+		int in = 0;
+		int out = 0;
+		try{
+			while(in < length){
+				int token = source[in++] & 0xFF;
+				int literals = token >>> 4;
+				if(literals == 15){
+					int extra;
+					do{
+						extra = source[in++] & 0xFF;
+						literals += extra;
+					}while(extra == 255);
+				}
+				if(in + literals > length || out + literals > destination.length)
+					throw new IOException("The compressed block is corrupt.");
+				System.arraycopy(source, in, destination, out, literals);
+				in += literals;
+				out += literals;
+				if(in == length)
+					break;
+				int offset = (source[in] & 0xFF) | (source[in+1] & 0xFF) << 8;
+				in += 2;
+				int matchLength = token & 0x0F;
+				if(matchLength == 15){
+					int extra;
+					do{
+						extra = source[in++] & 0xFF;
+						matchLength += extra;
+					}while(extra == 255);
+				}
+				matchLength += MIN_MATCH;
+				if(offset == 0 || offset > out || out + matchLength > destination.length)
+					throw new IOException("The compressed block is corrupt.");
+				int from = out - offset;
+				if(offset >= matchLength){
+					System.arraycopy(destination, from, destination, out, matchLength);
+					out += matchLength;
+				}else{
+					// The match overlaps what it's writing, which is how runs are encoded, so it has to be copied a byte at a time.
+					for(int i=0; i<matchLength; i++)
+						destination[out++] = destination[from++];
+				}
+			}
+		}catch(ArrayIndexOutOfBoundsException e){
+			throw new IOException("The compressed block is corrupt.", e);
+		}
+		return out;
+	}
+
+	private static int writeSequence(byte[] source, int literalStart, int literals, int offset, int matchLength, byte[] destination, int out){
+		int matchCode = matchLength - MIN_MATCH;
+		destination[out++] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchCode, 15));
+		out = writeLength(literals, destination, out);
+		System.arraycopy(source, literalStart, destination, out, literals);
+		out += literals;
+		destination[out++] = (byte) offset;
+		destination[out++] = (byte) (offset >>> 8);
+		return writeLength(matchCode, destination, out);
+	}
+	private static int writeLastLiterals(byte[] source, int literalStart, int literals, byte[] destination, int out){
+		destination[out++] = (byte) (Math.min(literals, 15) << 4);
+		out = writeLength(literals, destination, out);
+		System.arraycopy(source, literalStart, destination, out, literals);
+		return out + literals;
+	}
+	/**
+	 * Writes the part of a length that didn't fit in the token's four bits, as bytes of 255 followed by the remainder.
+	 */
+	private static int writeLength(int length, byte[] destination, int out){
+		if(length < 15)
+			return out;
+		length -= 15;
+		while(length >= 255){
+			destination[out++] = (byte) 255;
+			length -= 255;
+		}
+		destination[out++] = (byte) length;
+		return out;
+	}
+	private static int readInt(byte[] source, int position){
+		return (source[position] & 0xFF)
+				| (source[position+1] & 0xFF) << 8
+				| (source[position+2] & 0xFF) << 16
+				| (source[position+3] & 0xFF) << 24;
+	}
+}
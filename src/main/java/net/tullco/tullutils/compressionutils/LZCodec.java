@@ -0,0 +1,40 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The LZ codec. Data is cut into 64KB blocks that are each compressed in the LZ4 block format and written with a small header,
+ * and the whole stream ends with a CRC-32C of the uncompressed data. The blocks are real LZ4 blocks,
+ * but the framing around them is this library's own, so the files can't be read by the lz4 command line tool.
+ *
+ * The streams' block buffers and hash tables come from pools shared by every stream, so they aren't allocated per stream.
+ * @author Tull Gearreald
+ */
+final class LZCodec implements CompressionCodec {
+
+	static final LZCodec INSTANCE = new LZCodec();
+	static final int BLOCK_SIZE = 64*1024;
+	static final byte[] MAGIC = {'T', 'L', 'Z', '1'};
+	static final int UNCOMPRESSED_FLAG = 0x80000000;
+
+	final ObjectPool<byte[]> blocks = new ObjectPool<byte[]>(() -> new byte[BLOCK_SIZE], block -> {});
+	final ObjectPool<byte[]> compressedBlocks = new ObjectPool<byte[]>(() -> new byte[LZBlocks.maxCompressedLength(BLOCK_SIZE)], block -> {});
+	final ObjectPool<int[]> hashTables = new ObjectPool<int[]>(() -> new int[LZBlocks.HASH_TABLE_SIZE], table -> {});
+
+	private LZCodec(){}
+
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException{
+		return new LZOutputStream(out, this);
+	}
+	@Override
+	public InputStream decompress(InputStream in) throws IOException{
+		return new LZInputStream(in, this);
+	}
+	@Override
+	public String getFileExtension(){
+		return ".tlz";
+	}
+}
@@ -0,0 +1,120 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.tullco.tullutils.hashutils.CRC32C;
+
+/**
+ * Reads the LZ codec's format, decompressing a block at a time and checking the CRC at the end.
+ * @author Tull Gearreald
+ */
+final class LZInputStream extends InputStream {
+
+	private final InputStream in;
+	private final LZCodec codec;
+	private final CRC32C crc = new CRC32C();
+	private final byte[] header = new byte[4];
+	private byte[] block;
+	private byte[] compressed;
+	private int length = 0;
+	private int position = 0;
+	private boolean finished = false;
+	private boolean closed = false;
+
+	LZInputStream(InputStream in, LZCodec codec) throws IOException{
+		this.in = in;
+		this.codec = codec;
+		readFully(header, 4);
+		for(int i=0; i<4; i++){
+			if(header[i] != LZCodec.MAGIC[i])
+				throw new IOException("This isn't LZ compressed data.");
+		}
+		this.block = codec.blocks.acquire();
+		this.compressed = codec.compressedBlocks.acquire();
+	}
+	@Override
+	public int read() throws IOException{
+		if(!nextBlock())
+			return -1;
+		return block[position++] & 0xFF;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException{
+		if(len == 0)
+			return 0;
+		if(!nextBlock())
+			return -1;
+		int read = Math.min(len, length - position);
+		System.arraycopy(block, position, b, off, read);
+		position += read;
+		return read;
+	}
+	@Override
+	public int available() throws IOException{
+		return closed ? 0 : length - position;
+	}
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		try{
+			in.close();
+		}finally{
+			codec.blocks.release(block);
+			codec.compressedBlocks.release(compressed);
+			block = null;
+			compressed = null;
+		}
+	}
+
+	/**
+	 * Makes sure there is unread data in the current block, reading the next one if needed.
+	 * @return False if the end of the stream has been reached.
+	 */
+	private boolean nextBlock() throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		while(position == length){
+			if(finished)
+				return false;
+			int blockHeader = readInt();
+			if(blockHeader == 0){
+				finished = true;
+				if(readInt() != (int) crc.getValue())
+					throw new IOException("The LZ data is corrupt. Its CRC doesn't match.");
+				return false;
+			}
+			int size = blockHeader & ~LZCodec.UNCOMPRESSED_FLAG;
+			if(size > LZBlocks.maxCompressedLength(LZCodec.BLOCK_SIZE))
+				throw new IOException("The LZ data is corrupt. A block is too big.");
+			if((blockHeader & LZCodec.UNCOMPRESSED_FLAG) != 0){
+				if(size > block.length)
+					throw new IOException("The LZ data is corrupt. A block is too big.");
+				readFully(block, size);
+				length = size;
+			}else{
+				readFully(compressed, size);
+				length = LZBlocks.decompress(compressed, size, block);
+			}
+			position = 0;
+			crc.update(block, 0, length);
+		}
+		return true;
+	}
+	private int readInt() throws IOException{
+		readFully(header, 4);
+		return (header[0] & 0xFF) | (header[1] & 0xFF) << 8 | (header[2] & 0xFF) << 16 | (header[3] & 0xFF) << 24;
+	}
+	private void readFully(byte[] buffer, int size) throws IOException{
+		int read = 0;
+		while(read < size){
+			int count = in.read(buffer, read, size - read);
+			if(count == -1)
+				throw new EOFException("The LZ data ended too soon.");
+			read += count;
+		}
+	}
+}
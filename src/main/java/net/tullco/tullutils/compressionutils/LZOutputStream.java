@@ -0,0 +1,113 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.tullco.tullutils.hashutils.CRC32C;
+
+/**
+ * Writes the LZ codec's format, compressing a block at a time as the blocks fill up.
+ * @author Tull Gearreald
+ */
+final class LZOutputStream extends OutputStream {
+
+	private final OutputStream out;
+	private final LZCodec codec;
+	private final CRC32C crc = new CRC32C();
+	private final byte[] header = new byte[4];
+	private byte[] block;
+	private byte[] compressed;
+	private int[] table;
+	private int length = 0;
+	private boolean closed = false;
+
+	LZOutputStream(OutputStream out, LZCodec codec) throws IOException{
+		this.out = out;
+		this.codec = codec;
+		this.block = codec.blocks.acquire();
+		this.compressed = codec.compressedBlocks.acquire();
+		this.table = codec.hashTables.acquire();
+		out.write(LZCodec.MAGIC);
+	}
+	@Override
+	public void write(int b) throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		block[length++] = (byte) b;
+		if(length == block.length)
+			writeBlock();
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		while(len > 0){
+			int copied = Math.min(len, block.length - length);
+			System.arraycopy(b, off, block, length, copied);
+			length += copied;
+			off += copied;
+			len -= copied;
+			if(length == block.length)
+				writeBlock();
+		}
+	}
+	/**
+	 * Compresses and writes out whatever is in the current block, even if it isn't full, then flushes the underlying stream.
+	 * @throws IOException If there was a problem writing.
+	 */
+	@Override
+	public void flush() throws IOException{
+		if(closed)
+			return;
+		writeBlock();
+		out.flush();
+	}
+	/**
+	 * Writes out the last block and the end of the stream, then closes the underlying stream.
+	 * @throws IOException If there was a problem writing.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		try{
+			try{
+				writeBlock();
+				writeInt(0);
+				writeInt((int) crc.getValue());
+			}finally{
+				out.close();
+			}
+		}finally{
+			closed = true;
+			codec.blocks.release(block);
+			codec.compressedBlocks.release(compressed);
+			codec.hashTables.release(table);
+			block = null;
+			compressed = null;
+			table = null;
+		}
+	}
+
+	private void writeBlock() throws IOException{
+		if(length == 0)
+			return;
+		crc.update(block, 0, length);
+		int compressedLength = LZBlocks.compress(block, length, compressed, table);
+		if(compressedLength < length){
+			writeInt(compressedLength);
+			out.write(compressed, 0, compressedLength);
+		}else{
+			writeInt(length | LZCodec.UNCOMPRESSED_FLAG);
+			out.write(block, 0, length);
+		}
+		length = 0;
+	}
+	private void writeInt(int value) throws IOException{
+		header[0] = (byte) value;
+		header[1] = (byte) (value >>> 8);
+		header[2] = (byte) (value >>> 16);
+		header[3] = (byte) (value >>> 24);
+		out.write(header);
+	}
+}
@@ -0,0 +1,108 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.util.zip.Deflater;
+
+/**
+ * How well and how fast one deflate level compressed a sample of data.
+ * @author Tull Gearreald
+ */
+public final class LevelProfile {
+
+	private static final int CHUNK_SIZE = 64*1024;
+
+	private final int level;
+	private final long inputBytes;
+	private final long compressedBytes;
+	private final long nanos;
+
+	/**
+	 * Creates a profile from numbers that were already measured.
+	 * @param level The deflate level.
+	 * @param inputBytes The number of bytes compressed.
+	 * @param compressedBytes The number of bytes they compressed to.
+	 * @param nanos How long compressing them took, in nanoseconds.
+	 */
+	public LevelProfile(int level, long inputBytes, long compressedBytes, long nanos){
+		this.level = level;
+		this.inputBytes = inputBytes;
+		this.compressedBytes = compressedBytes;
+		this.nanos = Math.max(1, nanos);
+	}
+
+	/**
+	 * Compresses a sample at a level and measures how it went. The sample is compressed twice and the faster time is kept,
+	 * so the first run can warm things up.
+	 * @param sample The array holding the sample.
+	 * @param length The size of the sample, which starts at the beginning of the array.
+	 * @param level The deflate level to measure.
+	 * @return The profile of the level.
+	 */
+	public static LevelProfile measure(byte[] sample, int length, int level){
+		Deflater deflater = new Deflater(level, true);
+		byte[] output = new byte[CHUNK_SIZE];
+		long compressed = 0;
+		long fastest = Long.MAX_VALUE;
+		try{
+			for(int run=0; run<2; run++){
+				deflater.reset();
+				long start = System.nanoTime();
+				deflater.setInput(sample, 0, length);
+				deflater.finish();
+				while(!deflater.finished())
+					deflater.deflate(output);
+				fastest = Math.min(fastest, System.nanoTime() - start);
+				compressed = deflater.getBytesWritten();
+			}
+		}finally{
+			deflater.end();
+		}
+		return new LevelProfile(level, length, compressed, fastest);
+	}
+
+	/**
+	 * Gets the deflate level.
+	 * @return The level.
+	 */
+	public int getLevel(){
+		return level;
+	}
+	/**
+	 * Gets the number of bytes that were compressed.
+	 * @return The number of bytes.
+	 */
+	public long getInputBytes(){
+		return inputBytes;
+	}
+	/**
+	 * Gets the number of bytes they compressed to.
+	 * @return The number of bytes.
+	 */
+	public long getCompressedBytes(){
+		return compressedBytes;
+	}
+	/**
+	 * Gets how long the compressing took.
+	 * @return The time in nanoseconds.
+	 */
+	public long getNanos(){
+		return nanos;
+	}
+	/**
+	 * Gets the compressed size as a fraction of the original size. Smaller is better.
+	 * @return The ratio, or 1 if nothing was compressed.
+	 */
+	public double getRatio(){
+		return inputBytes == 0 ? 1 : (double) compressedBytes / inputBytes;
+	}
+	/**
+	 * Gets how fast the level compressed, measured in uncompressed bytes.
+	 * @return The speed in bytes per second.
+	 */
+	public double getBytesPerSecond(){
+		return inputBytes * 1e9 / nanos;
+	}
+	@Override
+	public String toString(){
+		return String.format("level %d: ratio %.3f, %.1f MB/s", level, getRatio(), getBytesPerSecond() / (1024*1024));
+	}
+}
@@ -0,0 +1,67 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A small thread safe pool of things that are expensive to make, like big buffers and Deflaters,
+ * so streams that are opened and closed over and over can reuse them instead of making new ones each time.
+ * Only a limited number of idle objects are kept. Anything returned past that is thrown away.
+ * @author Tull Gearreald
+ */
+final class ObjectPool<T> {
+
+	private static final int DEFAULT_MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors()*2);
+
+	private final Supplier<T> factory;
+	private final Consumer<T> disposer;
+	private final int maxIdle;
+	private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * Creates a pool that keeps a few idle objects per processor.
+	 * @param factory Makes a new object when the pool is empty.
+	 * @param disposer Cleans up an object that won't be kept, like ending a Deflater.
+	 */
+	ObjectPool(Supplier<T> factory, Consumer<T> disposer){
+		this(factory, disposer, DEFAULT_MAX_IDLE);
+	}
+	/**
+	 * Creates a pool.
+	 * @param factory Makes a new object when the pool is empty.
+	 * @param disposer Cleans up an object that won't be kept, like ending a Deflater.
+	 * @param maxIdle The most idle objects to keep.
+	 */
+	ObjectPool(Supplier<T> factory, Consumer<T> disposer, int maxIdle){
+		this.factory = factory;
+		this.disposer = disposer;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Takes an idle object from the pool, or makes a new one if there aren't any.
+	 * @return The object.
+	 */
+	T acquire(){
+		T object = idle.poll();
+		if(object == null)
+			return factory.get();
+		idleCount.decrementAndGet();
+		return object;
+	}
+	/**
+	 * Gives an object back to the pool. It must already be reset, and mustn't be used again by whoever gave it back.
+	 * @param object The object.
+	 */
+	void release(T object){
+		if(idleCount.incrementAndGet() > maxIdle){
+			idleCount.decrementAndGet();
+			disposer.accept(object);
+			return;
+		}
+		idle.add(object);
+	}
+}
@@ -0,0 +1,203 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import net.tullco.tullutils.ConcurrencyUtils;
+
+/**
+ * A gzip output stream that compresses on several threads, the same way pigz does.
+ *
+ * The data is cut into fixed size blocks that are deflated at the same time. Each block is primed with the last 32KB of the block before it
+ * as its dictionary, so matches can still reach back across the cut and the compression ratio is barely worse than single threaded gzip.
+ * Each block ends with a sync flush, which lines it up on a byte boundary, so the blocks can simply be written one after another
+ * to make a single ordinary deflate stream. Any gzip reader can read the result.
+ *
+ * Only a couple of blocks per thread are compressed ahead of the one being written out, so memory use stays bounded.
+ * @author Tull Gearreald
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	/**
+	 * The size of the blocks compressed at a time if no other size is given.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128*1024;
+	private static final int DICTIONARY_SIZE = 32*1024;
+	private static final int CHUNK_SIZE = 64*1024;
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+	private static final byte[] EMPTY_FINAL_BLOCK = {0x03, 0x00};
+	private static final ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+	private final OutputStream out;
+	private final int level;
+	private final int parallelism;
+	private final ForkJoinPool pool;
+	private final Deque<PendingBlock> pending = new ArrayDeque<PendingBlock>();
+	private final Deque<byte[]> freeBlocks = new ArrayDeque<byte[]>();
+	private final ConcurrentLinkedQueue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final CRC32 crc = new CRC32();
+	private byte[] block;
+	private int blockLength = 0;
+	private byte[] dictionary = null;
+	private long size = 0;
+	private boolean closed = false;
+
+	/**
+	 * Creates a stream that compresses at the default level in blocks of the default size.
+	 * @param out The stream to write the gzip data to. It is closed when this stream is.
+	 * @param threads The number of threads to compress with.
+	 * @throws IOException If the gzip header couldn't be written.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException{
+		this(out, threads, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+	}
+	/**
+	 * Creates a stream that compresses on several threads.
+	 * @param out The stream to write the gzip data to. It is closed when this stream is.
+	 * @param threads The number of threads to compress with.
+	 * @param level The deflate level, from 0 to 9, or -1 for the default.
+	 * @param blockSize The number of bytes compressed at a time. Smaller blocks spread the work better, bigger ones compress a little better.
+	 * @throws IOException If the gzip header couldn't be written.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads, int level, int blockSize) throws IOException{
+		this.out = out;
+		this.level = level;
+		this.parallelism = Math.max(1, threads);
+		this.block = new byte[Math.max(DICTIONARY_SIZE, blockSize)];
+		this.pool = new ForkJoinPool(parallelism);
+		out.write(HEADER);
+	}
+	@Override
+	public void write(int b) throws IOException{
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		crc.update(b, off, len);
+		size += len;
+		while(len > 0){
+			int copied = Math.min(len, block.length - blockLength);
+			System.arraycopy(b, off, block, blockLength, copied);
+			blockLength += copied;
+			off += copied;
+			len -= copied;
+			if(blockLength == block.length)
+				submitBlock();
+		}
+	}
+	/**
+	 * Compresses and writes out everything written so far, then flushes the underlying stream.
+	 * Since every block ends in a sync flush, a reader can decompress everything up to this point straight away.
+	 * @throws IOException If there was a problem compressing or writing.
+	 */
+	@Override
+	public void flush() throws IOException{
+		if(closed)
+			return;
+		submitBlock();
+		while(!pending.isEmpty())
+			writeNextBlock();
+		out.flush();
+	}
+	/**
+	 * Writes out all the remaining data and the gzip trailer, then closes the underlying stream and stops the compression threads.
+	 * The threads are waited on before their deflaters are ended, so none is ended while a block is still being compressed with it.
+	 * @throws IOException If there was a problem compressing or writing.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		try{
+			try{
+				submitBlock();
+				while(!pending.isEmpty())
+					writeNextBlock();
+				out.write(EMPTY_FINAL_BLOCK);
+				writeIntLE((int) crc.getValue());
+				writeIntLE((int) size);
+			}finally{
+				out.close();
+			}
+		}finally{
+			closed = true;
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+			Deflater deflater;
+			while((deflater = idleDeflaters.poll()) != null)
+				deflater.end();
+		}
+	}
+
+	/**
+	 * Hands the current block off to be compressed, first writing out the oldest pending block if enough are already in progress.
+	 */
+	private void submitBlock() throws IOException{
+		if(blockLength == 0)
+			return;
+		if(pending.size() >= parallelism*2)
+			writeNextBlock();
+		final byte[] input = block;
+		final int length = blockLength;
+		final byte[] primer = dictionary;
+		PendingBlock submitted = new PendingBlock(input, pool.submit(() -> compress(input, length, primer)));
+		pending.add(submitted);
+		dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+		block = freeBlocks.isEmpty() ? new byte[input.length] : freeBlocks.poll();
+		blockLength = 0;
+	}
+	private void writeNextBlock() throws IOException{
+		PendingBlock next = pending.poll();
+		ByteArrayOutputStream compressed = ConcurrencyUtils.await(next.compressed);
+		compressed.writeTo(out);
+		freeBlocks.add(next.input);
+	}
+	private ByteArrayOutputStream compress(byte[] input, int length, byte[] primer){
+		Deflater deflater = idleDeflaters.poll();
+		if(deflater == null)
+			deflater = new Deflater(level, true);
+		try{
+			if(primer != null)
+				deflater.setDictionary(primer);
+			deflater.setInput(input, 0, length);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length/2 + 64);
+			byte[] chunk = CHUNKS.get();
+			int written;
+			do{
+				written = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+				compressed.write(chunk, 0, written);
+			}while(written == chunk.length);
+			return compressed;
+		}finally{
+			deflater.reset();
+			idleDeflaters.add(deflater);
+		}
+	}
+	private void writeIntLE(int value) throws IOException{
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	private static class PendingBlock {
+		private final byte[] input;
+		private final ForkJoinTask<ByteArrayOutputStream> compressed;
+
+		private PendingBlock(byte[] input, ForkJoinTask<ByteArrayOutputStream> compressed){
+			this.input = input;
+			this.compressed = compressed;
+		}
+	}
+}
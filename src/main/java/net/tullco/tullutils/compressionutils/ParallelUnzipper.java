@@ -0,0 +1,131 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.tullco.tullutils.ConcurrencyUtils;
+
+/**
+ * Extracts entries from a zip file on several threads, using the archive's central directory to go straight to each entry.
+ * Entries that aren't wanted are never read at all, so pulling a few files out of a huge archive is quick.
+ *
+ * Every entry's destination is checked before anything is extracted, and names that would land outside of the
+ * destination directory (like ../../etc/passwd) make the whole extraction fail.
+ * @author Tull Gearreald
+ */
+public final class ParallelUnzipper {
+
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+	private ParallelUnzipper(){}
+
+	/**
+	 * Extracts the entries of a zip file whose names match a glob.
+	 * @param zipFile The zip file to extract from.
+	 * @param destinationDirectory The directory to extract to. It's created if it doesn't exist.
+	 * @param glob A glob the entry names must match, like "reports/**.csv", in the syntax of FileSystem.getPathMatcher. Null extracts everything.
+	 * @param threads The number of threads to extract with.
+	 * @return The extracted files, in the order their entries are in the archive. Directories aren't included.
+	 * @throws IOException If the zip file couldn't be read, a file couldn't be written, or an entry's name is unsafe.
+	 * If an entry fails, every file written so far is deleted, so a failed extraction doesn't leave partial files behind.
+	 */
+	public static List<File> extract(File zipFile, File destinationDirectory, String glob, int threads) throws IOException{
+		PathMatcher matcher = glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		File destination = destinationDirectory.getCanonicalFile();
+		try(ZipFile zip = new ZipFile(zipFile)){
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			List<File> targets = new ArrayList<File>();
+			Enumeration<? extends ZipEntry> all = zip.entries();
+			while(all.hasMoreElements()){
+				ZipEntry entry = all.nextElement();
+				if(matcher != null && !matcher.matches(Paths.get(entry.getName())))
+					continue;
+				entries.add(entry);
+				targets.add(resolveEntry(destination.toPath(), entry.getName()));
+			}
+			Files.createDirectories(destination.toPath());
+			List<File> extracted = new ArrayList<File>();
+			Queue<File> written = new ConcurrentLinkedQueue<File>();
+			ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+			boolean complete = false;
+			try{
+				List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+				for(int i=0; i<entries.size(); i++){
+					final ZipEntry entry = entries.get(i);
+					final File target = targets.get(i);
+					if(entry.isDirectory()){
+						Files.createDirectories(target.toPath());
+						continue;
+					}
+					extracted.add(target);
+					tasks.add(pool.submit(() -> {
+						try{
+							extractEntry(zip, entry, target, written);
+						}catch(IOException e){
+							throw new UncheckedIOException(e);
+						}
+						return null;
+					}));
+				}
+				for(ForkJoinTask<Void> task: tasks)
+					ConcurrencyUtils.await(task);
+				complete = true;
+			}finally{
+				pool.shutdownNow();
+				ConcurrencyUtils.awaitTermination(pool);
+				if(!complete){
+					for(File file: written)
+						file.delete();
+				}
+			}
+			return Collections.unmodifiableList(extracted);
+		}
+	}
+	/**
+	 * Works out where a zip entry should be extracted to, refusing names that would put it outside of the destination directory.
+	 * @param destinationDirectory The directory being extracted to.
+	 * @param entryName The name of the entry.
+	 * @return The file the entry should be extracted to.
+	 * @throws IOException If the name is absolute or climbs out of the destination directory.
+	 */
+	public static File resolveEntry(File destinationDirectory, String entryName) throws IOException{
+		return resolveEntry(destinationDirectory.getCanonicalFile().toPath(), entryName);
+	}
+
+	private static File resolveEntry(Path destination, String entryName) throws IOException{
+		Path target = destination.resolve(entryName).normalize();
+		if(!target.startsWith(destination))
+			throw new IOException("The zip entry " + entryName + " would be extracted outside of " + destination + ".");
+		return target.toFile();
+	}
+
+	private static void extractEntry(ZipFile zip, ZipEntry entry, File target, Queue<File> written) throws IOException{
+		Files.createDirectories(target.toPath().getParent());
+		byte[] buffer = BUFFERS.get();
+		try(InputStream in = zip.getInputStream(entry); OutputStream out = Files.newOutputStream(target.toPath())){
+			written.add(target);
+			int read;
+			while((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import net.tullco.tullutils.ConcurrencyUtils;
+
+/**
+ * Zips a directory on several threads. Each file is compressed on its own by a worker, and the finished entries are
+ * written into the archive in order, so the archive is the same no matter how many threads were used.
+ * Only a few entries are compressed ahead of the one being written, so memory use stays bounded.
+ * @author Tull Gearreald
+ */
+public final class ParallelZipper {
+
+	private ParallelZipper(){}
+
+	/**
+	 * Zips every file under the directory, compressing them on several threads at the default deflate level.
+	 * @param origin The directory to zip. If this is a file, just that file is zipped.
+	 * @param destination The zip file to write.
+	 * @param threads The number of threads to compress with.
+	 * @throws IOException If a file couldn't be read or the archive couldn't be written.
+	 */
+	public static void zipDirectory(File origin, File destination, int threads) throws IOException{
+		zipDirectory(origin, destination, threads, Deflater.DEFAULT_COMPRESSION);
+	}
+	/**
+	 * Zips every file under the directory, compressing them on several threads.
+	 * Entries are named by their path relative to the directory, and are added in order of those names.
+	 * @param origin The directory to zip. If this is a file, just that file is zipped.
+	 * @param destination The zip file to write.
+	 * @param threads The number of threads to compress with.
+	 * @param level The deflate level, from 0 to 9, or -1 for the default.
+	 * @throws IOException If a file couldn't be read or the archive couldn't be written.
+	 */
+	public static void zipDirectory(File origin, File destination, int threads, int level) throws IOException{
+		List<Path> files = listFiles(origin.toPath());
+		Path base = origin.isFile() ? origin.toPath().getParent() : origin.toPath();
+		int parallelism = Math.max(1, threads);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		Deque<ForkJoinTask<CompressedEntry>> compressing = new ArrayDeque<ForkJoinTask<CompressedEntry>>();
+		FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try(ZipArchiveWriter writer = new ZipArchiveWriter(channel)){
+			int next = 0;
+			while(next < files.size() || !compressing.isEmpty()){
+				while(compressing.size() < parallelism*2 && next < files.size()){
+					final Path file = files.get(next++);
+					final String name = entryName(base, file);
+					compressing.add(pool.submit(() -> {
+						try{
+							return CompressedEntry.deflate(file.toFile(), name, level);
+						}catch(IOException e){
+							throw new UncheckedIOException(e);
+						}
+					}));
+				}
+				CompressedEntry entry = ConcurrencyUtils.await(compressing.poll());
+				try{
+					writer.write(entry);
+				}finally{
+					entry.discard();
+				}
+			}
+			writer.finish();
+		}finally{
+			pool.shutdownNow();
+			for(ForkJoinTask<CompressedEntry> task: compressing)
+				discardQuietly(task);
+		}
+	}
+
+	private static List<Path> listFiles(Path origin) throws IOException{
+		if(Files.isRegularFile(origin))
+			return Collections.singletonList(origin);
+		try(Stream<Path> paths = Files.walk(origin)){
+			List<Path> files = paths.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+			Collections.sort(files);
+			return files;
+		}
+	}
+	/**
+	 * Gets the name of a file's entry, which is its relative path with forward slashes as the zip format requires.
+	 */
+	private static String entryName(Path base, Path file){
+		List<String> parts = new ArrayList<String>();
+		for(Path part: base.relativize(file))
+			parts.add(part.toString());
+		return String.join("/", parts);
+	}
+	/**
+	 * Cleans up after an entry that won't be written because something else failed.
+	 */
+	private static void discardQuietly(ForkJoinTask<CompressedEntry> task){
+		if(task.cancel(false))
+			return;
+		try{
+			task.get().discard();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(ExecutionException e){
+			return;
+		}
+	}
+}
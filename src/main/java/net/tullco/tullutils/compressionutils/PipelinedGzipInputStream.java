@@ -0,0 +1,149 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A gzip input stream that decompresses on a background thread, ahead of whoever is reading it.
+ *
+ * A deflate stream can only be decompressed from the front, so unlike compressing, the inflating itself can't be split up between threads.
+ * What can be done is to keep the reading and inflating off of the thread that consumes the data, so parsing or writing what comes out
+ * doesn't have to wait for it. This reads anything ParallelGzipOutputStream writes, and any other gzip file too,
+ * including ones made of several gzip members one after another.
+ *
+ * The decompressed data is handed over in a fixed number of buffers that are reused, so memory use is bounded
+ * and nothing is allocated per read.
+ * @author Tull Gearreald
+ */
+public class PipelinedGzipInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 256*1024;
+	private static final int CHUNKS = 4;
+
+	private final InputStream in;
+	private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(CHUNKS);
+	private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(CHUNKS + 1);
+	private final Thread inflater;
+	private volatile IOException failure = null;
+	private Chunk current = null;
+	private int position = 0;
+	private boolean finished = false;
+	private boolean closed = false;
+
+	/**
+	 * Creates a stream that decompresses the given gzip data on a background thread.
+	 * @param in The gzip data. It is closed when this stream is.
+	 * @throws IOException If the gzip header is missing or couldn't be read.
+	 */
+	public PipelinedGzipInputStream(InputStream in) throws IOException{
+		this.in = new GZIPInputStream(in, CHUNK_SIZE);
+		for(int i=0; i<CHUNKS; i++)
+			free.add(new Chunk(new byte[CHUNK_SIZE]));
+		this.inflater = new Thread(this::inflate, "gzip-inflater");
+		this.inflater.setDaemon(true);
+		this.inflater.start();
+	}
+	@Override
+	public int read() throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		if(!nextChunk())
+			return -1;
+		return current.data[position++] & 0xFF;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException{
+		if(closed)
+			throw new IOException("The stream is closed.");
+		if(len == 0)
+			return 0;
+		if(!nextChunk())
+			return -1;
+		int read = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, read);
+		position += read;
+		return read;
+	}
+	@Override
+	public int available() throws IOException{
+		return current == null ? 0 : current.length - position;
+	}
+	/**
+	 * Stops the background thread and closes the underlying stream.
+	 * @throws IOException If there was a problem closing the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		inflater.interrupt();
+		in.close();
+	}
+
+	/**
+	 * Makes sure there is unread data in the current chunk, waiting for the next one if needed.
+	 * @return False if the end of the data has been reached.
+	 */
+	private boolean nextChunk() throws IOException{
+		while(current == null || position == current.length){
+			if(finished)
+				return false;
+			if(current != null)
+				free.add(current);
+			try{
+				current = filled.take();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for decompressed data.", e);
+			}
+			position = 0;
+			if(current.length < 0){
+				finished = true;
+				current = null;
+				if(failure != null)
+					throw failure;
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Runs on the background thread, filling free chunks with decompressed data until the end of the stream or an error.
+	 */
+	private void inflate(){
+		try{
+			while(true){
+				Chunk chunk = free.take();
+				chunk.length = 0;
+				int read = 0;
+				while(chunk.length < chunk.data.length && (read = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length)) != -1)
+					chunk.length += read;
+				if(chunk.length > 0)
+					filled.put(chunk);
+				if(read == -1)
+					break;
+			}
+		}catch(IOException e){
+			failure = e;
+		}catch(RuntimeException e){
+			failure = new IOException(e);
+		}catch(InterruptedException e){
+			return;
+		}
+		filled.add(new Chunk(null));
+	}
+
+	private static class Chunk {
+		private final byte[] data;
+		private int length;
+
+		private Chunk(byte[] data){
+			this.data = data;
+			this.length = data == null ? -1 : 0;
+		}
+	}
+}
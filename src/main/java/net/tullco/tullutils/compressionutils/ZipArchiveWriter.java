@@ -0,0 +1,170 @@
+package net.tullco.tullutils.compressionutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Writes a zip archive out of entries that have already been compressed. Since every entry's CRC and sizes are known
+ * before it's written, they go straight into the local header and no data descriptors are needed.
+ * Zip64 records are written for entries and archives too big for the original format.
+ * @author Tull Gearreald
+ */
+final class ZipArchiveWriter implements Closeable {
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int ZIP64_END = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int END = 0x06054b50;
+	private static final short VERSION = 20;
+	private static final short ZIP64_VERSION = 45;
+	private static final short UTF8_NAMES = 0x0800;
+	private static final short ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+
+	private final FileChannel channel;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private long entries = 0;
+
+	/**
+	 * Creates a writer for an archive.
+	 * @param channel The channel to write the archive to, starting at its current position. It is closed when the writer is.
+	 */
+	ZipArchiveWriter(FileChannel channel){
+		this.channel = channel;
+	}
+
+	/**
+	 * Writes an entry's headers and data to the archive.
+	 * @param entry The entry to write.
+	 * @throws IOException If there was a problem writing the entry.
+	 */
+	void write(CompressedEntry entry) throws IOException{
+		long offset = channel.position();
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		boolean zip64Sizes = entry.getSize() >= ZIP64_LIMIT || entry.getCompressedSize() >= ZIP64_LIMIT;
+		boolean zip64Offset = offset >= ZIP64_LIMIT;
+		int dosTime = dosTime(entry.getLastModified());
+
+		ByteBuffer local = ByteBuffer.allocate(30 + name.length + (zip64Sizes ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+		local.putInt(LOCAL_HEADER)
+			.putShort(zip64Sizes ? ZIP64_VERSION : VERSION)
+			.putShort(UTF8_NAMES)
+			.putShort((short) entry.getMethod())
+			.putInt(dosTime)
+			.putInt((int) entry.getCrc())
+			.putInt(zip64Sizes ? -1 : (int) entry.getCompressedSize())
+			.putInt(zip64Sizes ? -1 : (int) entry.getSize())
+			.putShort((short) name.length)
+			.putShort((short) (zip64Sizes ? 20 : 0))
+			.put(name);
+		if(zip64Sizes)
+			local.putShort(ZIP64_EXTRA).putShort((short) 16).putLong(entry.getSize()).putLong(entry.getCompressedSize());
+		local.flip();
+		writeFully(local);
+		entry.writeTo(channel);
+
+		int extraData = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+		int extraLength = extraData > 0 ? extraData + 4 : 0;
+		short version = zip64Sizes || zip64Offset ? ZIP64_VERSION : VERSION;
+		ByteBuffer central = ByteBuffer.allocate(46 + name.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+		central.putInt(CENTRAL_HEADER)
+			.putShort(version)
+			.putShort(version)
+			.putShort(UTF8_NAMES)
+			.putShort((short) entry.getMethod())
+			.putInt(dosTime)
+			.putInt((int) entry.getCrc())
+			.putInt(zip64Sizes ? -1 : (int) entry.getCompressedSize())
+			.putInt(zip64Sizes ? -1 : (int) entry.getSize())
+			.putShort((short) name.length)
+			.putShort((short) extraLength)
+			.putShort((short) 0)
+			.putShort((short) 0)
+			.putShort((short) 0)
+			.putInt(0)
+			.putInt(zip64Offset ? -1 : (int) offset)
+			.put(name);
+		if(extraLength > 0){
+			central.putShort(ZIP64_EXTRA).putShort((short) extraData);
+			if(zip64Sizes)
+				central.putLong(entry.getSize()).putLong(entry.getCompressedSize());
+			if(zip64Offset)
+				central.putLong(offset);
+		}
+		centralDirectory.write(central.array(), 0, central.position());
+		entries++;
+	}
+	/**
+	 * Writes the central directory and the end records. Until this is called the archive isn't readable,
+	 * so an archive that failed partway through can't be mistaken for a complete one.
+	 * @throws IOException If there was a problem writing the end of the archive.
+	 */
+	void finish() throws IOException{
+		long directoryOffset = channel.position();
+		writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+		long directorySize = channel.position() - directoryOffset;
+		boolean zip64 = entries >= ZIP64_ENTRY_LIMIT || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT;
+		ByteBuffer end = ByteBuffer.allocate(56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+		if(zip64){
+			long zip64EndOffset = channel.position();
+			end.putInt(ZIP64_END)
+				.putLong(44)
+				.putShort(ZIP64_VERSION)
+				.putShort(ZIP64_VERSION)
+				.putInt(0)
+				.putInt(0)
+				.putLong(entries)
+				.putLong(entries)
+				.putLong(directorySize)
+				.putLong(directoryOffset);
+			end.putInt(ZIP64_LOCATOR)
+				.putInt(0)
+				.putLong(zip64EndOffset)
+				.putInt(1);
+		}
+		end.putInt(END)
+			.putShort((short) 0)
+			.putShort((short) 0)
+			.putShort((short) Math.min(entries, ZIP64_ENTRY_LIMIT))
+			.putShort((short) Math.min(entries, ZIP64_ENTRY_LIMIT))
+			.putInt((int) Math.min(directorySize, ZIP64_LIMIT))
+			.putInt((int) Math.min(directoryOffset, ZIP64_LIMIT))
+			.putShort((short) 0);
+		end.flip();
+		writeFully(end);
+	}
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+	/**
+	 * Converts a time to the MS-DOS date and time zip headers use, with the time in the low 16 bits and the date in the high ones.
+	 * Times before 1980 can't be represented, so they become the start of 1980.
+	 */
+	private static int dosTime(long millis){
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		if(time.getYear() < 1980)
+			return (1 << 21) | (1 << 16);
+		return (time.getYear() - 1980) << 25
+				| time.getMonthValue() << 21
+				| time.getDayOfMonth() << 16
+				| time.getHour() << 11
+				| time.getMinute() << 5
+				| time.getSecond() >> 1;
+	}
+}
@@ -0,0 +1,221 @@
+package net.tullco.tullutils.csvutils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+
+/**
+ * Writes CSV files as UTF-8, encoding fields straight into a large byte buffer that is written to the file channel when it fills up.
+ *
+ * The output is the same as what a default OpenCSV CSVWriter produces: every field quoted, quotes doubled,
+ * and rows ended with a newline. Nulls are written as empty unquoted fields. Fields are quoted and encoded a character at a time
+ * as they are copied into the buffer, so no Strings are built along the way.
+ *
+ * The output can be gzipped, or compressed with any other codec, as it is written.
+ * Appending to a gzipped file adds a new gzip member, which gzip readers read as one stream.
+ * @author Tull Gearreald
+ */
+public class BufferedCSVWriter implements Closeable, Flushable {
+
+	/** The default size of the buffer in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 1024*1024;
+	// The most bytes one char can turn into: a quote is doubled, and a lone char is at most 3 bytes of UTF-8.
+	private static final int MAX_BYTES_PER_CHAR = 3;
+
+	private final FileChannel channel;
+	private final OutputStream compressed;
+	private final ByteBuffer buffer;
+	private boolean rowStarted = false;
+
+	/**
+	 * Opens a writer that overwrites the file.
+	 * @param f The file to write to.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public BufferedCSVWriter(File f) throws IOException{
+		this(f, false, false, DEFAULT_BUFFER_SIZE);
+	}
+	/**
+	 * Opens a writer to the file.
+	 * @param f The file to write to.
+	 * @param append If this is true, append instead of overwriting.
+	 * @param gzip If this is true, the output is gzipped.
+	 * @param bufferSize The size of the buffer in bytes.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public BufferedCSVWriter(File f, boolean append, boolean gzip, int bufferSize) throws IOException{
+		this(f, append, gzip ? CompressionCodec.gzip() : null, bufferSize);
+	}
+	/**
+	 * Opens a writer to the file that compresses its output with the given codec.
+	 * @param f The file to write to.
+	 * @param append If this is true, append instead of overwriting.
+	 * @param codec The codec to compress the output with, or null to leave it uncompressed.
+	 * @param bufferSize The size of the buffer in bytes.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public BufferedCSVWriter(File f, boolean append, CompressionCodec codec, int bufferSize) throws IOException{
+		this.channel = new FileOutputStream(f, append).getChannel();
+		int size = Math.max(1024, bufferSize);
+		if(codec != null){
+			this.compressed = codec.compress(Channels.newOutputStream(channel));
+			this.buffer = ByteBuffer.allocate(size);
+		}else{
+			this.compressed = null;
+			this.buffer = ByteBuffer.allocateDirect(size);
+		}
+	}
+	/**
+	 * Writes a row of strings.
+	 * @param row The values to write.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeNext(String[] row) throws IOException{
+		for(String field: row)
+			writeField(field);
+		endRow();
+	}
+	/**
+	 * Writes one field of the current row.
+	 * @param field The value to write. If it is null, an empty unquoted field is written.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeField(CharSequence field) throws IOException{
+		startField();
+		if(field == null)
+			return;
+		putByte((byte) '"');
+		int length = field.length();
+		int i = 0;
+		while(i < length){
+			// Encode as many chars as are sure to fit without checking the space left for each one.
+			int end = (int) Math.min(length, i + (long) (buffer.remaining()-1) / MAX_BYTES_PER_CHAR);
+			int next = end > i ? encode(field, i, end) : i;
+			if(next == i)
+				drain();
+			i = next;
+		}
+		putByte((byte) '"');
+	}
+	/**
+	 * Writes one number field of the current row, without turning it into a String first.
+	 * @param value The value to write.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeField(long value) throws IOException{
+		startField();
+		if(buffer.remaining() < 22)
+			drain();
+		buffer.put((byte) '"');
+		if(value == Long.MIN_VALUE){
+			for(int i=0; i<20; i++)
+				buffer.put((byte) "-9223372036854775808".charAt(i));
+		}else{
+			if(value < 0){
+				buffer.put((byte) '-');
+				value = -value;
+			}
+			int start = buffer.position();
+			do{
+				buffer.put((byte) ('0' + value % 10));
+				value /= 10;
+			}while(value != 0);
+			for(int low=start, high=buffer.position()-1; low<high; low++, high--){
+				byte b = buffer.get(low);
+				buffer.put(low, buffer.get(high));
+				buffer.put(high, b);
+			}
+		}
+		buffer.put((byte) '"');
+	}
+	/**
+	 * Ends the current row.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void endRow() throws IOException{
+		putByte((byte) '\n');
+		rowStarted = false;
+	}
+	@Override
+	public void flush() throws IOException{
+		drain();
+		if(compressed != null)
+			compressed.flush();
+	}
+	@Override
+	public void close() throws IOException{
+		try{
+			drain();
+			if(compressed != null)
+				compressed.close();
+		}finally{
+			channel.close();
+		}
+	}
+
+	private void startField() throws IOException{
+		if(rowStarted)
+			putByte((byte) ',');
+		rowStarted = true;
+	}
+	/**
+	 * Encodes the chars from start up to end into the buffer, which must have room for MAX_BYTES_PER_CHAR bytes per char.
+	 * @return The index of the next char to encode. This is less than end if end splits a surrogate pair.
+	 */
+	private int encode(CharSequence field, int start, int end){
+		ByteBuffer out = buffer;
+		int i = start;
+		while(i < end){
+			char c = field.charAt(i);
+			if(c < 0x80){
+				if(c == '"')
+					out.put((byte) '"');
+				out.put((byte) c);
+			}else if(c < 0x800){
+				out.put((byte) (0xC0 | (c >> 6)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			}else if(Character.isSurrogate(c)){
+				if(Character.isHighSurrogate(c) && i+1 < field.length() && Character.isLowSurrogate(field.charAt(i+1))){
+					if(i+1 >= end)
+						return i;
+					int codePoint = Character.toCodePoint(c, field.charAt(++i));
+					out.put((byte) (0xF0 | (codePoint >> 18)));
+					out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					out.put((byte) (0x80 | (codePoint & 0x3F)));
+				}else{
+					out.put((byte) '?');
+				}
+			}else{
+				out.put((byte) (0xE0 | (c >> 12)));
+				out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			}
+			i++;
+		}
+		return i;
+	}
+	private void putByte(byte b) throws IOException{
+		if(!buffer.hasRemaining())
+			drain();
+		buffer.put(b);
+	}
+	private void drain() throws IOException{
+		buffer.flip();
+		if(compressed != null){
+			compressed.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+		}else{
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
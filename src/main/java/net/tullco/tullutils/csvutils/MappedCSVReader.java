@@ -0,0 +1,317 @@
+package net.tullco.tullutils.csvutils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A CSV reader that scans a memory mapped UTF-8 file as bytes instead of decoding it into characters first.
+ *
+ * Fields are comma separated, records end with a newline or a carriage return and newline, and fields can be quoted with double
+ * quotes, with a doubled quote standing for a quote inside a quoted field. Backslashes have no special meaning.
+ *
+ * Reading a record doesn't create any objects. Fields can be read as CharSequence views or byte slices over the mapped file, and are only
+ * turned into Strings when asked for. Views and slices are only good until the next call to next. The file is mapped a window at a time,
+ * so files of any size can be read, but a single record can't be more than 2GB.
+ * @author Tull Gearreald
+ */
+public class MappedCSVReader implements Closeable {
+
+	/** The default number of bytes of the file mapped at once. */
+	public static final int DEFAULT_WINDOW_SIZE = 256*1024*1024;
+
+	private static final int ASCII = 1;
+	private static final int ESCAPED = 2;
+
+	private final FileChannel channel;
+	private final long end;
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position = 0;
+
+	private int fieldCount = 0;
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int[] fieldFlags = new int[16];
+	private FieldView[] views = new FieldView[0];
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * Opens a reader over the whole file.
+	 * @param f The file to read.
+	 * @throws IOException If the file can't be opened or mapped.
+	 */
+	public MappedCSVReader(File f) throws IOException{
+		this(f, DEFAULT_WINDOW_SIZE);
+	}
+	/**
+	 * Opens a reader over the whole file, mapping it the given number of bytes at a time.
+	 * @param f The file to read.
+	 * @param windowSize The number of bytes to map at once. Windows are made bigger when a record doesn't fit.
+	 * @throws IOException If the file can't be opened or mapped.
+	 */
+	public MappedCSVReader(File f, int windowSize) throws IOException{
+		this(f, 0, f.length(), windowSize);
+	}
+	/**
+	 * Opens a reader over part of a file. The start should be the beginning of a record.
+	 * @param f The file to read.
+	 * @param start The offset of the first byte to read.
+	 * @param end The offset just past the last byte to read.
+	 * @param windowSize The number of bytes to map at once. Windows are made bigger when a record doesn't fit.
+	 * @throws IOException If the file can't be opened or mapped.
+	 */
+	public MappedCSVReader(File f, long start, long end, int windowSize) throws IOException{
+		if(windowSize <= 0)
+			throw new IllegalArgumentException("The window size must be positive.");
+		this.channel = new RandomAccessFile(f, "r").getChannel();
+		this.end = Math.min(end, channel.size());
+		this.windowSize = windowSize;
+		try{
+			map(start);
+		}catch(IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+	/**
+	 * Moves to the next record.
+	 * @return True if there was another record, false if the end of the file was reached.
+	 * @throws IOException If the file couldn't be mapped.
+	 */
+	public boolean next() throws IOException{
+		while(true){
+			if(position >= window.limit() && windowStart + position >= end)
+				return false;
+			if(scanRecord())
+				return true;
+			if(position == 0 && windowSize < Integer.MAX_VALUE)
+				windowSize = (int) Math.min(Integer.MAX_VALUE, 2L*windowSize);
+			else if(position == 0)
+				throw new IOException("A record at offset "+windowStart+" is larger than 2GB.");
+			map(windowStart + position);
+		}
+	}
+	/**
+	 * Reads the next record as an array of Strings, the same as CSVReader.readNext.
+	 * @return The fields of the record, or null if the end of the file was reached.
+	 * @throws IOException If the file couldn't be mapped.
+	 */
+	public String[] readNext() throws IOException{
+		if(!next())
+			return null;
+		String[] record = new String[fieldCount];
+		for(int i=0; i<fieldCount; i++)
+			record[i] = getString(i);
+		return record;
+	}
+	/**
+	 * Gets the number of fields in the current record.
+	 * @return The number of fields.
+	 */
+	public int getFieldCount(){
+		return fieldCount;
+	}
+	/**
+	 * Gets a field of the current record without copying it when possible. Plain ASCII fields are views over the mapped file,
+	 * and other fields are decoded into Strings. A view is only good until the next call to next.
+	 * @param i The index of the field.
+	 * @return The field's characters.
+	 */
+	public CharSequence getField(int i){
+		checkField(i);
+		if(fieldFlags[i] == ASCII)
+			return views[i];
+		return getString(i);
+	}
+	/**
+	 * Gets a field of the current record as a String.
+	 * @param i The index of the field.
+	 * @return The field.
+	 */
+	public String getString(int i){
+		checkField(i);
+		if(fieldFlags[i] == ASCII){
+			char[] chars = new char[fieldEnds[i]-fieldStarts[i]];
+			for(int c=0; c<chars.length; c++)
+				chars[c] = (char) window.get(fieldStarts[i]+c);
+			return new String(chars);
+		}
+		int length = copyField(i);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+	/**
+	 * Gets the UTF-8 bytes of a field of the current record. Fields without doubled quotes are a read-only slice of the mapped file,
+	 * and are only good until the next call to next.
+	 * @param i The index of the field.
+	 * @return The field's bytes, from the buffer's position to its limit.
+	 */
+	public ByteBuffer getFieldBytes(int i){
+		checkField(i);
+		if((fieldFlags[i] & ESCAPED) != 0){
+			int length = copyField(i);
+			return ByteBuffer.wrap(Arrays.copyOf(scratch, length)).asReadOnlyBuffer();
+		}
+		ByteBuffer slice = window.asReadOnlyBuffer();
+		slice.limit(fieldEnds[i]).position(fieldStarts[i]);
+		return slice.slice();
+	}
+	/**
+	 * Gets the offset in the file just past the current record, which is where the next record starts.
+	 * @return The offset.
+	 */
+	public long getOffset(){
+		return windowStart + position;
+	}
+	@Override
+	public void close() throws IOException{
+		window = null;
+		channel.close();
+	}
+
+	private void map(long start) throws IOException{
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, end - start));
+		position = 0;
+	}
+	/**
+	 * Scans one record starting at the current position.
+	 * @return False if the window ended before the record did and there is more of the file to map.
+	 */
+	private boolean scanRecord(){
+		MappedByteBuffer buffer = window;
+		int limit = buffer.limit();
+		boolean lastWindow = windowStart + limit >= end;
+		int p = position;
+		int count = 0;
+		while(true){
+			int start = p;
+			boolean inQuotes = false;
+			int quotes = 0;
+			int flags = ASCII;
+			boolean recordEnded = false;
+			while(true){
+				if(p >= limit){
+					if(!lastWindow)
+						return false;
+					recordEnded = true;
+					break;
+				}
+				byte b = buffer.get(p);
+				if(b == '"'){
+					inQuotes = !inQuotes;
+					quotes++;
+				}else if(!inQuotes && b == ','){
+					break;
+				}else if(!inQuotes && b == '\n'){
+					recordEnded = true;
+					break;
+				}else if(b < 0){
+					flags = 0;
+				}
+				p++;
+			}
+			int fieldEnd = p;
+			if(recordEnded && fieldEnd > start && buffer.get(fieldEnd-1) == '\r')
+				fieldEnd--;
+			if(quotes == 2 && fieldEnd - start >= 2 && buffer.get(start) == '"' && buffer.get(fieldEnd-1) == '"'){
+				start++;
+				fieldEnd--;
+			}else if(quotes > 0){
+				flags |= ESCAPED;
+				flags &= ~ASCII;
+			}
+			addField(count++, start, fieldEnd, flags);
+			if(p < limit)
+				p++;
+			if(recordEnded)
+				break;
+		}
+		fieldCount = count;
+		position = p;
+		return true;
+	}
+	private void addField(int i, int start, int fieldEnd, int flags){
+		if(i >= fieldStarts.length){
+			fieldStarts = Arrays.copyOf(fieldStarts, i*2);
+			fieldEnds = Arrays.copyOf(fieldEnds, i*2);
+			fieldFlags = Arrays.copyOf(fieldFlags, i*2);
+		}
+		if(i >= views.length){
+			views = Arrays.copyOf(views, Math.max(16, i*2));
+			for(int v=0; v<views.length; v++)
+				if(views[v] == null)
+					views[v] = new FieldView(v);
+		}
+		fieldStarts[i] = start;
+		fieldEnds[i] = fieldEnd;
+		fieldFlags[i] = flags;
+	}
+	/**
+	 * Copies the bytes of a field into the scratch array, undoing any quoting.
+	 * @return The number of bytes copied.
+	 */
+	private int copyField(int i){
+		int start = fieldStarts[i];
+		int fieldEnd = fieldEnds[i];
+		if(scratch.length < fieldEnd - start)
+			scratch = new byte[Math.max(fieldEnd - start, scratch.length*2)];
+		boolean escaped = (fieldFlags[i] & ESCAPED) != 0;
+		boolean inQuotes = false;
+		int length = 0;
+		for(int p=start; p<fieldEnd; p++){
+			byte b = window.get(p);
+			if(escaped && b == '"'){
+				if(inQuotes && p+1 < fieldEnd && window.get(p+1) == '"'){
+					scratch[length++] = '"';
+					p++;
+				}else{
+					inQuotes = !inQuotes;
+				}
+			}else{
+				scratch[length++] = b;
+			}
+		}
+		return length;
+	}
+	private void checkField(int i){
+		if(i < 0 || i >= fieldCount)
+			throw new IndexOutOfBoundsException("Field "+i+" is out of bounds for a record with "+fieldCount+" fields.");
+	}
+
+	/**
+	 * A view of a plain ASCII field of the current record. There is one per field index, reused for every record.
+	 */
+	private class FieldView implements CharSequence {
+		private final int field;
+
+		private FieldView(int field){
+			this.field = field;
+		}
+		@Override
+		public int length(){
+			return fieldEnds[field] - fieldStarts[field];
+		}
+		@Override
+		public char charAt(int index){
+			if(index < 0 || index >= length())
+				throw new IndexOutOfBoundsException("Index "+index+" is out of bounds for a field of length "+length()+".");
+			return (char) window.get(fieldStarts[field] + index);
+		}
+		@Override
+		public CharSequence subSequence(int start, int end){
+			return toString().subSequence(start, end);
+		}
+		@Override
+		public String toString(){
+			return getString(field);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package net.tullco.tullutils.csvutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import net.tullco.tullutils.ConcurrencyUtils;
+
+/**
+ * Parses a CSV file on several threads by splitting it into byte ranges that each start at the beginning of a record.
+ *
+ * A newline only ends a record if it isn't inside quotes, and whether a byte is inside quotes depends on every quote before it in
+ * the file. So the split points are found in two steps: each range is scanned on its own, counting its quotes and noting the first
+ * newline it would end a record at for either quote state it could start in, and then the ranges are walked in order to work out
+ * which state each one really starts in. Only the counting touches the whole file, and it runs in parallel too.
+ *
+ * Ranges are parsed with MappedCSVReader, so the file should be UTF-8 and quoting follows its rules.
+ * @author Tull Gearreald
+ */
+public final class ParallelCSVReader {
+
+	/**
+	 * The number of rows handed to a consumer at a time if no other size is given.
+	 */
+	public static final int DEFAULT_BATCH_ROWS = 1000;
+	private static final long MIN_SEGMENT_SIZE = 1024*1024;
+	private static final long MAX_SEGMENT_SIZE = 64*1024*1024;
+	private static final int SCAN_BUFFER_SIZE = 1024*1024;
+
+	private ParallelCSVReader(){}
+
+	/**
+	 * Reads every row of the file on several threads, handing rows to the consumer in batches.
+	 * Batches come from many threads at once and in no particular order, so the consumer must be thread safe.
+	 * Rows within a batch are in file order. If the consumer throws, the other threads stop reading, and the consumer
+	 * is never called again once this has returned or thrown.
+	 * @param csv The file to read.
+	 * @param skipHeaders True if the first record is a header that shouldn't be handed to the consumer.
+	 * @param threads The number of threads to parse with.
+	 * @param batchRows The most rows handed to the consumer at a time.
+	 * @param consumer The consumer for the batches of rows.
+	 * @return The number of rows read, not counting the header if it was skipped.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public static long forEachBatch(File csv, boolean skipHeaders, int threads, int batchRows, Consumer<List<String[]>> consumer) throws IOException{
+		int batchSize = Math.max(1, batchRows);
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		try{
+			long[] boundaries = findRecordBoundaries(csv, firstRecordOffset(csv, skipHeaders), segmentSize(csv, threads), pool);
+			List<ForkJoinTask<Long>> segments = new ArrayList<ForkJoinTask<Long>>();
+			for(int i=0; i+1<boundaries.length; i++){
+				final long start = boundaries[i];
+				final long end = boundaries[i+1];
+				segments.add(pool.submit(() -> {
+					long rows = 0;
+					try(MappedCSVReader reader = new MappedCSVReader(csv, start, end, windowFor(start, end))){
+						List<String[]> batch = new ArrayList<String[]>(batchSize);
+						String[] row;
+						while(!stopped.get() && (row = reader.readNext()) != null){
+							batch.add(row);
+							rows++;
+							if(batch.size() == batchSize){
+								consumer.accept(batch);
+								batch = new ArrayList<String[]>(batchSize);
+							}
+						}
+						if(!batch.isEmpty() && !stopped.get())
+							consumer.accept(batch);
+					}catch(IOException | RuntimeException e){
+						stopped.set(true);
+						throw e;
+					}
+					return rows;
+				}));
+			}
+			long rows = 0;
+			for(ForkJoinTask<Long> segment: segments)
+				rows += ConcurrencyUtils.await(segment);
+			return rows;
+		}finally{
+			stopped.set(true);
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+		}
+	}
+	/**
+	 * Reads every row of the file on several threads, returning them as a stream in file order.
+	 * A few ranges are parsed ahead of the one being read, so memory use stays bounded no matter how big the file is.
+	 * The stream should be closed when done with it, so the parsing threads are shut down.
+	 * @param csv The file to read.
+	 * @param skipHeaders True if the first record is a header that shouldn't be in the stream.
+	 * @param threads The number of threads to parse with.
+	 * @return A stream of the rows of the file.
+	 * @throws IOException If there was a problem finding where the records start.
+	 */
+	public static Stream<String[]> stream(File csv, boolean skipHeaders, int threads) throws IOException{
+		int parallelism = Math.max(1, threads);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long[] boundaries;
+		try{
+			boundaries = findRecordBoundaries(csv, firstRecordOffset(csv, skipHeaders), segmentSize(csv, threads), pool);
+		}catch(IOException | RuntimeException e){
+			pool.shutdownNow();
+			ConcurrencyUtils.awaitTermination(pool);
+			throw e;
+		}
+		Iterator<String[]> rows = new Iterator<String[]>(){
+			private final Deque<ForkJoinTask<List<String[]>>> parsing = new ArrayDeque<ForkJoinTask<List<String[]>>>();
+			private int nextSegment = 0;
+			private Iterator<String[]> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext(){
+				while(!current.hasNext()){
+					while(parsing.size() < parallelism*2 && nextSegment+1 < boundaries.length){
+						final long start = boundaries[nextSegment];
+						final long end = boundaries[++nextSegment];
+						parsing.add(pool.submit(() -> parseSegment(csv, start, end)));
+					}
+					if(parsing.isEmpty())
+						return false;
+					try{
+						current = ConcurrencyUtils.await(parsing.poll()).iterator();
+					}catch(IOException e){
+						throw new UncheckedIOException(e);
+					}
+				}
+				return true;
+			}
+			@Override
+			public String[] next(){
+				if(!hasNext())
+					throw new NoSuchElementException();
+				return current.next();
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(() -> {
+					pool.shutdownNow();
+					ConcurrencyUtils.awaitTermination(pool);
+				});
+	}
+	/**
+	 * Finds where roughly evenly sized ranges of a CSV file start, always at the beginning of a record.
+	 * @param csv The file to split.
+	 * @param start The offset to start from. This must be the beginning of a record, and outside of any quotes.
+	 * @param segmentSize The size to aim for each range to be.
+	 * @param pool The pool to scan the file on.
+	 * @return The offsets where the ranges start, starting with the given start and ending with the file length.
+	 * @throws IOException If there was a problem reading the file.
+	 */
+	public static long[] findRecordBoundaries(File csv, long start, long segmentSize, ForkJoinPool pool) throws IOException{
+		long length = csv.length();
+		long size = Math.max(1, segmentSize);
+		List<ForkJoinTask<long[]>> scans = new ArrayList<ForkJoinTask<long[]>>();
+		for(long chunkStart = start; chunkStart < length; chunkStart += size){
+			final long from = chunkStart;
+			final long to = Math.min(length, chunkStart+size);
+			scans.add(pool.submit(() -> scanChunk(csv, from, to)));
+		}
+		List<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(start);
+		int quotes = 0;
+		for(int i=0; i<scans.size(); i++){
+			long[] result = ConcurrencyUtils.await(scans.get(i));
+			long newline = result[1 + quotes];
+			if(i > 0 && newline >= 0 && newline+1 < length && newline+1 > boundaries.get(boundaries.size()-1))
+				boundaries.add(newline+1);
+			quotes ^= (int) result[0];
+		}
+		if(boundaries.get(boundaries.size()-1) < length)
+			boundaries.add(length);
+		long[] offsets = new long[boundaries.size()];
+		for(int i=0; i<offsets.length; i++)
+			offsets[i] = boundaries.get(i);
+		return offsets;
+	}
+
+	/**
+	 * Scans part of a file for quotes and newlines.
+	 * @return The parity of the number of quotes in the chunk, then the offset of the first newline that is outside quotes
+	 * if the chunk starts outside quotes, then the same if it starts inside quotes. The offsets are -1 if there isn't one.
+	 */
+	private static long[] scanChunk(File csv, long from, long to) throws IOException{
+		long[] result = {0, -1, -1};
+		try(FileChannel channel = new RandomAccessFile(csv, "r").getChannel()){
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+			long position = from;
+			int quotes = 0;
+			while(position < to){
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), to-position));
+				int read = channel.read(buffer, position);
+				if(read < 0)
+					break;
+				for(int i=0; i<read; i++){
+					byte b = buffer.get(i);
+					if(b == '"')
+						quotes ^= 1;
+					else if(b == '\n' && result[1 + quotes] < 0)
+						result[1 + quotes] = position + i;
+				}
+				position += read;
+			}
+			result[0] = quotes;
+		}
+		return result;
+	}
+	private static List<String[]> parseSegment(File csv, long start, long end) throws IOException{
+		List<String[]> rows = new ArrayList<String[]>();
+		try(MappedCSVReader reader = new MappedCSVReader(csv, start, end, windowFor(start, end))){
+			String[] row;
+			while((row = reader.readNext()) != null)
+				rows.add(row);
+		}
+		return rows;
+	}
+	private static long firstRecordOffset(File csv, boolean skipHeaders) throws IOException{
+		if(!skipHeaders)
+			return 0;
+		try(MappedCSVReader reader = new MappedCSVReader(csv, (int) MIN_SEGMENT_SIZE)){
+			reader.next();
+			return reader.getOffset();
+		}
+	}
+	private static long segmentSize(File csv, int threads){
+		return Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, csv.length() / (Math.max(1, threads)*4L)));
+	}
+	private static int windowFor(long start, long end){
+		return (int) Math.max(1, Math.min(MappedCSVReader.DEFAULT_WINDOW_SIZE, end-start));
+	}
+}
@@ -0,0 +1,70 @@
+package net.tullco.tullutils.hashutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * The CRC-32C (Castagnoli) checksum, the one used by iSCSI, ext4 and most cloud storage APIs.
+ * Java only has a built in version of this from Java 9 on, so this is a pure Java one that works eight bytes at a time.
+ * @author Tull Gearreald
+ */
+public class CRC32C implements Checksum {
+
+	private static final int POLYNOMIAL = 0x82F63B78;
+	private static final int[][] TABLES = new int[8][256];
+	static{
+		for(int n=0; n<256; n++){
+			int crc = n;
+			for(int k=0; k<8; k++)
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			TABLES[0][n] = crc;
+		}
+		for(int n=0; n<256; n++){
+			for(int t=1; t<8; t++)
+				TABLES[t][n] = (TABLES[t-1][n] >>> 8) ^ TABLES[0][TABLES[t-1][n] & 0xFF];
+		}
+	}
+
+	private int crc = 0xFFFFFFFF;
+
+	@Override
+	public void update(int b){
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+	@Override
+	public void update(byte[] b, int off, int len){
+		update(ByteBuffer.wrap(b, off, len));
+	}
+	/**
+	 * Updates the checksum with the bytes from the buffer's position to its limit. The buffer's position ends up at its limit.
+	 * @param buffer The bytes to add to the checksum.
+	 */
+	public void update(ByteBuffer buffer){
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int i = in.position();
+		int limit = in.limit();
+		int c = crc;
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+		for(; i+8 <= limit; i += 8){
+			long word = in.getLong(i);
+			int low = (int) word ^ c;
+			int high = (int) (word >>> 32);
+			c = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+					^ t3[high & 0xFF] ^ t2[(high >>> 8) & 0xFF] ^ t1[(high >>> 16) & 0xFF] ^ t0[high >>> 24];
+		}
+		for(; i<limit; i++)
+			c = (c >>> 8) ^ t0[(c ^ in.get(i)) & 0xFF];
+		crc = c;
+		buffer.position(limit);
+	}
+	@Override
+	public long getValue(){
+		return ~crc & 0xFFFFFFFFL;
+	}
+	@Override
+	public void reset(){
+		crc = 0xFFFFFFFF;
+	}
+}
@@ -0,0 +1,91 @@
+package net.tullco.tullutils.hashutils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * The hashes a MultiHash can compute.
+ * @author Tull Gearreald
+ */
+public enum HashAlgorithm {
+	/** SHA-1, a 20 byte cryptographic hash. It is no longer safe against deliberate collisions, but is still common. */
+	SHA1("SHA-1"),
+	/** SHA-256, a 32 byte cryptographic hash. */
+	SHA256("SHA-256"),
+	/** The 4 byte CRC-32C checksum. */
+	CRC32C(null),
+	/** The 8 byte xxHash64 hash with a seed of zero. */
+	XXHASH64(null);
+
+	private final String digestName;
+
+	private HashAlgorithm(String digestName){
+		this.digestName = digestName;
+	}
+
+	/**
+	 * Creates a new hasher for the algorithm.
+	 */
+	Hasher newHasher() throws NoSuchAlgorithmException{
+		switch(this){
+			case CRC32C:
+				CRC32C crc = new CRC32C();
+				return new ChecksumHasher(crc::update, crc::getValue, 4);
+			case XXHASH64:
+				XXHash64 xxHash = new XXHash64();
+				return new ChecksumHasher(xxHash::update, xxHash::getValue, 8);
+			default:
+				return new DigestHasher(MessageDigest.getInstance(digestName));
+		}
+	}
+
+	/**
+	 * Something that can be fed bytes and then give back a hash of them.
+	 */
+	interface Hasher {
+		void update(ByteBuffer buffer);
+		byte[] finish();
+	}
+	private static class DigestHasher implements Hasher {
+		private final MessageDigest digest;
+		private DigestHasher(MessageDigest digest){
+			this.digest = digest;
+		}
+		@Override
+		public void update(ByteBuffer buffer){
+			digest.update(buffer);
+		}
+		@Override
+		public byte[] finish(){
+			return digest.digest();
+		}
+	}
+	/**
+	 * Wraps one of the checksums here, giving the value as big endian bytes.
+	 */
+	private static class ChecksumHasher implements Hasher {
+		private final Consumer<ByteBuffer> update;
+		private final LongSupplier value;
+		private final int bytes;
+		private ChecksumHasher(Consumer<ByteBuffer> update, LongSupplier value, int bytes){
+			this.update = update;
+			this.value = value;
+			this.bytes = bytes;
+		}
+		@Override
+		public void update(ByteBuffer buffer){
+			update.accept(buffer);
+		}
+		@Override
+		public byte[] finish(){
+			long checksum = value.getAsLong();
+			byte[] result = new byte[bytes];
+			for(int i=0; i<bytes; i++)
+				result[i] = (byte) (checksum >>> (8*(bytes-1-i)));
+			return result;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package net.tullco.tullutils.hashutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel that hashes everything written through it on the way to another channel.
+ * Only the bytes the other channel actually accepts are hashed, so partial writes are handled.
+ * @author Tull Gearreald
+ */
+public class HashingChannel implements WritableByteChannel {
+
+	private final WritableByteChannel channel;
+	private final MultiHash hash;
+
+	/**
+	 * Creates a channel that hashes what is written to it before passing it on.
+	 * @param channel The channel to pass the bytes on to. It is closed when this channel is closed.
+	 * @param hash The hash to add the bytes to.
+	 */
+	public HashingChannel(WritableByteChannel channel, MultiHash hash){
+		this.channel = channel;
+		this.hash = hash;
+	}
+	@Override
+	public int write(ByteBuffer src) throws IOException{
+		ByteBuffer written = src.duplicate();
+		int count = channel.write(src);
+		written.limit(written.position() + count);
+		hash.update(written);
+		return count;
+	}
+	@Override
+	public boolean isOpen(){
+		return channel.isOpen();
+	}
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+	/**
+	 * Gets the hash the bytes are being added to.
+	 * @return The hash.
+	 */
+	public MultiHash getHash(){
+		return hash;
+	}
+}
@@ -0,0 +1,42 @@
+package net.tullco.tullutils.hashutils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that hashes everything written through it on the way to another stream,
+ * so files can be checksummed as they are written instead of being read back afterwards.
+ * @author Tull Gearreald
+ */
+public class HashingOutputStream extends FilterOutputStream {
+
+	private final MultiHash hash;
+
+	/**
+	 * Creates a stream that hashes what is written to it before passing it on.
+	 * @param out The stream to pass the bytes on to.
+	 * @param hash The hash to add the bytes to.
+	 */
+	public HashingOutputStream(OutputStream out, MultiHash hash){
+		super(out);
+		this.hash = hash;
+	}
+	@Override
+	public void write(int b) throws IOException{
+		out.write(b);
+		hash.update(new byte[] {(byte) b}, 0, 1);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		out.write(b, off, len);
+		hash.update(b, off, len);
+	}
+	/**
+	 * Gets the hash the bytes are being added to.
+	 * @return The hash.
+	 */
+	public MultiHash getHash(){
+		return hash;
+	}
+}
@@ -0,0 +1,26 @@
+package net.tullco.tullutils.hashutils;
+
+/**
+ * Turns hashes into hex strings. This is here instead of using javax.xml.bind, which isn't in the JDK after Java 10.
+ * @author Tull Gearreald
+ */
+public final class Hex {
+
+	private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private Hex(){}
+
+	/**
+	 * Encodes bytes as an upper case hex string, two characters per byte.
+	 * @param bytes The bytes to encode.
+	 * @return The hex string.
+	 */
+	public static String encode(byte[] bytes){
+		char[] hex = new char[bytes.length*2];
+		for(int i=0; i<bytes.length; i++){
+			hex[i*2] = DIGITS[(bytes[i] >> 4) & 0xF];
+			hex[i*2+1] = DIGITS[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
@@ -0,0 +1,91 @@
+package net.tullco.tullutils.hashutils;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Computes several hashes of the same bytes at once, so data only has to be read once no matter how many hashes are needed.
+ *
+ * Once any hash has been read, the hashes are finished and no more bytes can be added.
+ * @author Tull Gearreald
+ */
+public class MultiHash {
+
+	private final HashAlgorithm[] algorithms;
+	private final HashAlgorithm.Hasher[] hashers;
+	private Map<HashAlgorithm,byte[]> results = null;
+
+	/**
+	 * Creates a hash that computes all of the given algorithms.
+	 * @param algorithms The algorithms to compute.
+	 * @throws NoSuchAlgorithmException If one of the cryptographic hashes isn't available on this platform.
+	 */
+	public MultiHash(HashAlgorithm... algorithms) throws NoSuchAlgorithmException{
+		if(algorithms.length == 0)
+			throw new IllegalArgumentException("At least one hash algorithm is needed.");
+		this.algorithms = algorithms.clone();
+		this.hashers = new HashAlgorithm.Hasher[algorithms.length];
+		for(int i=0; i<algorithms.length; i++)
+			this.hashers[i] = algorithms[i].newHasher();
+	}
+	/**
+	 * Adds bytes to every hash.
+	 * @param b The array holding the bytes.
+	 * @param off The offset of the first byte to add.
+	 * @param len The number of bytes to add.
+	 */
+	public void update(byte[] b, int off, int len){
+		update(ByteBuffer.wrap(b, off, len));
+	}
+	/**
+	 * Adds the bytes from the buffer's position to its limit to every hash. The buffer's position ends up at its limit.
+	 * @param buffer The bytes to add.
+	 */
+	public void update(ByteBuffer buffer){
+		if(results != null)
+			throw new IllegalStateException("The hashes have already been finished.");
+		for(HashAlgorithm.Hasher hasher: hashers)
+			hasher.update(buffer.duplicate());
+		buffer.position(buffer.limit());
+	}
+	/**
+	 * Gets one of the hashes, finishing all of them if they aren't already.
+	 * @param algorithm The algorithm to get the hash of.
+	 * @return The hash.
+	 */
+	public byte[] digest(HashAlgorithm algorithm){
+		byte[] result = finish().get(algorithm);
+		if(result == null)
+			throw new IllegalArgumentException(algorithm+" is not one of the hashes being computed.");
+		return result.clone();
+	}
+	/**
+	 * Gets one of the hashes as an upper case hex string, finishing all of them if they aren't already.
+	 * @param algorithm The algorithm to get the hash of.
+	 * @return The hash as a hex string.
+	 */
+	public String hexDigest(HashAlgorithm algorithm){
+		return Hex.encode(digest(algorithm));
+	}
+	/**
+	 * Gets every hash as an upper case hex string, finishing them if they aren't already.
+	 * @return The hashes, keyed by algorithm.
+	 */
+	public Map<HashAlgorithm,String> hexDigests(){
+		Map<HashAlgorithm,String> hexes = new EnumMap<HashAlgorithm,String>(HashAlgorithm.class);
+		for(Map.Entry<HashAlgorithm,byte[]> result: finish().entrySet())
+			hexes.put(result.getKey(), Hex.encode(result.getValue()));
+		return hexes;
+	}
+
+	private Map<HashAlgorithm,byte[]> finish(){
+		if(results == null){
+			results = new EnumMap<HashAlgorithm,byte[]>(HashAlgorithm.class);
+			for(int i=0; i<algorithms.length; i++)
+				results.put(algorithms[i], hashers[i].finish());
+		}
+		return results;
+	}
+}
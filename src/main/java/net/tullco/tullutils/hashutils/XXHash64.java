@@ -0,0 +1,133 @@
+package net.tullco.tullutils.hashutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * The 64 bit xxHash, a very fast non-cryptographic hash. It's good for spotting changed or duplicate data,
+ * but not for anything that has to stand up to someone trying to fake a match.
+ * @author Tull Gearreald
+ */
+public class XXHash64 implements Checksum {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	private static final int STRIPE = 32;
+
+	private final long seed;
+	private long v1, v2, v3, v4;
+	private long total;
+	private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Creates a hash with a seed of zero.
+	 */
+	public XXHash64(){
+		this(0);
+	}
+	/**
+	 * Creates a hash with the given seed.
+	 * @param seed The seed.
+	 */
+	public XXHash64(long seed){
+		this.seed = seed;
+		reset();
+	}
+	@Override
+	public void update(int b){
+		update(new byte[] {(byte) b}, 0, 1);
+	}
+	@Override
+	public void update(byte[] b, int off, int len){
+		update(ByteBuffer.wrap(b, off, len));
+	}
+	/**
+	 * Updates the hash with the bytes from the buffer's position to its limit. The buffer's position ends up at its limit.
+	 * @param buffer The bytes to add to the hash.
+	 */
+	public void update(ByteBuffer buffer){
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		total += in.remaining();
+		if(pending.position() > 0){
+			while(pending.hasRemaining() && in.hasRemaining())
+				pending.put(in.get());
+			if(pending.hasRemaining()){
+				buffer.position(buffer.limit());
+				return;
+			}
+			stripe(pending, 0);
+			pending.clear();
+		}
+		int i = in.position();
+		int limit = in.limit();
+		for(; i+STRIPE <= limit; i += STRIPE)
+			stripe(in, i);
+		for(; i<limit; i++)
+			pending.put(in.get(i));
+		buffer.position(buffer.limit());
+	}
+	@Override
+	public long getValue(){
+		long h;
+		if(total >= STRIPE){
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = mergeRound(h, v1);
+			h = mergeRound(h, v2);
+			h = mergeRound(h, v3);
+			h = mergeRound(h, v4);
+		}else{
+			h = seed + PRIME5;
+		}
+		h += total;
+		int length = pending.position();
+		int i = 0;
+		for(; i+8 <= length; i += 8){
+			h ^= round(0, pending.getLong(i));
+			h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+		}
+		if(i+4 <= length){
+			h ^= (pending.getInt(i) & 0xFFFFFFFFL) * PRIME1;
+			h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for(; i<length; i++){
+			h ^= (pending.get(i) & 0xFF) * PRIME5;
+			h = Long.rotateLeft(h, 11) * PRIME1;
+		}
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		h ^= h >>> 32;
+		return h;
+	}
+	@Override
+	public void reset(){
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		total = 0;
+		pending.clear();
+	}
+
+	private void stripe(ByteBuffer in, int i){
+		v1 = round(v1, in.getLong(i));
+		v2 = round(v2, in.getLong(i+8));
+		v3 = round(v3, in.getLong(i+16));
+		v4 = round(v4, in.getLong(i+24));
+	}
+	private static long round(long accumulator, long input){
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+	private static long mergeRound(long accumulator, long value){
+		accumulator ^= round(0, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+}
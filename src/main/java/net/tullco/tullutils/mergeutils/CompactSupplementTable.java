@@ -0,0 +1,277 @@
+package net.tullco.tullutils.mergeutils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A lookup table from a key to a row of strings that takes up much less memory than a HashMap of String arrays.
+ *
+ * Rows are packed as UTF-8 bytes into large shared byte arrays, and an open addressing index maps the hash of each key
+ * to where its row starts. Nothing is decoded until a key is found, so lookups that miss never create any objects.
+ * Like a HashMap, putting a key that is already in the table replaces its row.
+ *
+ * The table can be read by many threads at once once it has been filled, but it is not safe to put rows while other threads read.
+ * @author Tull Gearreald
+ */
+public class CompactSupplementTable {
+
+	private static final int SLAB_SIZE = 1024*1024;
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final long EMPTY = -1;
+
+	private final List<byte[]> slabs = new ArrayList<byte[]>();
+	private byte[] currentSlab;
+	private int slabPosition;
+	private long slabBytes = 0;
+
+	private int[] hashes;
+	private long[] addresses;
+	private int size = 0;
+
+	/**
+	 * Creates a new empty table.
+	 */
+	public CompactSupplementTable(){
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.addresses = new long[INITIAL_CAPACITY];
+		Arrays.fill(this.addresses, EMPTY);
+	}
+	/**
+	 * Adds a row to the table, replacing the row that was already there for the key if there was one.
+	 * The column at the key index is the key, and is not stored as part of the row.
+	 * @param row The row to add.
+	 * @param keyIndex The index of the key in the row.
+	 */
+	public void put(String[] row, int keyIndex){
+		put(row[keyIndex], row, keyIndex);
+	}
+	/**
+	 * Adds a row to the table under the given key, replacing the row that was already there for the key if there was one.
+	 * @param key The key for the row.
+	 * @param values The row to add.
+	 */
+	public void put(CharSequence key, String[] values){
+		put(key, values, -1);
+	}
+	private void put(CharSequence key, String[] row, int keyIndex){
+		byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+		byte[][] fields = new byte[keyIndex < 0 ? row.length : row.length-1][];
+		int length = varintLength(keyBytes.length) + keyBytes.length + varintLength(fields.length);
+		for(int i=0, f=0; i<row.length; i++){
+			if(i == keyIndex)
+				continue;
+			fields[f] = row[i] == null ? new byte[0] : row[i].getBytes(StandardCharsets.UTF_8);
+			length += varintLength(fields[f].length) + fields[f].length;
+			f++;
+		}
+
+		long address = allocate(length);
+		byte[] slab = slabs.get(slabOf(address));
+		int position = offsetOf(address);
+		position = writeVarint(slab, position, keyBytes.length);
+		System.arraycopy(keyBytes, 0, slab, position, keyBytes.length);
+		position += keyBytes.length;
+		position = writeVarint(slab, position, fields.length);
+		for(byte[] field: fields){
+			position = writeVarint(slab, position, field.length);
+			System.arraycopy(field, 0, slab, position, field.length);
+			position += field.length;
+		}
+
+		int hash = hashOf(key);
+		int index = findSlot(key, hash);
+		if(addresses[index] == EMPTY){
+			if((size+1)*2 > addresses.length){
+				grow();
+				index = findSlot(key, hash);
+			}
+			size++;
+		}
+		hashes[index] = hash;
+		addresses[index] = address;
+	}
+	/**
+	 * Gets the row for a key. The key can be any CharSequence with the same characters as the key the row was put with,
+	 * so callers can look up keys without building a String for them.
+	 * @param key The key to look up.
+	 * @return The row without its key column, or null if the key isn't in the table.
+	 */
+	public String[] get(CharSequence key){
+		int index = findSlot(key, hashOf(key));
+		if(addresses[index] == EMPTY)
+			return null;
+		return decodeRow(addresses[index]);
+	}
+	/**
+	 * Gets the number of distinct keys in the table.
+	 * @return The number of keys.
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * Gets roughly how many bytes of heap the table is using, counting both the packed rows and the index.
+	 * @return The number of bytes used.
+	 */
+	public long getMemoryUsage(){
+		return slabBytes + (long) addresses.length * (Long.BYTES + Integer.BYTES);
+	}
+
+	private int findSlot(CharSequence key, int hash){
+		int mask = addresses.length-1;
+		int index = hash & mask;
+		while(addresses[index] != EMPTY){
+			if(hashes[index] == hash && keyEquals(addresses[index], key))
+				return index;
+			index = (index+1) & mask;
+		}
+		return index;
+	}
+	private void grow(){
+		int[] oldHashes = hashes;
+		long[] oldAddresses = addresses;
+		hashes = new int[oldAddresses.length*2];
+		addresses = new long[oldAddresses.length*2];
+		Arrays.fill(addresses, EMPTY);
+		int mask = addresses.length-1;
+		for(int i=0; i<oldAddresses.length; i++){
+			if(oldAddresses[i] == EMPTY)
+				continue;
+			int index = oldHashes[i] & mask;
+			while(addresses[index] != EMPTY)
+				index = (index+1) & mask;
+			hashes[index] = oldHashes[i];
+			addresses[index] = oldAddresses[i];
+		}
+	}
+	/**
+	 * Finds room for a record of the given length. Records never span slabs, so records bigger than a slab get a slab of their own.
+	 */
+	private long allocate(int length){
+		if(currentSlab == null || currentSlab.length - slabPosition < length){
+			currentSlab = new byte[Math.max(SLAB_SIZE, length)];
+			slabPosition = 0;
+			slabs.add(currentSlab);
+			slabBytes += currentSlab.length;
+		}
+		long address = ((long) (slabs.size()-1) << 32) | slabPosition;
+		slabPosition += length;
+		return address;
+	}
+	/**
+	 * Compares the stored key at an address with a key by encoding the key to UTF-8 one character at a time,
+	 * the same way String.getBytes does, so no bytes or strings have to be created.
+	 */
+	private boolean keyEquals(long address, CharSequence key){
+		byte[] slab = slabs.get(slabOf(address));
+		int position = offsetOf(address);
+		int length = readVarint(slab, position);
+		position += varintLength(length);
+		int end = position + length;
+		for(int i=0; i<key.length(); i++){
+			char c = key.charAt(i);
+			int codePoint;
+			if(Character.isHighSurrogate(c) && i+1 < key.length() && Character.isLowSurrogate(key.charAt(i+1)))
+				codePoint = Character.toCodePoint(c, key.charAt(++i));
+			else if(Character.isSurrogate(c))
+				codePoint = '?';
+			else
+				codePoint = c;
+
+			if(codePoint < 0x80){
+				if(position >= end || slab[position++] != (byte) codePoint)
+					return false;
+			}else if(codePoint < 0x800){
+				if(end - position < 2
+						|| slab[position++] != (byte) (0xC0 | (codePoint >> 6))
+						|| slab[position++] != (byte) (0x80 | (codePoint & 0x3F)))
+					return false;
+			}else if(codePoint < 0x10000){
+				if(end - position < 3
+						|| slab[position++] != (byte) (0xE0 | (codePoint >> 12))
+						|| slab[position++] != (byte) (0x80 | ((codePoint >> 6) & 0x3F))
+						|| slab[position++] != (byte) (0x80 | (codePoint & 0x3F)))
+					return false;
+			}else{
+				if(end - position < 4
+						|| slab[position++] != (byte) (0xF0 | (codePoint >> 18))
+						|| slab[position++] != (byte) (0x80 | ((codePoint >> 12) & 0x3F))
+						|| slab[position++] != (byte) (0x80 | ((codePoint >> 6) & 0x3F))
+						|| slab[position++] != (byte) (0x80 | (codePoint & 0x3F)))
+					return false;
+			}
+		}
+		return position == end;
+	}
+	private String[] decodeRow(long address){
+		byte[] slab = slabs.get(slabOf(address));
+		int position = offsetOf(address);
+		int keyLength = readVarint(slab, position);
+		position += varintLength(keyLength) + keyLength;
+		int fieldCount = readVarint(slab, position);
+		position += varintLength(fieldCount);
+		String[] row = new String[fieldCount];
+		for(int i=0; i<fieldCount; i++){
+			int length = readVarint(slab, position);
+			position += varintLength(length);
+			row[i] = new String(slab, position, length, StandardCharsets.UTF_8);
+			position += length;
+		}
+		return row;
+	}
+	private static int slabOf(long address){
+		return (int) (address >>> 32);
+	}
+	private static int offsetOf(long address){
+		return (int) address;
+	}
+	/**
+	 * Hashes the key the same way String.hashCode does, so Strings can use their cached hash, and then mixes it.
+	 */
+	private static int hashOf(CharSequence key){
+		int h;
+		if(key instanceof String){
+			h = key.hashCode();
+		}else{
+			h = 0;
+			for(int i=0; i<key.length(); i++)
+				h = 31*h + key.charAt(i);
+		}
+		return mix(h);
+	}
+	private static int mix(int h){
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+	private static int varintLength(int value){
+		int length = 1;
+		while((value >>>= 7) != 0)
+			length++;
+		return length;
+	}
+	private static int writeVarint(byte[] b, int position, int value){
+		while((value & ~0x7F) != 0){
+			b[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		b[position++] = (byte) value;
+		return position;
+	}
+	private static int readVarint(byte[] b, int position){
+		int value = 0;
+		int shift = 0;
+		byte current;
+		do{
+			current = b[position++];
+			value |= (current & 0x7F) << shift;
+			shift += 7;
+		}while((current & 0x80) != 0);
+		return value;
+	}
+}
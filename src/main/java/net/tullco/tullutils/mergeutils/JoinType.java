@@ -0,0 +1,14 @@
+package net.tullco.tullutils.mergeutils;
+
+/**
+ * Which rows a merge keeps when a key is only on one side.
+ * @author Tull Gearreald
+ */
+public enum JoinType {
+	/** Only base rows that have a matching supplement row are kept. */
+	INNER,
+	/** Every base row is kept. Base rows without a match get empty supplement columns. */
+	LEFT,
+	/** Every row from both files is kept. Supplement rows without a match get empty base columns, except for the key. */
+	FULL_OUTER;
+}
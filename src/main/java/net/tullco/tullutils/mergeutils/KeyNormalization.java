@@ -0,0 +1,14 @@
+package net.tullco.tullutils.mergeutils;
+
+/**
+ * Ways a key column can be cleaned up before two keys are compared in a merge.
+ * @author Tull Gearreald
+ */
+public enum KeyNormalization {
+	/** Leading and trailing whitespace is ignored, the same way String.trim does. */
+	TRIM,
+	/** Upper and lower case letters are treated as the same letter. */
+	CASE_FOLD,
+	/** Plain decimal numbers are compared by value, so "007", "7.0" and "+7" are all the same key. Anything that isn't a plain decimal number is left alone. */
+	NUMERIC;
+}
@@ -0,0 +1,267 @@
+package net.tullco.tullutils.mergeutils;
+
+import java.util.Arrays;
+
+/**
+ * The columns that make up the merge key of one side of a merge, along with how each column should be normalized before comparing.
+ *
+ * Keys are read straight out of rows as CharSequences, normalizing the characters as they are read, so keys never have to
+ * be built as Strings to hash or compare them. Two keys are equal when they have the same number of columns and every column is
+ * equal after normalization.
+ * @author Tull Gearreald
+ */
+public class MergeKey {
+
+	private final int[] columns;
+	private final boolean[] trim;
+	private final boolean[] caseFold;
+	private final boolean[] numeric;
+
+	/**
+	 * Creates a key made up of the given columns, compared exactly.
+	 * @param columns The indices of the columns in the key, in order.
+	 */
+	public MergeKey(int... columns){
+		this(columns, new KeyNormalization[0]);
+	}
+	/**
+	 * Creates a key made up of the given columns, with every column normalized the same way.
+	 * @param columns The indices of the columns in the key, in order.
+	 * @param normalizations The normalizations to apply to every column.
+	 */
+	public MergeKey(int[] columns, KeyNormalization... normalizations){
+		if(columns.length == 0)
+			throw new IllegalArgumentException("A merge key needs at least one column.");
+		this.columns = Arrays.copyOf(columns, columns.length);
+		this.trim = new boolean[columns.length];
+		this.caseFold = new boolean[columns.length];
+		this.numeric = new boolean[columns.length];
+		for(int i=0; i<columns.length; i++)
+			setNormalizationAt(i, normalizations);
+	}
+	/**
+	 * Sets how one of the key columns is normalized, replacing whatever was set for it before.
+	 * @param column The index of the column. It must be one of the key columns.
+	 * @param normalizations The normalizations to apply to the column. None means the column is compared exactly.
+	 */
+	public void setNormalization(int column, KeyNormalization... normalizations){
+		for(int i=0; i<columns.length; i++){
+			if(columns[i] == column){
+				setNormalizationAt(i, normalizations);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Column "+column+" is not part of the key.");
+	}
+	/**
+	 * Gets the indices of the columns in the key.
+	 * @return The column indices, in order.
+	 */
+	public int[] getColumns(){
+		return Arrays.copyOf(columns, columns.length);
+	}
+	/**
+	 * Gets the number of columns in the key.
+	 * @return The number of columns.
+	 */
+	public int size(){
+		return columns.length;
+	}
+	/**
+	 * Reads the normalized key out of a row. The key is a view over the row, so it should be used before the row changes.
+	 * Keys from different MergeKeys with the same number of columns can be compared with each other.
+	 * @param row The row to read the key from.
+	 * @return The key.
+	 */
+	public CharSequence keyOf(String[] row){
+		return new Key(row);
+	}
+	/**
+	 * Copies a row without its key columns.
+	 * @param row The row to copy.
+	 * @return The row with all of the key columns removed.
+	 */
+	public String[] removeKeyColumns(String[] row){
+		String[] remaining = new String[row.length];
+		int count = 0;
+		for(int i=0; i<row.length; i++){
+			boolean isKey = false;
+			for(int column: columns)
+				isKey |= column == i;
+			if(!isKey)
+				remaining[count++] = row[i];
+		}
+		return Arrays.copyOf(remaining, count);
+	}
+
+	private void setNormalizationAt(int position, KeyNormalization[] normalizations){
+		trim[position] = false;
+		caseFold[position] = false;
+		numeric[position] = false;
+		for(KeyNormalization normalization: normalizations){
+			switch(normalization){
+				case TRIM:
+					trim[position] = true;
+					break;
+				case CASE_FOLD:
+					caseFold[position] = true;
+					break;
+				case NUMERIC:
+					numeric[position] = true;
+					break;
+			}
+		}
+	}
+
+	/**
+	 * The characters of a normalized key. Each column is written as two characters holding its length in 15 bit pieces,
+	 * followed by the normalized characters of the column, so no choice of separator can make two different keys look the same.
+	 * Numeric columns are written as an optional minus sign, the integer digits without leading zeros (or a single zero),
+	 * and then a point and the fraction digits without trailing zeros if there are any.
+	 */
+	private class Key implements CharSequence {
+		private static final int START = 0;
+		private static final int END = 1;
+		private static final int FRACTION_START = 2;
+		private static final int FRACTION_END = 3;
+		private static final int LENGTH = 4;
+		private static final int FLAGS = 5;
+		private static final int STRIDE = 6;
+		private static final int CANONICAL = 1;
+		private static final int NEGATIVE = 2;
+
+		private final String[] row;
+		private final int[] info;
+		private final int[] offsets;
+		private int lastColumn = 0;
+
+		private Key(String[] row){
+			int n = columns.length;
+			this.row = row;
+			this.info = new int[n*STRIDE];
+			this.offsets = new int[n+1];
+			for(int i=0; i<n; i++){
+				String value = value(i);
+				int start = 0;
+				int end = value.length();
+				if(trim[i]){
+					while(start < end && value.charAt(start) <= ' ')
+						start++;
+					while(end > start && value.charAt(end-1) <= ' ')
+						end--;
+				}
+				info[i*STRIDE+START] = start;
+				info[i*STRIDE+END] = end;
+				info[i*STRIDE+LENGTH] = end - start;
+				if(numeric[i])
+					canonicalize(i, value);
+				offsets[i+1] = offsets[i] + 2 + info[i*STRIDE+LENGTH];
+			}
+		}
+		private String value(int i){
+			String value = row[columns[i]];
+			return value == null ? "" : value;
+		}
+		/**
+		 * Works out where the digits worth keeping are if the column is a plain decimal number.
+		 */
+		private void canonicalize(int i, String value){
+			int base = i*STRIDE;
+			int position = info[base+START];
+			int end = info[base+END];
+			boolean minus = false;
+			if(position < end && (value.charAt(position) == '-' || value.charAt(position) == '+')){
+				minus = value.charAt(position) == '-';
+				position++;
+			}
+			int integerStart = position;
+			while(position < end && isDigit(value.charAt(position)))
+				position++;
+			int integerEnd = position;
+			int fractionStart = position;
+			int fractionEnd = position;
+			if(position < end && value.charAt(position) == '.'){
+				position++;
+				fractionStart = position;
+				while(position < end && isDigit(value.charAt(position)))
+					position++;
+				fractionEnd = position;
+			}
+			if(position != end || (integerEnd == integerStart && fractionEnd == fractionStart))
+				return;
+			while(integerStart < integerEnd && value.charAt(integerStart) == '0')
+				integerStart++;
+			while(fractionEnd > fractionStart && value.charAt(fractionEnd-1) == '0')
+				fractionEnd--;
+			boolean negative = minus && (integerStart < integerEnd || fractionStart < fractionEnd);
+			int fractionLength = fractionEnd - fractionStart;
+			info[base+START] = integerStart;
+			info[base+END] = integerEnd;
+			info[base+FRACTION_START] = fractionStart;
+			info[base+FRACTION_END] = fractionEnd;
+			info[base+LENGTH] = (negative ? 1 : 0) + Math.max(1, integerEnd - integerStart) + (fractionLength > 0 ? fractionLength + 1 : 0);
+			info[base+FLAGS] = CANONICAL | (negative ? NEGATIVE : 0);
+		}
+		@Override
+		public int length(){
+			return offsets[offsets.length-1];
+		}
+		@Override
+		public char charAt(int index){
+			if(index < 0 || index >= length())
+				throw new IndexOutOfBoundsException("Index "+index+" is out of bounds for a key of length "+length()+".");
+			if(index < offsets[lastColumn] || index >= offsets[lastColumn+1]){
+				lastColumn = 0;
+				while(index >= offsets[lastColumn+1])
+					lastColumn++;
+			}
+			int i = lastColumn;
+			int base = i*STRIDE;
+			int position = index - offsets[i];
+			if(position == 0)
+				return (char) ((info[base+LENGTH] >>> 15) & 0x7FFF);
+			if(position == 1)
+				return (char) (info[base+LENGTH] & 0x7FFF);
+			position -= 2;
+			if((info[base+FLAGS] & CANONICAL) != 0)
+				return canonicalCharAt(i, position);
+			char c = value(i).charAt(info[base+START] + position);
+			return caseFold[i] ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+		}
+		private char canonicalCharAt(int i, int position){
+			int base = i*STRIDE;
+			if((info[base+FLAGS] & NEGATIVE) != 0){
+				if(position == 0)
+					return '-';
+				position--;
+			}
+			int integerLength = info[base+END] - info[base+START];
+			if(integerLength == 0){
+				if(position == 0)
+					return '0';
+				position--;
+			}else if(position < integerLength){
+				return value(i).charAt(info[base+START] + position);
+			}else{
+				position -= integerLength;
+			}
+			if(position == 0)
+				return '.';
+			return value(i).charAt(info[base+FRACTION_START] + position - 1);
+		}
+		@Override
+		public CharSequence subSequence(int start, int end){
+			return toString().subSequence(start, end);
+		}
+		@Override
+		public String toString(){
+			StringBuilder sb = new StringBuilder(length());
+			for(int i=0; i<length(); i++)
+				sb.append(charAt(i));
+			return sb.toString();
+		}
+	}
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+}
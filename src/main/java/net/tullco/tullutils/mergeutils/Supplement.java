@@ -0,0 +1,58 @@
+package net.tullco.tullutils.mergeutils;
+
+import java.io.File;
+
+/**
+ * One supplementary file in a merge of many supplements into a base file, along with the keys it is joined on.
+ * @author Tull Gearreald
+ */
+public class Supplement {
+
+	private final File csv;
+	private final MergeKey supplementKey;
+	private final MergeKey baseKey;
+
+	/**
+	 * Creates a supplement joined on a single column on each side.
+	 * @param csv The supplementary file.
+	 * @param supplementKeyIndex The index of the merge key in the supplementary file.
+	 * @param baseKeyIndex The index of the merge key in the base file.
+	 */
+	public Supplement(File csv, int supplementKeyIndex, int baseKeyIndex){
+		this(csv, new MergeKey(supplementKeyIndex), new MergeKey(baseKeyIndex));
+	}
+	/**
+	 * Creates a supplement joined on the given keys. The keys must have the same number of columns.
+	 * @param csv The supplementary file.
+	 * @param supplementKey The key columns in the supplementary file.
+	 * @param baseKey The key columns in the base file.
+	 */
+	public Supplement(File csv, MergeKey supplementKey, MergeKey baseKey){
+		if(supplementKey.size() != baseKey.size())
+			throw new IllegalArgumentException("The supplement key has "+supplementKey.size()+" columns, but the base key has "+baseKey.size()+".");
+		this.csv = csv;
+		this.supplementKey = supplementKey;
+		this.baseKey = baseKey;
+	}
+	/**
+	 * Gets the supplementary file.
+	 * @return The file.
+	 */
+	public File getFile(){
+		return csv;
+	}
+	/**
+	 * Gets the key columns in the supplementary file.
+	 * @return The supplement key.
+	 */
+	public MergeKey getSupplementKey(){
+		return supplementKey;
+	}
+	/**
+	 * Gets the key columns in the base file.
+	 * @return The base key.
+	 */
+	public MergeKey getBaseKey(){
+		return baseKey;
+	}
+}
@@ -0,0 +1,70 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Pulls the value of a single result set column out of the current row, so it can be formatted later, away from the result set.
+ * The values are converted so their toString() gives the same text a ColumnEncoder would write.
+ * Like the encoders, fetchers are resolved once per column from the result set metadata.
+ * @author Tull Gearreald
+ */
+@FunctionalInterface
+public interface ColumnFetcher {
+	
+	/**
+	 * Gets the current row's value for the column.
+	 * @param rs The result set, positioned on the row to fetch.
+	 * @param column The 1-based index of the column.
+	 * @return The value, or null if it was null.
+	 * @throws SQLException If the value could not be read.
+	 */
+	public Object fetch(ResultSet rs, int column) throws SQLException;
+	
+	/**
+	 * Gets the fetcher for the given SQL type from java.sql.Types.
+	 * @param sqlType The SQL type of the column.
+	 * @return The fetcher for that type.
+	 */
+	public static ColumnFetcher forType(int sqlType){
+		return ResultColumnType.forSqlType(sqlType).getFetcher();
+	}
+	
+	static Object fetchInt(ResultSet rs, int column) throws SQLException{
+		int value = rs.getInt(column);
+		return rs.wasNull() ? null : value;
+	}
+	static Object fetchLong(ResultSet rs, int column) throws SQLException{
+		long value = rs.getLong(column);
+		return rs.wasNull() ? null : value;
+	}
+	static Object fetchDouble(ResultSet rs, int column) throws SQLException{
+		double value = rs.getDouble(column);
+		return rs.wasNull() ? null : value;
+	}
+	static Object fetchString(ResultSet rs, int column) throws SQLException{
+		return rs.getString(column);
+	}
+	static Object fetchBoolean(ResultSet rs, int column) throws SQLException{
+		boolean value = rs.getBoolean(column);
+		return rs.wasNull() ? null : value;
+	}
+	static Object fetchDate(ResultSet rs, int column) throws SQLException{
+		Date value = rs.getDate(column);
+		return value == null ? null : value.toLocalDate();
+	}
+	static Object fetchTime(ResultSet rs, int column) throws SQLException{
+		Time value = rs.getTime(column);
+		return value == null ? null : value.toLocalTime();
+	}
+	static Object fetchTimestamp(ResultSet rs, int column) throws SQLException{
+		Timestamp value = rs.getTimestamp(column);
+		return value == null ? null : value.toLocalDateTime();
+	}
+	static Object fetchObject(ResultSet rs, int column) throws SQLException{
+		return rs.getObject(column);
+	}
+}
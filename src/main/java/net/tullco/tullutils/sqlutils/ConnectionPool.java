@@ -0,0 +1,488 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lightweight JDBC connection pool. Connections handed out by the pool go back into it when they're closed,
+ * so code that closes its connections, like SQLUtil, works with the pool without any changes.
+ * 
+ * Idle connections are validated before they're handed out and are closed once they've been idle too long, down to the minimum size.
+ * Each pooled connection also caches its prepared statements, so preparing the same SQL again on the same connection reuses the statement.
+ * Statements a borrower leaves open are closed, or handed back to the cache, when the connection is returned.
+ * @author Tull Gearreald
+ */
+public class ConnectionPool implements ConnectionSupplier, Closeable {
+	
+	public static final int DEFAULT_MIN_SIZE = 0;
+	public static final int DEFAULT_MAX_SIZE = 10;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5*60*1000;
+	public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 60*1000;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	
+	private static HashMap<String,ConnectionPool> sharedPools = new HashMap<String,ConnectionPool>();
+	
+	private final ConnectionSupplier factory;
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+	private final int statementCacheSize;
+	
+	private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+	private int openConnections = 0;
+	private boolean isClosed = false;
+	
+	/**
+	 * Creates a connection pool with the default settings.
+	 * @param factory Where the pool gets new connections from.
+	 */
+	public ConnectionPool(ConnectionSupplier factory){
+		this(factory, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+	/**
+	 * Creates a connection pool.
+	 * @param factory Where the pool gets new connections from.
+	 * @param minSize The number of idle connections that will be kept open no matter how long they've been idle.
+	 * @param maxSize The most connections the pool will have open at once. Borrowers wait when they're all in use.
+	 * @param idleTimeoutMillis How long a connection can sit idle before it's closed.
+	 * @param borrowTimeoutMillis How long a borrower will wait for a connection before giving up.
+	 * @param statementCacheSize The number of prepared statements cached on each connection. 0 turns the cache off.
+	 */
+	public ConnectionPool(ConnectionSupplier factory, int minSize, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis, int statementCacheSize){
+		this.factory = factory;
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+	}
+	
+	/**
+	 * Gets the shared pool with the given key, creating it with the default settings if it doesn't exist yet.
+	 * Use a key that identifies the database, like a keyring name or a JDBC URL.
+	 * @param key The key of the pool.
+	 * @param factory Where the pool gets new connections from if it has to be created.
+	 * @return The shared pool for the key.
+	 */
+	public static synchronized ConnectionPool getSharedPool(String key, ConnectionSupplier factory){
+		ConnectionPool pool = sharedPools.get(key);
+		if(pool == null || pool.isClosed()){
+			pool = new ConnectionPool(factory);
+			sharedPools.put(key, pool);
+		}
+		return pool;
+	}
+	/**
+	 * Closes every shared pool.
+	 */
+	public static synchronized void closeSharedPools(){
+		for(ConnectionPool pool: sharedPools.values())
+			pool.close();
+		sharedPools.clear();
+	}
+	
+	/**
+	 * Borrows a connection from the pool. Closing the connection returns it to the pool.
+	 * @return A connection.
+	 * @throws SQLException If the pool is closed, a new connection couldn't be opened, or none became free in time.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException{
+		long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+		while(true){
+			PooledConnection candidate = null;
+			boolean openNew = false;
+			synchronized(this){
+				throwIfClosed();
+				evictIdle();
+				if(!idle.isEmpty()){
+					candidate = idle.pollLast();
+				}else if(openConnections < maxSize){
+					openConnections++;
+					openNew = true;
+				}else{
+					long wait = deadline - System.currentTimeMillis();
+					if(wait <= 0)
+						throw new SQLException("Timed out waiting for a free connection.");
+					try{
+						this.wait(wait);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a free connection.", e);
+					}
+					continue;
+				}
+			}
+			if(openNew){
+				try{
+					Connection raw = factory.getConnection();
+					if(raw == null)
+						throw new SQLException("The connection factory did not return a connection.");
+					return new PooledConnection(raw).borrow();
+				}catch(SQLException | RuntimeException e){
+					discarded();
+					throw e;
+				}
+			}
+			if(isValid(candidate.raw))
+				return candidate.borrow();
+			candidate.closeRaw();
+			discarded();
+		}
+	}
+	
+	/**
+	 * Gets the number of connections the pool has open, both idle and borrowed.
+	 * @return The number of open connections.
+	 */
+	public synchronized int getOpenConnections(){
+		return openConnections;
+	}
+	/**
+	 * Gets the number of connections sitting idle in the pool.
+	 * @return The number of idle connections.
+	 */
+	public synchronized int getIdleConnections(){
+		return idle.size();
+	}
+	/**
+	 * Checks if the pool has been closed.
+	 * @return True if the pool is closed.
+	 */
+	public synchronized boolean isClosed(){
+		return isClosed;
+	}
+	/**
+	 * Closes every idle connection and stops the pool from handing out more.
+	 * Connections that are borrowed when the pool is closed are closed when they're returned.
+	 */
+	@Override
+	public void close(){
+		synchronized(this){
+			if(isClosed)
+				return;
+			isClosed = true;
+			for(PooledConnection connection: idle){
+				connection.closeRaw();
+				openConnections--;
+			}
+			idle.clear();
+			this.notifyAll();
+		}
+	}
+	
+	private static boolean isValid(Connection raw){
+		try{
+			return !raw.isClosed() && raw.isValid(VALIDATION_TIMEOUT_SECONDS);
+		}catch(SQLException | AbstractMethodError e){
+			return false;
+		}
+	}
+	/**
+	 * Closes connections that have been idle too long, oldest first, as long as the pool stays at or above the minimum size.
+	 * Must be called while holding the lock.
+	 */
+	private void evictIdle(){
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> oldestFirst = idle.iterator();
+		while(oldestFirst.hasNext() && openConnections > minSize){
+			PooledConnection connection = oldestFirst.next();
+			if(now - connection.lastUsed < idleTimeoutMillis)
+				break;
+			oldestFirst.remove();
+			connection.closeRaw();
+			openConnections--;
+		}
+	}
+	private synchronized void discarded(){
+		openConnections--;
+		this.notifyAll();
+	}
+	private void release(PooledConnection connection){
+		boolean reusable = connection.reset();
+		synchronized(this){
+			if(reusable && !isClosed){
+				connection.lastUsed = System.currentTimeMillis();
+				idle.addLast(connection);
+				evictIdle();
+				this.notifyAll();
+				return;
+			}
+		}
+		connection.closeRaw();
+		discarded();
+	}
+	private void throwIfClosed() throws SQLException{
+		if(isClosed)
+			throw new SQLException("This connection pool has already been closed");
+	}
+	
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable{
+		try{
+			return method.invoke(target, args);
+		}catch(InvocationTargetException e){
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * A raw connection owned by the pool, along with its statement cache.
+	 * Every time it's borrowed, a new proxy is handed out, so a borrower that closes its connection twice can't return it twice.
+	 */
+	private final class PooledConnection {
+		final Connection raw;
+		final LinkedHashMap<String,CachedStatement> statements;
+		long lastUsed;
+		
+		PooledConnection(Connection raw){
+			this.raw = raw;
+			this.statements = new LinkedHashMap<String,CachedStatement>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String,CachedStatement> eldest){
+					if(size() <= statementCacheSize)
+						return false;
+					eldest.getValue().evicted();
+					return true;
+				}
+			};
+		}
+		
+		Connection borrow(){
+			Lease lease = new Lease(this);
+			lease.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, lease);
+			return lease.proxy;
+		}
+		
+		/**
+		 * Takes the cached statement for the SQL, preparing and caching it if it isn't cached yet.
+		 * @return The statement, or null if the cache is off or the cached statement is already checked out.
+		 */
+		CachedStatement checkOut(String sql) throws SQLException{
+			if(statementCacheSize == 0)
+				return null;
+			CachedStatement cached = statements.get(sql);
+			if(cached == null){
+				cached = new CachedStatement(raw.prepareStatement(sql));
+				statements.put(sql, cached);
+			}else if(cached.inUse){
+				return null;
+			}
+			cached.inUse = true;
+			return cached;
+		}
+		
+		/**
+		 * Gets the connection ready to be handed out again. Anything left uncommitted is rolled back.
+		 * @return False if the connection is broken and shouldn't go back into the pool.
+		 */
+		boolean reset(){
+			try{
+				if(raw.isClosed())
+					return false;
+				if(!raw.getAutoCommit()){
+					raw.rollback();
+					raw.setAutoCommit(true);
+				}
+				return true;
+			}catch(SQLException e){
+				return false;
+			}
+		}
+		
+		void closeRaw(){
+			for(CachedStatement statement: statements.values())
+				statement.evicted();
+			statements.clear();
+			try{
+				raw.close();
+			}catch(SQLException e){}
+		}
+	}
+	
+	/**
+	 * The handler behind a borrowed connection. Closing it returns the connection to the pool instead of closing it.
+	 * Every statement opened through it is tracked, and any the borrower didn't close are closed when the connection is returned,
+	 * the same way closing a real connection closes its statements.
+	 */
+	private final class Lease implements InvocationHandler {
+		private final PooledConnection connection;
+		private final Set<LeasedStatement> statements = new HashSet<LeasedStatement>();
+		private Connection proxy;
+		private boolean returned = false;
+		
+		Lease(PooledConnection connection){
+			this.connection = connection;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			String name = method.getName();
+			switch(name){
+				case "close":
+					if(!returned){
+						returned = true;
+						closeStatements();
+						release(connection);
+					}
+					return null;
+				case "isClosed":
+					return returned || connection.raw.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled "+connection.raw.toString();
+			}
+			if(returned)
+				throw new SQLException("This connection has already been returned to the pool");
+			if(name.equals("prepareStatement") && args.length == 1){
+				CachedStatement cached = connection.checkOut((String) args[0]);
+				if(cached != null)
+					return track(PreparedStatement.class, cached.statement, cached);
+			}
+			if(name.equals("unwrap") && ((Class<?>) args[0]).isInstance(connection.raw))
+				return connection.raw;
+			if(name.equals("isWrapperFor") && ((Class<?>) args[0]).isInstance(connection.raw))
+				return true;
+			Object result = ConnectionPool.invoke(connection.raw, method, args);
+			if(result instanceof Statement)
+				return track(method.getReturnType(), (Statement) result, null);
+			return result;
+		}
+		
+		private synchronized Object track(Class<?> type, Statement statement, CachedStatement cached){
+			LeasedStatement leased = new LeasedStatement(this, statement, cached);
+			statements.add(leased);
+			return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{type}, leased);
+		}
+		private synchronized void untrack(LeasedStatement statement){
+			statements.remove(statement);
+		}
+		private void closeStatements(){
+			List<LeasedStatement> open;
+			synchronized(this){
+				open = new ArrayList<LeasedStatement>(statements);
+				statements.clear();
+			}
+			for(LeasedStatement statement: open)
+				statement.closeQuietly();
+		}
+	}
+	
+	/**
+	 * The handler behind a statement opened on a borrowed connection. A new one is made every time a statement is handed out,
+	 * so a borrower holding on to a statement after closing it can't use it while someone else has it checked out.
+	 * Closing it hands a cached statement back to the cache, and closes any other statement.
+	 */
+	private static final class LeasedStatement implements InvocationHandler {
+		private final Lease lease;
+		private final Statement statement;
+		private final CachedStatement cached;
+		private boolean closed = false;
+		
+		LeasedStatement(Lease lease, Statement statement, CachedStatement cached){
+			this.lease = lease;
+			this.statement = statement;
+			this.cached = cached;
+		}
+		
+		private synchronized void close() throws SQLException{
+			if(closed)
+				return;
+			closed = true;
+			if(cached != null)
+				cached.checkIn();
+			else
+				statement.close();
+		}
+		private void closeQuietly(){
+			try{
+				close();
+			}catch(SQLException e){}
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			switch(method.getName()){
+				case "close":
+					close();
+					lease.untrack(this);
+					return null;
+				case "isClosed":
+					return closed || statement.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled "+statement.toString();
+			}
+			synchronized(this){
+				if(closed)
+					throw new SQLException("This statement has already been closed");
+			}
+			if(method.getName().equals("getConnection"))
+				return lease.proxy;
+			return ConnectionPool.invoke(statement, method, args);
+		}
+	}
+	
+	/**
+	 * A prepared statement kept open on its connection, and handed out to one borrower at a time.
+	 */
+	private static final class CachedStatement {
+		private final PreparedStatement statement;
+		private boolean inUse = false;
+		private boolean evicted = false;
+		
+		CachedStatement(PreparedStatement statement){
+			this.statement = statement;
+		}
+		
+		/**
+		 * Hands the statement back to the cache, clearing anything the last borrower bound to it.
+		 * If it was evicted while it was checked out, it's closed instead.
+		 */
+		void checkIn(){
+			inUse = false;
+			if(evicted){
+				closeQuietly();
+			}else{
+				try{
+					statement.clearParameters();
+					statement.clearBatch();
+				}catch(SQLException e){}
+			}
+		}
+		void evicted(){
+			evicted = true;
+			if(!inUse)
+				closeQuietly();
+		}
+		private void closeQuietly(){
+			try{
+				statement.close();
+			}catch(SQLException e){}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Supplies fresh JDBC connections to the parts of the library that need more than one connection at a time,
+ * like the parallel chunked exports in SQLUtil. The caller owns each returned connection and will close it.
+ * @author Tull Gearreald
+ */
+@FunctionalInterface
+public interface ConnectionSupplier {
+	/**
+	 * Gets a connection.
+	 * @return A connection that the caller is responsible for closing.
+	 * @throws SQLException If the connection could not be opened.
+	 */
+	public Connection getConnection() throws SQLException;
+}
@@ -0,0 +1,150 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.tullco.tullutils.ConcurrencyUtils;
+
+/**
+ * Exports a result set to CSV with the fetching, encoding and writing happening at the same time.
+ * 
+ * The calling thread fetches rows from the result set in batches, a pool of encoder threads turns the batches into CSV text,
+ * and a single writer thread writes the text out in the order the batches were fetched. The queue between them is bounded,
+ * so if the writer falls behind, fetching waits for it.
+ * 
+ * The output is the same as ResultSetCSVWriter's.
+ * @author Tull Gearreald
+ */
+public final class PipelinedCSVExport {
+	
+	/**
+	 * The number of rows in each batch handed to the encoders if no other size is given.
+	 */
+	public static final int DEFAULT_BATCH_ROWS = 1000;
+	private static final Future<StringBuilder> END = CompletableFuture.completedFuture(null);
+	
+	private PipelinedCSVExport(){}
+	
+	/**
+	 * Writes every remaining row of the result set to the writer, then closes the result set.
+	 * The writer is flushed, but not closed.
+	 * @param rs The result set to write. It's only ever touched from the calling thread.
+	 * @param writer The writer to write CSV to.
+	 * @param headers True if a header row with the column labels should be written first.
+	 * @param encoderThreads The number of threads encoding rows.
+	 * @param batchRows The number of rows handed to an encoder at a time.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem reading the results.
+	 * @throws IOException If there was a problem writing, or the export was interrupted.
+	 */
+	public static long export(ResultSet rs, Writer writer, boolean headers, int encoderThreads, int batchRows) throws SQLException, IOException{
+		encoderThreads = Math.max(1, encoderThreads);
+		batchRows = Math.max(1, batchRows);
+		ExecutorService encoders = Executors.newFixedThreadPool(encoderThreads);
+		ExecutorService writerThread = Executors.newSingleThreadExecutor();
+		BlockingQueue<Future<StringBuilder>> pending = new ArrayBlockingQueue<Future<StringBuilder>>(encoderThreads*2);
+		try{
+			ResultSetMetaData rsmd = rs.getMetaData();
+			int columns = rsmd.getColumnCount();
+			ColumnFetcher[] fetchers = new ColumnFetcher[columns];
+			for(int i=1; i<=columns; i++)
+				fetchers[i-1] = ColumnFetcher.forType(rsmd.getColumnType(i));
+			if(headers){
+				String[] labels = new String[columns];
+				for(int i=1; i<=columns; i++)
+					labels[i-1] = rsmd.getColumnLabel(i);
+				StringBuilder headerRow = new StringBuilder();
+				ResultSetCSVWriter.appendRow(labels, headerRow);
+				pending.put(CompletableFuture.completedFuture(headerRow));
+			}
+			Future<Long> written = writerThread.submit(() -> writeInOrder(pending, writer));
+			long rows = 0;
+			boolean more = true;
+			while(more){
+				Object[][] batch = new Object[batchRows][];
+				int count = 0;
+				while(count < batchRows && (more = rs.next())){
+					Object[] row = new Object[columns];
+					for(int i=0; i<columns; i++)
+						row[i] = fetchers[i].fetch(rs, i+1);
+					batch[count++] = row;
+				}
+				if(count == 0)
+					break;
+				rows += count;
+				final int batchCount = count;
+				if(!enqueue(pending, encoders.submit(() -> encode(batch, batchCount)), written))
+					break;
+			}
+			enqueue(pending, END, written);
+			ConcurrencyUtils.await(written, SQLException.class);
+			return rows;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while exporting.");
+		}finally{
+			encoders.shutdownNow();
+			writerThread.shutdownNow();
+			ConcurrencyUtils.awaitTermination(encoders);
+			ConcurrencyUtils.awaitTermination(writerThread);
+			rs.close();
+		}
+	}
+	
+	/**
+	 * Hands a batch to the writer, waiting for room in the queue. Gives up if the writer has stopped, since nothing will ever make room.
+	 * @return False if the writer stopped.
+	 */
+	private static boolean enqueue(BlockingQueue<Future<StringBuilder>> pending, Future<StringBuilder> batch, Future<Long> written) throws InterruptedException{
+		while(!pending.offer(batch, 100, TimeUnit.MILLISECONDS)){
+			if(written.isDone())
+				return false;
+		}
+		return true;
+	}
+	private static StringBuilder encode(Object[][] batch, int count){
+		StringBuilder buffer = new StringBuilder(count*128);
+		for(int r=0; r<count; r++){
+			Object[] row = batch[r];
+			for(int i=0; i<row.length; i++){
+				if(i>0)
+					buffer.append(',');
+				buffer.append('"');
+				if(row[i] != null)
+					ColumnEncoder.appendEscaped(row[i].toString(), buffer);
+				buffer.append('"');
+			}
+			buffer.append('\n');
+		}
+		return buffer;
+	}
+	private static long writeInOrder(BlockingQueue<Future<StringBuilder>> pending, Writer writer) throws Exception{
+		char[] transfer = new char[0];
+		long batches = 0;
+		while(true){
+			Future<StringBuilder> next = pending.take();
+			if(next == END)
+				break;
+			StringBuilder batch = next.get();
+			int length = batch.length();
+			if(transfer.length < length)
+				transfer = new char[length];
+			batch.getChars(0, length, transfer, 0);
+			writer.write(transfer, 0, length);
+			batches++;
+		}
+		writer.flush();
+		return batches;
+	}
+}
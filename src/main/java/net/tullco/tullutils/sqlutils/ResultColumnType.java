@@ -0,0 +1,77 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.sql.Types;
+
+/**
+ * The ways a result set column can be read, each with the encoder that writes it straight to CSV and the fetcher that
+ * pulls it out to be written later. Keeping both together means the SQL types are only mapped in one place,
+ * so the serial and pipelined exports can't drift apart.
+ * @author Tull Gearreald
+ */
+enum ResultColumnType {
+	INT(ColumnEncoder::encodeInt, ColumnFetcher::fetchInt),
+	LONG(ColumnEncoder::encodeLong, ColumnFetcher::fetchLong),
+	DOUBLE(ColumnEncoder::encodeDouble, ColumnFetcher::fetchDouble),
+	STRING(ColumnEncoder::encodeString, ColumnFetcher::fetchString),
+	BOOLEAN(ColumnEncoder::encodeBoolean, ColumnFetcher::fetchBoolean),
+	DATE(ColumnEncoder::encodeDate, ColumnFetcher::fetchDate),
+	TIME(ColumnEncoder::encodeTime, ColumnFetcher::fetchTime),
+	TIMESTAMP(ColumnEncoder::encodeTimestamp, ColumnFetcher::fetchTimestamp),
+	OBJECT(ColumnEncoder::encodeObject, ColumnFetcher::fetchObject);
+
+	private final ColumnEncoder encoder;
+	private final ColumnFetcher fetcher;
+
+	private ResultColumnType(ColumnEncoder encoder, ColumnFetcher fetcher){
+		this.encoder = encoder;
+		this.fetcher = fetcher;
+	}
+	ColumnEncoder getEncoder(){
+		return encoder;
+	}
+	ColumnFetcher getFetcher(){
+		return fetcher;
+	}
+
+	/**
+	 * Gets how a column of the given SQL type from java.sql.Types is read.
+	 * @param sqlType The SQL type of the column.
+	 * @return The column type.
+	 */
+	static ResultColumnType forSqlType(int sqlType){
+		switch(sqlType){
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return INT;
+			case Types.BIGINT:
+				return LONG;
+			case Types.DOUBLE:
+			case Types.FLOAT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+				return DOUBLE;
+			case Types.VARCHAR:
+			case Types.BLOB:
+			case Types.LONGNVARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CHAR:
+			case Types.SQLXML:
+				return STRING;
+			case Types.BOOLEAN:
+			case Types.BIT:
+				return BOOLEAN;
+			case Types.DATE:
+				return DATE;
+			case Types.TIME:
+			case Types.TIME_WITH_TIMEZONE:
+				return TIME;
+			case Types.TIMESTAMP:
+			case Types.TIMESTAMP_WITH_TIMEZONE:
+				return TIMESTAMP;
+			default:
+				return OBJECT;
+		}
+	}
+}
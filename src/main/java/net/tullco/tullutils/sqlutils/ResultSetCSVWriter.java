@@ -0,0 +1,159 @@
+package net.tullco.tullutils.sqlutils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes result sets to CSV without going through a String per cell.
+ * The column encoders are resolved once from the metadata, rows are built in a single reusable buffer,
+ * and the buffer is only handed to the underlying writer once it gets large.
+ * 
+ * The output is the same as what a default OpenCSV CSVWriter produces: every field quoted, quotes doubled,
+ * and rows ended with a newline. Nulls are written as empty quoted fields.
+ * @author Tull Gearreald
+ */
+public class ResultSetCSVWriter implements Closeable, Flushable {
+	
+	private static final int FLUSH_THRESHOLD = 1024*1024;
+	
+	private final Writer writer;
+	private final StringBuilder buffer;
+	private char[] transferBuffer;
+	
+	/**
+	 * Creates a result set writer that writes to the given writer.
+	 * @param writer The writer to output CSV to. It will be closed when this object is closed.
+	 */
+	public ResultSetCSVWriter(Writer writer){
+		this.writer = writer;
+		this.buffer = new StringBuilder(FLUSH_THRESHOLD + 64*1024);
+		this.transferBuffer = new char[this.buffer.capacity()];
+	}
+	
+	/**
+	 * Writes a header row containing the column labels of the metadata.
+	 * @param rsmd The metadata to take the column labels from.
+	 * @throws SQLException If the labels could not be read.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeHeaders(ResultSetMetaData rsmd) throws SQLException, IOException {
+		int columnCount = rsmd.getColumnCount();
+		String[] headers = new String[columnCount];
+		for(int i=1; i<=columnCount; i++)
+			headers[i-1] = rsmd.getColumnLabel(i);
+		writeRow(headers);
+	}
+	
+	/**
+	 * Writes a row of strings. Null values are written as empty unquoted fields, the same way OpenCSV writes them.
+	 * @param row The values to write.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeRow(String[] row) throws IOException {
+		appendRow(row, buffer);
+		flushIfFull();
+	}
+	/**
+	 * Appends a row of strings to the buffer in the same format writeRow() uses.
+	 * @param row The values to write.
+	 * @param buffer The buffer to append the row to.
+	 */
+	public static void appendRow(String[] row, StringBuilder buffer) {
+		for(int i=0; i<row.length; i++){
+			if(i>0)
+				buffer.append(',');
+			if(row[i]==null)
+				continue;
+			buffer.append('"');
+			ColumnEncoder.appendEscaped(row[i], buffer);
+			buffer.append('"');
+		}
+		buffer.append('\n');
+	}
+	
+	/**
+	 * Writes every remaining row of the result set, then closes it.
+	 * @param rs The result set to write.
+	 * @return The number of rows written.
+	 * @throws SQLException If there was a problem reading the results.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public long writeResultSet(ResultSet rs) throws SQLException, IOException {
+		try{
+			ColumnEncoder[] encoders = getEncoders(rs.getMetaData());
+			long rows = 0;
+			while(rs.next()){
+				writeCurrentRow(rs, encoders);
+				rows++;
+			}
+			return rows;
+		}finally{
+			rs.close();
+		}
+	}
+	
+	/**
+	 * Writes only the row the result set is currently positioned on. Use this when you need to look at the row yourself as well.
+	 * @param rs The result set, positioned on a row.
+	 * @param encoders The encoders for the result set, from getEncoders().
+	 * @throws SQLException If there was a problem reading the row.
+	 * @throws IOException If there was a problem writing.
+	 */
+	public void writeCurrentRow(ResultSet rs, ColumnEncoder[] encoders) throws SQLException, IOException {
+		for(int i=0; i<encoders.length; i++){
+			if(i>0)
+				buffer.append(',');
+			buffer.append('"');
+			encoders[i].encode(rs, i+1, buffer);
+			buffer.append('"');
+		}
+		buffer.append('\n');
+		flushIfFull();
+	}
+	
+	/**
+	 * Resolves the encoder for every column in the metadata.
+	 * @param rsmd The metadata of the result set.
+	 * @return An array with the encoder for column i at index i-1.
+	 * @throws SQLException If the column types could not be read.
+	 */
+	public static ColumnEncoder[] getEncoders(ResultSetMetaData rsmd) throws SQLException {
+		ColumnEncoder[] encoders = new ColumnEncoder[rsmd.getColumnCount()];
+		for(int i=1; i<=encoders.length; i++)
+			encoders[i-1] = ColumnEncoder.forType(rsmd.getColumnType(i));
+		return encoders;
+	}
+	
+	private void flushIfFull() throws IOException {
+		if(buffer.length() >= FLUSH_THRESHOLD)
+			flushBuffer();
+	}
+	private void flushBuffer() throws IOException {
+		int length = buffer.length();
+		if(length == 0)
+			return;
+		if(transferBuffer.length < length)
+			transferBuffer = new char[length];
+		buffer.getChars(0, length, transferBuffer, 0);
+		writer.write(transferBuffer, 0, length);
+		buffer.setLength(0);
+	}
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		writer.flush();
+	}
+	@Override
+	public void close() throws IOException {
+		try{
+			flushBuffer();
+		}finally{
+			writer.close();
+		}
+	}
+}
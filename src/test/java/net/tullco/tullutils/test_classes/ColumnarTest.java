@@ -0,0 +1,133 @@
+package net.tullco.tullutils.test_classes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.tullco.tullutils.columnarutils.ColumnType;
+import net.tullco.tullutils.columnarutils.ColumnarReader;
+import net.tullco.tullutils.columnarutils.ColumnarWriter;
+
+public class ColumnarTest {
+
+	private static final String[] NAMES = {"id","name","score","active"};
+	private static final ColumnType[] TYPES = {ColumnType.LONG, ColumnType.STRING, ColumnType.DOUBLE, ColumnType.BOOLEAN};
+	
+	private File writeTestFile(boolean compress) throws IOException {
+		File f = File.createTempFile("tullfile_test", ".col");
+		f.deleteOnExit();
+		try(ColumnarWriter writer = new ColumnarWriter(f, NAMES, TYPES, compress, 100)){
+			for(int i=0; i<250; i++){
+				String name = i%10==0 ? null : "name"+(i%3);
+				writer.writeRow((long) i - 50, name, i*0.1, i%2==0);
+			}
+		}
+		return f;
+	}
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		for(boolean compress: new boolean[]{false, true}){
+			File f = writeTestFile(compress);
+			try(ColumnarReader reader = new ColumnarReader(f)){
+				assertArrayEquals(NAMES, reader.getColumnNames());
+				assertEquals(250, reader.getRowCount());
+				assertEquals(3, reader.getBlockCount());
+				List<Object[]> rows = new ArrayList<Object[]>();
+				reader.forEachRow(null, row -> rows.add(row.clone()));
+				assertEquals(250, rows.size());
+				assertArrayEquals(new Object[]{-50L, null, 0.0, true}, rows.get(0));
+				assertArrayEquals(new Object[]{-49L, "name1", 0.1, false}, rows.get(1));
+				assertArrayEquals(new Object[]{199L, "name0", 24.900000000000002, false}, rows.get(249));
+			}
+		}
+	}
+	
+	@Test
+	public void testProjection() throws IOException {
+		File f = writeTestFile(true);
+		try(ColumnarReader reader = new ColumnarReader(f)){
+			Object[][] block = reader.readBlock(1, "active", "id");
+			assertEquals(2, block.length);
+			assertEquals(100, block[0].length);
+			assertEquals(true, block[0][0]);
+			assertEquals(50L, block[1][0]);
+		}
+	}
+	
+	@Test
+	public void testBlockStatistics() throws IOException {
+		File f = writeTestFile(false);
+		try(ColumnarReader reader = new ColumnarReader(f)){
+			assertEquals(-50L, reader.getBlockStatistics(0).getMin("id"));
+			assertEquals(49L, reader.getBlockStatistics(0).getMax("id"));
+			assertEquals(10, reader.getBlockStatistics(0).getNullCount("name"));
+			assertEquals("name0", reader.getBlockStatistics(2).getMin("name"));
+			List<Object> ids = new ArrayList<Object>();
+			long rowsRead = reader.forEachRow(stats -> stats.mightContain("id", 120L, 130L), row -> ids.add(row[0]), "id");
+			assertEquals(100, rowsRead);
+			assertEquals(50L, ids.get(0));
+		}
+	}
+	
+	@Test
+	public void testNaNStatistics() throws IOException {
+		File f = File.createTempFile("tullfile_test", ".col");
+		f.deleteOnExit();
+		try(ColumnarWriter writer = new ColumnarWriter(f, new String[]{"score"}, new ColumnType[]{ColumnType.DOUBLE}, false, 3)){
+			writer.writeRow(5.0);
+			writer.writeRow(Double.NaN);
+			writer.writeRow(3.0);
+			writer.writeRow(Double.NaN);
+			writer.writeRow(Double.NaN);
+			writer.writeRow((Object) null);
+		}
+		try(ColumnarReader reader = new ColumnarReader(f)){
+			assertEquals(3.0, reader.getBlockStatistics(0).getMin("score"));
+			assertEquals(5.0, reader.getBlockStatistics(0).getMax("score"));
+			assertTrue(reader.getBlockStatistics(0).mightContain("score", 4.0, 6.0));
+			assertFalse(reader.getBlockStatistics(0).mightContain("score", 6.0, null));
+			assertNull(reader.getBlockStatistics(1).getMin("score"));
+			assertFalse(reader.getBlockStatistics(1).mightContain("score", null, null));
+			List<Object> scores = new ArrayList<Object>();
+			reader.forEachRow(stats -> stats.mightContain("score", 4.0, 6.0), row -> scores.add(row[0]), "score");
+			assertEquals(3, scores.size());
+			assertTrue(Double.isNaN((Double) scores.get(1)));
+		}
+	}
+	@Test
+	public void testDecimalStatistics() throws IOException {
+		File f = File.createTempFile("tullfile_test", ".col");
+		f.deleteOnExit();
+		try(ColumnarWriter writer = new ColumnarWriter(f, new String[]{"amount"}, new ColumnType[]{ColumnType.DECIMAL}, false, 2)){
+			writer.writeRow(new BigDecimal("9"));
+			writer.writeRow(new BigDecimal("10"));
+			writer.writeRow(new BigDecimal("99.75"));
+			writer.writeRow("100");
+			writer.writeRow((Object) null);
+			writer.writeRow(new BigDecimal("1E+3"));
+		}
+		BigDecimal low = new BigDecimal("9.5");
+		BigDecimal high = new BigDecimal("10.5");
+		try(ColumnarReader reader = new ColumnarReader(f)){
+			assertEquals(new BigDecimal("9"), reader.getBlockStatistics(0).getMin("amount"));
+			assertEquals(new BigDecimal("10"), reader.getBlockStatistics(0).getMax("amount"));
+			assertEquals(new BigDecimal("99.75"), reader.getBlockStatistics(1).getMin("amount"));
+			assertEquals(new BigDecimal("100"), reader.getBlockStatistics(1).getMax("amount"));
+			assertEquals(new BigDecimal("1000"), reader.getBlockStatistics(2).getMax("amount"));
+			assertTrue(reader.getBlockStatistics(0).mightContain("amount", low, high));
+			assertFalse(reader.getBlockStatistics(1).mightContain("amount", low, high));
+			assertTrue(reader.getBlockStatistics(1).mightContain("amount", new BigDecimal("99.9"), null));
+			List<Object> amounts = new ArrayList<Object>();
+			reader.forEachRow(stats -> stats.mightContain("amount", low, high), row -> amounts.add(row[0]), "amount");
+			assertEquals(Arrays.asList(new BigDecimal("9"), new BigDecimal("10")), amounts);
+		}
+	}
+}
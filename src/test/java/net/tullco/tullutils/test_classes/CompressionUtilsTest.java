@@ -0,0 +1,391 @@
+package net.tullco.tullutils.test_classes;
+
+import static org.junit.Assert.*;
+import static net.tullco.tullutils.test_utils.TestStreams.readAll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import net.tullco.tullutils.CompressionUtils;
+import net.tullco.tullutils.FileUtils;
+import net.tullco.tullutils.compressionutils.AdaptiveGzipOutputStream;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.compressionutils.CompressionObjective;
+import net.tullco.tullutils.compressionutils.LevelProfile;
+import net.tullco.tullutils.compressionutils.ParallelGzipOutputStream;
+import net.tullco.tullutils.compressionutils.PipelinedGzipInputStream;
+
+public class CompressionUtilsTest {
+
+	@Test
+	public void testZipDirectoryParallel() throws IOException {
+		File directory = Files.createTempDirectory("tullcompression_test").toFile();
+		Map<String,byte[]> contents = sampleFiles();
+		writeFiles(directory, contents);
+		File zip1 = File.createTempFile("tullcompression_test", ".zip");
+		File zip4 = File.createTempFile("tullcompression_test", ".zip");
+		try{
+			CompressionUtils.zipDirectoryParallel(directory, zip1, 1);
+			CompressionUtils.zipDirectoryParallel(directory, zip4, 4);
+			assertEquals(-1, FileUtils.firstDifference(zip1, zip4));
+			
+			try(ZipFile zip = new ZipFile(zip4)){
+				assertEquals(contents.size(), zip.size());
+				for(Map.Entry<String,byte[]> expected: contents.entrySet()){
+					ZipEntry entry = zip.getEntry(expected.getKey());
+					assertNotNull(expected.getKey(), entry);
+					try(InputStream in = zip.getInputStream(entry)){
+						assertArrayEquals(expected.getValue(), readAll(in));
+					}
+				}
+				assertEquals(ZipEntry.STORED, zip.getEntry("random.bin").getMethod());
+				assertEquals(ZipEntry.DEFLATED, zip.getEntry("nested/deeper/big.csv").getMethod());
+			}
+			int entries = 0;
+			try(ZipInputStream in = new ZipInputStream(Files.newInputStream(zip4.toPath()))){
+				ZipEntry entry;
+				while((entry = in.getNextEntry()) != null){
+					assertArrayEquals(contents.get(entry.getName()), readAll(in));
+					entries++;
+				}
+			}
+			assertEquals(contents.size(), entries);
+		}finally{
+			zip1.delete();
+			zip4.delete();
+			deleteRecursively(directory);
+		}
+	}
+	
+	@Test
+	public void testParallelGzip() throws IOException {
+		byte[] compressible = sampleFiles().get("nested/deeper/big.csv");
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		try(GZIPOutputStream out = new GZIPOutputStream(single)){
+			out.write(compressible);
+		}
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		try(ParallelGzipOutputStream out = new ParallelGzipOutputStream(parallel, 4, Deflater.DEFAULT_COMPRESSION, 64*1024)){
+			out.write(compressible, 0, 1000);
+			out.flush();
+			out.write(compressible[1000]);
+			out.write(compressible, 1001, compressible.length-1001);
+		}
+		assertArrayEquals(compressible, readAll(new GZIPInputStream(new ByteArrayInputStream(parallel.toByteArray()))));
+		assertArrayEquals(compressible, readAll(new PipelinedGzipInputStream(new ByteArrayInputStream(parallel.toByteArray()))));
+		assertTrue(parallel.size() < single.size() * 1.05);
+		
+		ByteArrayOutputStream empty = new ByteArrayOutputStream();
+		new ParallelGzipOutputStream(empty, 2).close();
+		assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(empty.toByteArray()))).length);
+		
+		ByteArrayOutputStream twoMembers = new ByteArrayOutputStream();
+		twoMembers.write(parallel.toByteArray());
+		twoMembers.write(single.toByteArray());
+		try(PipelinedGzipInputStream in = new PipelinedGzipInputStream(new ByteArrayInputStream(twoMembers.toByteArray()))){
+			assertEquals(compressible.length*2, readAll(in).length);
+		}
+		
+		byte[] corrupt = parallel.toByteArray();
+		corrupt[corrupt.length-6]++;
+		try(PipelinedGzipInputStream in = new PipelinedGzipInputStream(new ByteArrayInputStream(corrupt))){
+			readAll(in);
+			fail("A bad CRC should fail the read.");
+		}catch(IOException e){
+			assertNotNull(e.getMessage());
+		}
+	}
+	@Test
+	public void testGzipFile() throws IOException {
+		File origin = File.createTempFile("tullcompression_test", ".csv");
+		File gzip = File.createTempFile("tullcompression_test", ".csv.gz");
+		File restored = File.createTempFile("tullcompression_test", ".csv");
+		try{
+			FileUtils.writeBytesToFile(sampleFiles().get("nested/deeper/big.csv"), origin);
+			CompressionUtils.gzipFile(origin, gzip, 3);
+			assertTrue(gzip.length() < origin.length());
+			CompressionUtils.gunzipFile(gzip, restored);
+			assertTrue(FileUtils.filesEqual(origin, restored));
+		}finally{
+			origin.delete();
+			gzip.delete();
+			restored.delete();
+		}
+	}
+	@Test
+	public void testUnzipFileFiltered() throws IOException {
+		File directory = Files.createTempDirectory("tullcompression_test").toFile();
+		File destination = Files.createTempDirectory("tullcompression_test").toFile();
+		File zip = File.createTempFile("tullcompression_test", ".zip");
+		Map<String,byte[]> contents = sampleFiles();
+		try{
+			writeFiles(directory, contents);
+			CompressionUtils.zipDirectoryParallel(directory, zip, 2);
+			
+			List<File> extracted = CompressionUtils.unzipFile(zip, destination, "nested/**", 3);
+			assertEquals(3, extracted.size());
+			for(String name: Arrays.asList("nested/deeper/big.csv", "nested/deeper/notes.txt", "nested/small.txt"))
+				assertArrayEquals(contents.get(name), FileUtils.getFileAsBytes(new File(destination, name)));
+			assertFalse(new File(destination, "random.bin").exists());
+			
+			extracted = CompressionUtils.unzipFile(zip, destination, "*.bin", 3);
+			assertEquals(Arrays.asList(new File(destination, "random.bin").getCanonicalFile()), extracted);
+			assertArrayEquals(contents.get("random.bin"), FileUtils.getFileAsBytes(extracted.get(0)));
+			
+			deleteRecursively(destination);
+			CompressionUtils.unzipFile(zip, destination);
+			for(Map.Entry<String,byte[]> expected: contents.entrySet())
+				assertArrayEquals(expected.getValue(), FileUtils.getFileAsBytes(new File(destination, expected.getKey())));
+		}finally{
+			zip.delete();
+			deleteRecursively(directory);
+			deleteRecursively(destination);
+		}
+	}
+	@Test
+	public void testUnzipRejectsEscapingEntries() throws IOException {
+		File parent = Files.createTempDirectory("tullcompression_test").toFile();
+		File destination = new File(parent, "destination");
+		File zip = File.createTempFile("tullcompression_test", ".zip");
+		try{
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))){
+				out.putNextEntry(new ZipEntry("fine.txt"));
+				out.write(1);
+				out.putNextEntry(new ZipEntry("nested/../../evil.txt"));
+				out.write(2);
+			}
+			try{
+				CompressionUtils.unzipFile(zip, destination, null, 2);
+				fail("An entry outside of the destination should be refused.");
+			}catch(IOException e){
+				assertFalse(new File(destination, "fine.txt").exists());
+			}
+			try{
+				CompressionUtils.unzipFile(zip, destination);
+				fail("An entry outside of the destination should be refused.");
+			}catch(IOException e){
+				assertTrue(new File(destination, "fine.txt").exists());
+			}
+			assertFalse(new File(parent, "evil.txt").exists());
+		}finally{
+			zip.delete();
+			deleteRecursively(parent);
+		}
+	}
+	@Test
+	public void testUnzipFailureRemovesPartialFiles() throws IOException {
+		File destination = Files.createTempDirectory("tullcompression_test").toFile();
+		File zip = File.createTempFile("tullcompression_test", ".zip");
+		Map<String,byte[]> contents = sampleFiles();
+		try{
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))){
+				for(Map.Entry<String,byte[]> file: contents.entrySet()){
+					out.putNextEntry(new ZipEntry(file.getKey()));
+					out.write(file.getValue());
+				}
+				out.putNextEntry(new ZipEntry("blocked"));
+				out.write(3);
+			}
+			File blocker = new File(destination, "blocked");
+			assertTrue(new File(blocker, "keep.txt").mkdirs());
+			try{
+				CompressionUtils.unzipFile(zip, destination, null, 3);
+				fail("An entry that can't be written should fail the extraction.");
+			}catch(IOException e){
+				for(String name: contents.keySet())
+					assertFalse(new File(destination, name).exists());
+				assertTrue(new File(blocker, "keep.txt").isDirectory());
+			}
+		}finally{
+			zip.delete();
+			deleteRecursively(destination);
+		}
+	}
+	@Test
+	public void testCompressionCodecs() throws IOException {
+		Map<String,byte[]> samples = sampleFiles();
+		samples.put("zeros", new byte[200000]);
+		samples.put("tiny", "abc".getBytes(StandardCharsets.UTF_8));
+		for(CompressionCodec codec: Arrays.asList(CompressionCodec.deflate(1), CompressionCodec.deflate(9), CompressionCodec.gzip(), CompressionCodec.lz())){
+			for(Map.Entry<String,byte[]> sample: samples.entrySet()){
+				byte[] data = sample.getValue();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try(OutputStream out = codec.compress(compressed)){
+					int half = data.length/2;
+					out.write(data, 0, half);
+					out.flush();
+					if(half < data.length)
+						out.write(data[half]);
+					out.write(data, Math.min(data.length, half+1), Math.max(0, data.length-half-1));
+				}
+				String message = sample.getKey() + codec.getFileExtension();
+				assertArrayEquals(message, data, readAll(codec.decompress(new ByteArrayInputStream(compressed.toByteArray()))));
+				
+				ByteArrayOutputStream fromChannel = new ByteArrayOutputStream();
+				try(WritableByteChannel channel = codec.compress(Channels.newChannel(fromChannel))){
+					channel.write(ByteBuffer.wrap(data));
+				}
+				ReadableByteChannel channel = codec.decompress(Channels.newChannel(new ByteArrayInputStream(fromChannel.toByteArray())));
+				assertArrayEquals(message, data, readAll(Channels.newInputStream(channel)));
+			}
+		}
+		byte[] csv = samples.get("nested/deeper/big.csv");
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try(OutputStream out = CompressionCodec.gzip().compress(gzipped)){
+			out.write(csv);
+		}
+		assertArrayEquals(csv, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))));
+		
+		ByteArrayOutputStream lz = new ByteArrayOutputStream();
+		try(OutputStream out = CompressionCodec.lz().compress(lz)){
+			out.write(csv);
+		}
+		assertTrue(lz.size() < csv.length * 0.6);
+		byte[] corrupt = lz.toByteArray();
+		corrupt[corrupt.length/2] ^= 0x10;
+		try{
+			readAll(CompressionCodec.lz().decompress(new ByteArrayInputStream(corrupt)));
+			fail("Corrupt data should fail the read.");
+		}catch(IOException e){
+			assertNotNull(e.getMessage());
+		}
+	}
+	@Test
+	public void testCompressFile() throws IOException {
+		File origin = File.createTempFile("tullcompression_test", ".csv");
+		File compressed = File.createTempFile("tullcompression_test", ".csv.tlz");
+		File restored = File.createTempFile("tullcompression_test", ".csv");
+		try{
+			FileUtils.writeBytesToFile(sampleFiles().get("nested/deeper/big.csv"), origin);
+			CompressionUtils.compressFile(origin, compressed, CompressionCodec.lz());
+			assertTrue(compressed.length() < origin.length());
+			CompressionUtils.decompressFile(compressed, restored, CompressionCodec.lz());
+			assertTrue(FileUtils.filesEqual(origin, restored));
+		}finally{
+			origin.delete();
+			compressed.delete();
+			restored.delete();
+		}
+	}
+	@Test
+	public void testAdaptiveGzip() throws IOException {
+		byte[] csv = sampleFiles().get("nested/deeper/big.csv");
+		LevelProfile fast = LevelProfile.measure(csv, AdaptiveGzipOutputStream.SAMPLE_SIZE, 1);
+		LevelProfile small = LevelProfile.measure(csv, AdaptiveGzipOutputStream.SAMPLE_SIZE, 9);
+		assertTrue(small.getRatio() < fast.getRatio());
+		assertEquals(AdaptiveGzipOutputStream.SAMPLE_SIZE, fast.getInputBytes());
+		assertTrue(fast.getBytesPerSecond() > 0);
+		
+		for(CompressionObjective objective: Arrays.asList(CompressionObjective.smallest(), CompressionObjective.minimumTime(1024),
+				CompressionObjective.minimumTime(Double.POSITIVE_INFINITY), CompressionObjective.smallestAtLeast(1))){
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			AdaptiveGzipOutputStream out = new AdaptiveGzipOutputStream(gzipped, objective);
+			out.write(csv, 0, 1000);
+			try{
+				out.getChosenLevel();
+				fail("The level shouldn't be picked before the sample is full.");
+			}catch(IllegalStateException e){
+				assertTrue(out.getProfiles().isEmpty());
+			}
+			out.write(csv, 1000, csv.length-1000);
+			out.close();
+			assertArrayEquals(csv, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))));
+			assertEquals(csv.length, out.getBytesIn());
+			assertEquals(gzipped.size(), out.getBytesOut());
+			assertEquals(AdaptiveGzipOutputStream.DEFAULT_LEVELS.length, out.getProfiles().size());
+			for(LevelProfile profile: out.getProfiles())
+				assertTrue(objective.cost(out.getChosenProfile()) <= objective.cost(profile));
+			assertEquals(out.getChosenProfile().getLevel(), out.getChosenLevel());
+		}
+		
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		AdaptiveGzipOutputStream out = new AdaptiveGzipOutputStream(gzipped, CompressionObjective.smallest(), 1, 9);
+		out.write(csv, 0, 5000);
+		out.close();
+		assertEquals(9, out.getChosenLevel());
+		assertArrayEquals(Arrays.copyOf(csv, 5000), readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))));
+		
+		gzipped = new ByteArrayOutputStream();
+		out = new AdaptiveGzipOutputStream(gzipped, CompressionObjective.smallest());
+		out.close();
+		assertNull(out.getChosenProfile());
+		assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))).length);
+		
+		for(int[] levels: new int[][]{{}, {1, 10}, {-1}, {0, 9, 12}}){
+			try{
+				new AdaptiveGzipOutputStream(new ByteArrayOutputStream(), CompressionObjective.smallest(), levels);
+				fail("The levels " + Arrays.toString(levels) + " should be refused.");
+			}catch(IllegalArgumentException e){}
+		}
+		new AdaptiveGzipOutputStream(new ByteArrayOutputStream(), CompressionObjective.smallest(), 0, 9).close();
+	}
+	@Test
+	public void testGzipFileAdaptive() throws IOException {
+		File origin = File.createTempFile("tullcompression_test", ".csv");
+		File gzip = File.createTempFile("tullcompression_test", ".csv.gz");
+		try{
+			FileUtils.writeBytesToFile(sampleFiles().get("nested/deeper/big.csv"), origin);
+			LevelProfile chosen = CompressionUtils.gzipFileAdaptive(origin, gzip, CompressionObjective.minimumTime(100*1024*1024));
+			assertNotNull(chosen);
+			try(InputStream in = new GZIPInputStream(new FileInputStream(gzip))){
+				assertArrayEquals(FileUtils.getFileAsBytes(origin), readAll(in));
+			}
+		}finally{
+			origin.delete();
+			gzip.delete();
+		}
+	}
+	private static Map<String,byte[]> sampleFiles(){
+		Map<String,byte[]> contents = new LinkedHashMap<String,byte[]>();
+		StringBuilder csv = new StringBuilder();
+		for(int i=0; csv.length() < 6*1024*1024; i++)
+			csv.append(i).append(",name").append(i%97).append(",").append(i*31%1000).append("\n");
+		contents.put("nested/deeper/big.csv", csv.toString().getBytes(StandardCharsets.UTF_8));
+		byte[] random = new byte[100000];
+		new Random(42).nextBytes(random);
+		contents.put("random.bin", random);
+		contents.put("empty.txt", new byte[0]);
+		contents.put("nested/small.txt", "I love my wife dearly. <3".getBytes(StandardCharsets.UTF_8));
+		contents.put("nested/deeper/notes.txt", "more notes".getBytes(StandardCharsets.UTF_8));
+		return contents;
+	}
+	private static void writeFiles(File directory, Map<String,byte[]> contents) throws IOException{
+		for(Map.Entry<String,byte[]> file: contents.entrySet()){
+			File f = new File(directory, file.getKey());
+			f.getParentFile().mkdirs();
+			FileUtils.writeBytesToFile(file.getValue(), f);
+		}
+	}
+	private static void deleteRecursively(File directory) throws IOException{
+		try(Stream<File> files = Files.walk(directory.toPath()).sorted(Comparator.reverseOrder()).map(p -> p.toFile())){
+			files.forEach(File::delete);
+		}
+	}
+}
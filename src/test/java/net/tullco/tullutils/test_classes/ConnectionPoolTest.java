@@ -0,0 +1,192 @@
+package net.tullco.tullutils.test_classes;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.tullco.tullutils.sqlutils.ConnectionPool;
+import net.tullco.tullutils.test_utils.StubJDBC;
+import net.tullco.tullutils.test_utils.StubJDBC.StubConnection;
+
+public class ConnectionPoolTest {
+
+	private List<StubConnection> opened;
+
+	@Before
+	public void setUp(){
+		opened = new ArrayList<StubConnection>();
+	}
+	private ConnectionPool pool(int minSize, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis, int statementCacheSize){
+		return new ConnectionPool(() -> {
+			StubConnection connection = new StubConnection(() -> StubJDBC.resultSet(new String[]{"a"}, new int[]{Types.INTEGER}, new Object[][]{{1}}).get());
+			synchronized(opened){
+				opened.add(connection);
+			}
+			return connection.get();
+		}, minSize, maxSize, idleTimeoutMillis, borrowTimeoutMillis, statementCacheSize);
+	}
+
+	@Test
+	public void borrowAndReturnTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 2, 60000, 1000, 4)){
+			Connection first = pool.getConnection();
+			assertEquals(1, pool.getOpenConnections());
+			assertEquals(0, pool.getIdleConnections());
+			first.close();
+			first.close();
+			assertTrue(first.isClosed());
+			assertEquals(1, pool.getOpenConnections());
+			assertEquals(1, pool.getIdleConnections());
+			try{
+				first.createStatement();
+				fail("A returned connection should not be usable.");
+			}catch(SQLException e){}
+			Connection second = pool.getConnection();
+			Connection third = pool.getConnection();
+			assertEquals(2, opened.size());
+			assertFalse(opened.get(0).isClosed());
+			assertFalse(second.isClosed());
+			assertTrue(first.isClosed());
+			second.close();
+			third.close();
+			assertEquals(2, pool.getIdleConnections());
+		}
+		assertTrue(opened.get(0).isClosed());
+		assertTrue(opened.get(1).isClosed());
+	}
+	@Test
+	public void returnRollsBackTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 1000, 4)){
+			Connection connection = pool.getConnection();
+			connection.setAutoCommit(false);
+			connection.close();
+			assertEquals(1, opened.get(0).getRollbacks());
+			assertTrue(pool.getConnection().getAutoCommit());
+		}
+	}
+	@Test
+	public void borrowTimeoutTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 100, 4)){
+			Connection connection = pool.getConnection();
+			long start = System.currentTimeMillis();
+			try{
+				pool.getConnection();
+				fail("The second borrow should have timed out.");
+			}catch(SQLException e){
+				assertTrue(System.currentTimeMillis() - start >= 90);
+			}
+			connection.close();
+			pool.getConnection().close();
+			assertEquals(1, opened.size());
+		}
+	}
+	@Test
+	public void evictionTest() throws SQLException, InterruptedException {
+		try(ConnectionPool pool = pool(0, 2, 20, 1000, 4)){
+			pool.getConnection().close();
+			Thread.sleep(50);
+			pool.getConnection().close();
+			assertEquals(2, opened.size());
+			assertTrue(opened.get(0).isClosed());
+			assertEquals(1, pool.getOpenConnections());
+		}
+		try(ConnectionPool pool = pool(1, 2, 20, 1000, 4)){
+			pool.getConnection().close();
+			Thread.sleep(50);
+			pool.getConnection().close();
+			assertEquals(3, opened.size());
+			assertFalse(opened.get(2).isClosed());
+		}
+	}
+	@Test
+	public void invalidConnectionTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 1000, 4)){
+			pool.getConnection().close();
+			opened.get(0).setValid(false);
+			pool.getConnection().close();
+			assertEquals(2, opened.size());
+			assertTrue(opened.get(0).isClosed());
+			assertEquals(1, pool.getOpenConnections());
+		}
+	}
+	@Test
+	public void statementCacheTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 1000, 1)){
+			try(Connection connection = pool.getConnection()){
+				PreparedStatement first = connection.prepareStatement("SELECT 1");
+				PreparedStatement concurrent = connection.prepareStatement("SELECT 1");
+				assertEquals(2, opened.get(0).getPrepared());
+				concurrent.close();
+				first.close();
+				first.close();
+				assertTrue(first.isClosed());
+				PreparedStatement again = connection.prepareStatement("SELECT 1");
+				assertEquals(2, opened.get(0).getPrepared());
+				assertFalse(again.isClosed());
+				assertSame(connection, again.getConnection());
+				again.executeQuery().close();
+				try{
+					first.executeQuery();
+					fail("A closed statement should not be usable.");
+				}catch(SQLException e){}
+				again.close();
+				connection.prepareStatement("SELECT 2").close();
+				assertEquals(3, opened.get(0).getPrepared());
+				assertEquals(1, opened.get(0).getOpenStatements());
+				connection.prepareStatement("SELECT 1").close();
+				assertEquals(4, opened.get(0).getPrepared());
+			}
+		}
+		assertEquals(0, opened.get(0).getOpenStatements());
+	}
+	@Test
+	public void unclosedStatementsTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 1000, 4)){
+			Connection connection = pool.getConnection();
+			PreparedStatement cached = connection.prepareStatement("SELECT 1");
+			PreparedStatement uncached = connection.prepareStatement("SELECT 1");
+			Statement created = connection.createStatement();
+			assertEquals(3, opened.get(0).getOpenStatements());
+			connection.close();
+			assertTrue(cached.isClosed());
+			assertTrue(uncached.isClosed());
+			assertTrue(created.isClosed());
+			assertEquals(1, opened.get(0).getOpenStatements());
+			try(Connection next = pool.getConnection()){
+				PreparedStatement reused = next.prepareStatement("SELECT 1");
+				assertEquals(2, opened.get(0).getPrepared());
+				assertNotSame(cached, reused);
+				try{
+					cached.executeQuery();
+					fail("A statement from an earlier lease should not be usable.");
+				}catch(SQLException e){}
+				cached.close();
+				assertFalse(reused.isClosed());
+				reused.executeQuery().close();
+			}
+		}
+		assertEquals(0, opened.get(0).getOpenStatements());
+	}
+	@Test
+	public void uncachedStatementsTest() throws SQLException {
+		try(ConnectionPool pool = pool(0, 1, 60000, 1000, 0)){
+			try(Connection connection = pool.getConnection()){
+				connection.prepareStatement("SELECT 1").close();
+				connection.prepareStatement("SELECT 1");
+				connection.createStatement();
+				assertEquals(2, opened.get(0).getPrepared());
+				assertEquals(2, opened.get(0).getOpenStatements());
+			}
+			assertEquals(0, opened.get(0).getOpenStatements());
+		}
+	}
+}
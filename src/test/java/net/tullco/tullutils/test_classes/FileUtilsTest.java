@@ -3,11 +3,27 @@ package net.tullco.tullutils.test_classes;
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
@@ -16,6 +32,10 @@ import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
 import net.tullco.tullutils.FileUtils;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.csvutils.BufferedCSVWriter;
+import net.tullco.tullutils.csvutils.MappedCSVReader;
+import net.tullco.tullutils.csvutils.ParallelCSVReader;
 import net.tullco.tullutils.test_utils.TestResourceLoader;
 
 public class FileUtilsTest {
@@ -55,6 +75,34 @@ public class FileUtilsTest {
 		assertTrue(Arrays.equals(b,actual));
 	}
 	@Test
+	public void writeFileAtomicallyTest() throws IOException {
+		File directory = Files.createTempDirectory("tullfile_test").toFile();
+		File f = new File(directory, "atomic.txt");
+		FileUtils.writeStringToFileAtomically("first", f, false);
+		assertEquals("first", FileUtils.getFileAsString(f));
+		FileUtils.writeBytesToFileAtomically(new byte[] {122,123,34,22}, f, true);
+		assertTrue(Arrays.equals(new byte[] {122,123,34,22}, FileUtils.getFileAsBytes(f)));
+		
+		ByteBuffer header = ByteBuffer.wrap("id,name\n".getBytes(StandardCharsets.UTF_8));
+		ByteBuffer body = ByteBuffer.allocateDirect(16);
+		body.put("1,tull\n".getBytes(StandardCharsets.UTF_8)).flip();
+		FileUtils.writeBuffersToFileAtomically(f, true, header, body);
+		assertEquals("id,name\n1,tull\n", FileUtils.getFileAsString(f));
+		assertFalse(header.hasRemaining());
+		assertFalse(body.hasRemaining());
+		assertEquals(1, directory.listFiles().length);
+		
+		File missing = new File(new File(directory, "missing"), "atomic.txt");
+		try{
+			FileUtils.writeStringToFileAtomically("lost", missing, false);
+			fail("Writing into a missing directory should fail.");
+		}catch(IOException e){
+			assertFalse(missing.exists());
+		}
+		f.delete();
+		directory.delete();
+	}
+	@Test
 	public void fileReaderTest() throws IOException {
 		File f = TestResourceLoader.getResource("txt/SimpleText.txt");
 		BufferedReader reader = new BufferedReader(FileUtils.getFileReader(f));
@@ -102,6 +150,99 @@ public class FileUtilsTest {
 		assertTrue(Arrays.equals(expected, line));
 	}
 	@Test
+	public void mappedCSVReaderTest() throws IOException {
+		File f = TestResourceLoader.getResource("csv/FileTest1.csv");
+		MappedCSVReader reader = FileUtils.getMappedCSVReader(f);
+		assertTrue(Arrays.equals(new String[] {"id","terrible_phrase"}, reader.readNext()));
+		assertTrue(reader.next());
+		assertEquals(2, reader.getFieldCount());
+		assertEquals("1", reader.getField(0).toString());
+		assertEquals("lol", reader.getString(1));
+		assertEquals(3, reader.getFieldBytes(1).remaining());
+		int rows = 2;
+		while(reader.next())
+			rows++;
+		reader.close();
+		assertEquals(6, rows);
+		
+		File tricky = File.createTempFile("tullfile_test", ".csv");
+		FileUtils.writeBytesToFile("a,\"b,c\",\"say \"\"hi\"\"\"\r\n\"multi\nline\",caf\u00e9,\r\n\n\"\",last".getBytes(StandardCharsets.UTF_8), tricky);
+		String[][] expected = {{"a","b,c","say \"hi\""},{"multi\nline","caf\u00e9",""},{""},{"","last"}};
+		for(int window: new int[] {MappedCSVReader.DEFAULT_WINDOW_SIZE, 5}){
+			reader = new MappedCSVReader(tricky, window);
+			for(String[] row: expected)
+				assertTrue(Arrays.equals(row, reader.readNext()));
+			assertNull(reader.readNext());
+			reader.close();
+		}
+		tricky.delete();
+	}
+	@Test
+	public void parallelCSVReaderTest() throws IOException {
+		File f = File.createTempFile("tullfile_test", ".csv");
+		StringBuilder sb = new StringBuilder("id,text\n");
+		List<String[]> expected = new ArrayList<String[]>();
+		for(int i=0; i<60000; i++){
+			String text = i%3 == 0 ? "line "+i+"\nwith \"quotes\", and commas" : "plain "+i;
+			expected.add(new String[] {Integer.toString(i), text});
+			sb.append(i).append(",\"").append(text.replace("\"", "\"\"")).append("\"\n");
+		}
+		FileUtils.writeBytesToFile(sb.toString().getBytes(StandardCharsets.UTF_8), f);
+		
+		try(Stream<String[]> rows = FileUtils.streamCSVParallel(f, true, 4)){
+			List<String[]> actual = rows.collect(Collectors.toList());
+			assertEquals(expected.size(), actual.size());
+			for(int i=0; i<expected.size(); i++)
+				assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+		}
+		
+		long[] boundaries = ParallelCSVReader.findRecordBoundaries(f, 8, 1000, ForkJoinPool.commonPool());
+		for(int i=1; i+1<boundaries.length; i++){
+			MappedCSVReader reader = new MappedCSVReader(f, boundaries[i], f.length(), 1024);
+			String[] row = reader.readNext();
+			reader.close();
+			int id = Integer.parseInt(row[0]);
+			assertTrue(Arrays.equals(expected.get(id), row));
+		}
+		
+		AtomicLong idSum = new AtomicLong();
+		long count = FileUtils.readCSVParallel(f, true, 3, batch -> {
+			for(String[] row: batch)
+				idSum.addAndGet(Long.parseLong(row[0]));
+		});
+		assertEquals(60000, count);
+		assertEquals(59999L*60000/2, idSum.get());
+		f.delete();
+	}
+	@Test
+	public void readCSVParallelFailureTest() throws IOException, InterruptedException {
+		File f = File.createTempFile("tullfile_test", ".csv");
+		StringBuilder sb = new StringBuilder("id,name\n");
+		for(int i=0; i<300000; i++)
+			sb.append(i).append(",name number ").append(i).append('\n');
+		FileUtils.writeBytesToFile(sb.toString().getBytes(StandardCharsets.UTF_8), f);
+		AtomicBoolean returned = new AtomicBoolean(false);
+		AtomicInteger calls = new AtomicInteger();
+		AtomicInteger lateCalls = new AtomicInteger();
+		try{
+			ParallelCSVReader.forEachBatch(f, true, 4, 100, batch -> {
+				if(calls.incrementAndGet() == 20)
+					throw new IllegalStateException("Consumer failed");
+				long until = System.nanoTime() + 1000000;
+				while(System.nanoTime() < until);
+				if(returned.get())
+					lateCalls.incrementAndGet();
+			});
+			fail("The consumer's failure should have been thrown.");
+		}catch(IllegalStateException e){
+			returned.set(true);
+		}
+		Thread.sleep(50);
+		assertEquals(0, lateCalls.get());
+		assertTrue(calls.get() < 100);
+		f.delete();
+	}
+	@Test
 	public void csvWriterTest() throws IOException, CsvValidationException {
 		File f = File.createTempFile("tullfile_test", ".txt");
 		String[] output = {"lol","olo"};
@@ -122,6 +263,95 @@ public class FileUtilsTest {
 		assertTrue(Arrays.equals(output, line));
 	}
 	@Test
+	public void bufferedCSVWriterTest() throws IOException {
+		String[][] rows = {{"id","text"},{"1","plain"},{"2","say \"hi\", ok"},{"3",null},{"4","caf\u00e9 \u65e5\u672c \ud83d\ude00\nnext"}};
+		StringWriter expected = new StringWriter();
+		CSVWriter openCsv = new CSVWriter(expected);
+		for(String[] row: rows)
+			openCsv.writeNext(row);
+		openCsv.close();
+		
+		File f = File.createTempFile("tullfile_test", ".csv");
+		BufferedCSVWriter writer = FileUtils.getBufferedCSVWriter(f);
+		for(String[] row: rows)
+			writer.writeNext(row);
+		writer.writeField(-42);
+		writer.writeField(Long.MIN_VALUE);
+		writer.endRow();
+		writer.close();
+		assertEquals(expected.toString()+"\"-42\",\"-9223372036854775808\"\n", new String(FileUtils.getFileAsBytes(f), StandardCharsets.UTF_8));
+		
+		StringBuilder longField = new StringBuilder();
+		for(int i=0; i<2000; i++)
+			longField.append("\ud83d\ude00\"\u00e9");
+		writer = new BufferedCSVWriter(f, false, true, 1024);
+		writer.writeNext(new String[] {longField.toString()});
+		writer.close();
+		writer = FileUtils.getBufferedCSVWriter(f, true, true);
+		writer.writeNext(rows[1]);
+		writer.close();
+		ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+		try(GZIPInputStream in = new GZIPInputStream(new FileInputStream(f))){
+			byte[] b = new byte[4096];
+			int read;
+			while((read = in.read(b)) != -1)
+				unzipped.write(b, 0, read);
+		}
+		String escaped = longField.toString().replace("\"", "\"\"");
+		assertEquals("\""+escaped+"\"\n\"1\",\"plain\"\n", new String(unzipped.toByteArray(), StandardCharsets.UTF_8));
+		
+		writer = FileUtils.getBufferedCSVWriter(f, false, CompressionCodec.lz());
+		for(String[] row: rows)
+			writer.writeNext(row);
+		writer.close();
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		try(InputStream in = CompressionCodec.lz().decompress(new FileInputStream(f))){
+			byte[] b = new byte[4096];
+			int read;
+			while((read = in.read(b)) != -1)
+				decompressed.write(b, 0, read);
+		}
+		assertEquals(expected.toString(), new String(decompressed.toByteArray(), StandardCharsets.UTF_8));
+		f.delete();
+	}
+	@Test
+	public void findDuplicateFilesTest() throws IOException, NoSuchAlgorithmException {
+		File dir = Files.createTempDirectory("tullfile_test").toFile();
+		File sub = new File(dir, "sub");
+		sub.mkdir();
+		byte[] content = new byte[300*1024];
+		for(int i=0; i<content.length; i++)
+			content[i] = (byte) (i*31);
+		byte[] middleChanged = Arrays.copyOf(content, content.length);
+		middleChanged[content.length/2]++;
+		File a = new File(dir, "a.bin");
+		File b = new File(dir, "b.bin");
+		File c = new File(dir, "c.bin");
+		File d = new File(dir, "d.bin");
+		File g = new File(sub, "g.bin");
+		File small1 = new File(dir, "small1.txt");
+		File small2 = new File(sub, "small2.txt");
+		File small3 = new File(sub, "small3.txt");
+		FileUtils.writeBytesToFile(content, a);
+		FileUtils.writeBytesToFile(content, b);
+		FileUtils.writeBytesToFile(middleChanged, c);
+		FileUtils.writeBytesToFile(Arrays.copyOf(content, 1000), d);
+		FileUtils.writeBytesToFile(content, g);
+		FileUtils.writeStringToFile("same", small1);
+		FileUtils.writeStringToFile("same", small2);
+		FileUtils.writeStringToFile("diff", small3);
+		
+		List<List<File>> duplicates = FileUtils.findDuplicateFiles(dir, 3);
+		assertEquals(2, duplicates.size());
+		assertEquals(Arrays.asList(a, b, g), duplicates.get(0));
+		assertEquals(Arrays.asList(small1, small2), duplicates.get(1));
+		
+		for(File f: new File[] {a, b, c, d, g, small1, small2, small3})
+			f.delete();
+		sub.delete();
+		dir.delete();
+	}
+	@Test
 	public void testFileEquals() throws IOException, NoSuchAlgorithmException {
 		File f1 = TestResourceLoader.getResource("txt/SimpleText.txt");
 		File f2 = TestResourceLoader.getResource("txt/SimpleText.txt");
@@ -133,6 +363,37 @@ public class FileUtilsTest {
 		assertFalse(FileUtils.filesSHA1Equal(f1, f2));
 	}
 	@Test
+	public void testFirstDifference() throws IOException {
+		byte[] content = new byte[100003];
+		for(int i=0; i<content.length; i++)
+			content[i] = (byte) (i*7);
+		File f1 = File.createTempFile("tullfile_test", ".bin");
+		File f2 = File.createTempFile("tullfile_test", ".bin");
+		FileUtils.writeBytesToFile(content, f1);
+		FileUtils.writeBytesToFile(content, f2);
+		assertEquals(-1, FileUtils.firstDifference(f1, f2));
+		assertTrue(FileUtils.filesEqual(f1, f2));
+		
+		for(int offset: new int[] {0, 5, 8, 12345, 100002}){
+			byte[] changed = Arrays.copyOf(content, content.length);
+			changed[offset]++;
+			File f3 = File.createTempFile("tullfile_test", ".bin");
+			FileUtils.writeBytesToFile(changed, f3);
+			assertEquals(offset, FileUtils.firstDifference(f1, f3));
+			assertFalse(FileUtils.filesEqual(f1, f3));
+			f3.delete();
+		}
+		
+		File prefix = File.createTempFile("tullfile_test", ".bin");
+		FileUtils.writeBytesToFile(Arrays.copyOf(content, 500), prefix);
+		assertEquals(500, FileUtils.firstDifference(f1, prefix));
+		assertFalse(FileUtils.filesEqual(f1, prefix));
+		assertFalse(FileUtils.filesEqual(f1, new File(f1.getPath()+".missing")));
+		f1.delete();
+		f2.delete();
+		prefix.delete();
+	}
+	@Test
 	public void testFileCopy() throws IOException, NoSuchAlgorithmException {
 		File f1 = TestResourceLoader.getResource("txt/SimpleText.txt");
 		File f2 = File.createTempFile("tullfile_test", ".txt");
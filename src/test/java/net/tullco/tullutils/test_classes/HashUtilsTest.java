@@ -0,0 +1,105 @@
+package net.tullco.tullutils.test_classes;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.tullco.tullutils.FileUtils;
+import net.tullco.tullutils.hashutils.CRC32C;
+import net.tullco.tullutils.hashutils.HashAlgorithm;
+import net.tullco.tullutils.hashutils.HashingChannel;
+import net.tullco.tullutils.hashutils.HashingOutputStream;
+import net.tullco.tullutils.hashutils.Hex;
+import net.tullco.tullutils.hashutils.MultiHash;
+import net.tullco.tullutils.hashutils.XXHash64;
+import net.tullco.tullutils.test_utils.TestResourceLoader;
+
+public class HashUtilsTest {
+
+	@Test
+	public void testCRC32C() {
+		CRC32C crc = new CRC32C();
+		crc.update("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9);
+		assertEquals(0xE3069283L, crc.getValue());
+		crc.reset();
+		assertEquals(0L, crc.getValue());
+	}
+	@Test
+	public void testXXHash64() {
+		assertEquals(0xEF46DB3751D8E999L, xxHash(""));
+		assertEquals(0x44BC2CF5AD770999L, xxHash("abc"));
+		assertEquals(0xFBCEA83C8A378BF1L, xxHash("Nobody inspects the spammish repetition"));
+	}
+	@Test
+	public void testHex() {
+		assertEquals("", Hex.encode(new byte[0]));
+		assertEquals("00FF10AB7F80", Hex.encode(new byte[] {0, -1, 16, (byte) 0xAB, 127, -128}));
+	}
+	@Test
+	public void testSplitUpdates() {
+		byte[] data = new byte[1000];
+		for(int i=0; i<data.length; i++)
+			data[i] = (byte) (i*13);
+		CRC32C wholeCrc = new CRC32C();
+		XXHash64 wholeXx = new XXHash64();
+		wholeCrc.update(data, 0, data.length);
+		wholeXx.update(data, 0, data.length);
+		for(int split: new int[] {1, 3, 7, 31, 33, 100}){
+			CRC32C crc = new CRC32C();
+			XXHash64 xx = new XXHash64();
+			for(int i=0; i<data.length; i+=split){
+				crc.update(data, i, Math.min(split, data.length-i));
+				xx.update(ByteBuffer.wrap(data, i, Math.min(split, data.length-i)));
+			}
+			assertEquals(wholeCrc.getValue(), crc.getValue());
+			assertEquals(wholeXx.getValue(), xx.getValue());
+		}
+	}
+	@Test
+	public void testHashFile() throws NoSuchAlgorithmException, IOException {
+		File f = TestResourceLoader.getResource("csv/FileTest1.csv");
+		Map<HashAlgorithm,String> hashes = FileUtils.hashFile(f, HashAlgorithm.SHA1, HashAlgorithm.SHA256, HashAlgorithm.CRC32C, HashAlgorithm.XXHASH64);
+		assertEquals("301F3085D0D1DB3531518578669D40DA771F0CF1", hashes.get(HashAlgorithm.SHA1));
+		String sha256 = Hex.encode(MessageDigest.getInstance("SHA-256").digest(FileUtils.getFileAsBytes(f)));
+		assertEquals(sha256, hashes.get(HashAlgorithm.SHA256));
+		assertEquals(4, hashes.size());
+	}
+	@Test
+	public void testHashingStreams() throws NoSuchAlgorithmException, IOException {
+		byte[] data = "the quick brown fox jumps over the lazy dog, many times over".getBytes(StandardCharsets.US_ASCII);
+		MultiHash expected = new MultiHash(HashAlgorithm.SHA256, HashAlgorithm.CRC32C);
+		expected.update(data, 0, data.length);
+		
+		ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+		HashingOutputStream stream = new HashingOutputStream(streamOut, new MultiHash(HashAlgorithm.SHA256, HashAlgorithm.CRC32C));
+		stream.write(data[0]);
+		stream.write(data, 1, data.length-1);
+		stream.close();
+		assertArrayEquals(data, streamOut.toByteArray());
+		assertEquals(expected.hexDigests(), stream.getHash().hexDigests());
+		
+		ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+		HashingChannel channel = new HashingChannel(Channels.newChannel(channelOut), new MultiHash(HashAlgorithm.SHA256, HashAlgorithm.CRC32C));
+		channel.write(ByteBuffer.wrap(data));
+		channel.close();
+		assertArrayEquals(data, channelOut.toByteArray());
+		assertEquals(expected.hexDigests(), channel.getHash().hexDigests());
+	}
+	
+	private static long xxHash(String s){
+		XXHash64 hash = new XXHash64();
+		byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+		hash.update(b, 0, b.length);
+		return hash.getValue();
+	}
+}
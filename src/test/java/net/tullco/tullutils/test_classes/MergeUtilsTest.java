@@ -1,18 +1,33 @@
 package net.tullco.tullutils.test_classes;
 
 import static org.junit.Assert.*;
+import static net.tullco.tullutils.test_utils.TestStreams.decompress;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
 import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
 import net.tullco.tullutils.FileUtils;
 import net.tullco.tullutils.MergeUtils;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.mergeutils.JoinType;
+import net.tullco.tullutils.mergeutils.KeyNormalization;
+import net.tullco.tullutils.mergeutils.MergeKey;
+import net.tullco.tullutils.mergeutils.Supplement;
 import net.tullco.tullutils.test_utils.TestResourceLoader;
 
 public class MergeUtilsTest {
@@ -52,6 +67,200 @@ public class MergeUtilsTest {
 		assertTrue(Arrays.equals(expectedData, actualData));
 	}
 
+	@Test
+	public void testMergeFilesWithMemoryBudget() throws IOException, CsvValidationException {
+		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
+		File f2 = TestResourceLoader.getResource("csv/MergeTest2.csv");
+		File temp = File.createTempFile("tullfile_test", "csv");
+		MergeUtils.mergeFiles(f2, f1, 0, 0, temp, 100);
+		
+		String[] expectedHeaders = {"id","first_name","last_name"};
+		CSVReader reader = FileUtils.getCSVReader(temp);
+		String[] actualHeaders = reader.readNext();
+		List<String> actualRows = new ArrayList<String>();
+		String[] line;
+		while((line = reader.readNext()) != null)
+			actualRows.add(String.join(",", line));
+		reader.close();
+		Collections.sort(actualRows);
+		assertTrue(Arrays.equals(expectedHeaders,actualHeaders));
+		assertEquals(Arrays.asList("1,Brady,Haran","2,CGP,Grey","3,Jared,Knabenbauer","4,Jirard,Khalil"), actualRows);
+	}
+
+	@Test
+	public void testMergeFilesCompact() throws IOException, CsvValidationException {
+		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
+		File f2 = TestResourceLoader.getResource("csv/MergeTest2.csv");
+		File expected = File.createTempFile("tullfile_test", "csv");
+		File actual = File.createTempFile("tullfile_test", "csv");
+		MergeUtils.mergeFiles(f2, f1, 0, 0, expected);
+		MergeUtils.mergeFilesCompact(f2, f1, 0, 0, actual);
+		assertTrue(Arrays.equals(FileUtils.getFileAsBytes(expected), FileUtils.getFileAsBytes(actual)));
+		
+		String[] keys = {"caf\u00e9", "na\u00efve", "\u65e5\u672c", "\ud83d\ude00", "plain", "caf"};
+		File supplement = File.createTempFile("tullfile_test", "csv");
+		CSVWriter writer = FileUtils.getCSVWriter(supplement);
+		writer.writeNext(new String[] {"value","key"});
+		for(int i=0; i<5000; i++)
+			writer.writeNext(new String[] {"value "+i+" \u00fc", keys[i%keys.length]+(i%1000)});
+		writer.close();
+		File base = File.createTempFile("tullfile_test", "csv");
+		writer = FileUtils.getCSVWriter(base);
+		writer.writeNext(new String[] {"key","note"});
+		for(int i=0; i<3000; i++)
+			writer.writeNext(new String[] {keys[i%keys.length]+(i%1500), "note "+i});
+		writer.close();
+		MergeUtils.mergeFiles(supplement, base, 1, 0, expected);
+		MergeUtils.mergeFilesCompact(supplement, base, 1, 0, actual);
+		assertTrue(Arrays.equals(FileUtils.getFileAsBytes(expected), FileUtils.getFileAsBytes(actual)));
+		supplement.delete();
+		base.delete();
+		expected.delete();
+		actual.delete();
+	}
+
+	@Test
+	public void testMergeFilesCompositeKey() throws IOException, CsvValidationException {
+		File supplement = File.createTempFile("tullfile_test", "csv");
+		CSVWriter writer = FileUtils.getCSVWriter(supplement);
+		writer.writeNext(new String[] {"region","code","value"});
+		writer.writeNext(new String[] {" east ","007","a"});
+		writer.writeNext(new String[] {"WEST","1.50","b"});
+		writer.writeNext(new String[] {"north","-0","c"});
+		writer.writeNext(new String[] {"south","abc","d"});
+		writer.close();
+		File base = File.createTempFile("tullfile_test", "csv");
+		writer = FileUtils.getCSVWriter(base);
+		writer.writeNext(new String[] {"code","region","note"});
+		writer.writeNext(new String[] {"7","East","x"});
+		writer.writeNext(new String[] {"+1.5","west ","y"});
+		writer.writeNext(new String[] {"0.0","NORTH","z"});
+		writer.writeNext(new String[] {"8","east","w"});
+		writer.writeNext(new String[] {" ABC","South","v"});
+		writer.close();
+		
+		MergeKey supplementKey = new MergeKey(new int[] {0,1}, KeyNormalization.TRIM, KeyNormalization.CASE_FOLD);
+		supplementKey.setNormalization(1, KeyNormalization.TRIM, KeyNormalization.NUMERIC);
+		MergeKey baseKey = new MergeKey(new int[] {1,0}, KeyNormalization.TRIM, KeyNormalization.CASE_FOLD);
+		baseKey.setNormalization(0, KeyNormalization.TRIM, KeyNormalization.NUMERIC);
+		File temp = File.createTempFile("tullfile_test", "csv");
+		MergeUtils.mergeFiles(supplement, base, supplementKey, baseKey, temp);
+		
+		assertEquals(Arrays.asList("code,region,note,value","7,East,x,a","+1.5,west ,y,b","0.0,NORTH,z,c","8,east,w,"," ABC,South,v,"), readRows(temp));
+		supplement.delete();
+		base.delete();
+		temp.delete();
+	}
+
+	@Test
+	public void testMergeFilesManySupplements() throws IOException, CsvValidationException {
+		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
+		File f2 = TestResourceLoader.getResource("csv/MergeTest2.csv");
+		File f3 = TestResourceLoader.getResource("csv/FileTest1.csv");
+		File once = File.createTempFile("tullfile_test", "csv");
+		File expected = File.createTempFile("tullfile_test", "csv");
+		File actual = File.createTempFile("tullfile_test", "csv");
+		MergeUtils.mergeFiles(f2, f1, 0, 0, once);
+		MergeUtils.mergeFiles(f3, once, 0, 0, expected);
+		MergeUtils.mergeFiles(Arrays.asList(new Supplement(f2, 0, 0), new Supplement(f3, 0, 0)), f1, actual);
+		assertTrue(Arrays.equals(FileUtils.getFileAsBytes(expected), FileUtils.getFileAsBytes(actual)));
+		assertEquals(Arrays.asList("id,first_name,last_name,terrible_phrase","1,Brady,Haran,lol","2,CGP,Grey,lulz","3,Jared,Knabenbauer,brb","4,Jirard,Khalil,lmfao"), readRows(actual));
+		once.delete();
+		expected.delete();
+		actual.delete();
+	}
+
+	@Test
+	public void testMergeFilesParallel() throws IOException, CsvValidationException {
+		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
+		File f2 = TestResourceLoader.getResource("csv/MergeTest2.csv");
+		File expected = File.createTempFile("tullfile_test", "csv");
+		File actual = File.createTempFile("tullfile_test", "csv");
+		MergeUtils.mergeFiles(f2, f1, 0, 0, expected);
+		MergeUtils.mergeFilesParallel(f2, f1, 0, 0, actual, 4);
+		assertTrue(Arrays.equals(FileUtils.getFileAsBytes(expected), FileUtils.getFileAsBytes(actual)));
+		
+		File base = File.createTempFile("tullfile_test", "csv");
+		CSVWriter writer = FileUtils.getCSVWriter(base);
+		writer.writeNext(new String[] {"id","note"});
+		for(int i=0; i<2000; i++)
+			writer.writeNext(new String[] {Integer.toString(i%7), "line "+i+"\nstill \"line\" "+i});
+		writer.close();
+		MergeUtils.mergeFiles(f2, base, 0, 0, expected);
+		MergeUtils.mergeFilesParallel(f2, base, 0, 0, actual, 3);
+		assertTrue(Arrays.equals(FileUtils.getFileAsBytes(expected), FileUtils.getFileAsBytes(actual)));
+		base.delete();
+		expected.delete();
+		actual.delete();
+	}
+
+	@Test
+	public void testMergeFilesParallelFailure() throws IOException, CsvValidationException {
+		File supplement = File.createTempFile("tullfile_test", "csv");
+		File base = File.createTempFile("tullfile_test", "csv");
+		File actual = File.createTempFile("tullfile_test", "csv");
+		FileUtils.writeStringToFile("id,score\n1,10\n2,20\n", supplement);
+		StringBuilder rows = new StringBuilder("note,id\n");
+		for(int i=0; i<20000; i++)
+			rows.append(i == 10000 ? "short\n" : "line "+i+","+(i%3)+"\n");
+		FileUtils.writeStringToFile(rows.toString(), base);
+		List<String> before = segmentFiles();
+		try{
+			MergeUtils.mergeFilesParallel(supplement, base, 0, 1, actual, 4);
+			fail("A row without a key column should fail the merge.");
+		}catch(ArrayIndexOutOfBoundsException e){}
+		List<String> after = segmentFiles();
+		after.removeAll(before);
+		assertEquals(Collections.emptyList(), after);
+		supplement.delete();
+		base.delete();
+		actual.delete();
+	}
+	private static List<String> segmentFiles() throws IOException {
+		try(Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))){
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith("merge_segment"))
+					.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void testMergeFilesSorted() throws IOException, CsvValidationException {
+		File base = File.createTempFile("tullfile_test", "csv");
+		File supplement = File.createTempFile("tullfile_test", "csv");
+		File temp = File.createTempFile("tullfile_test", "csv");
+		FileUtils.writeStringToFile("id,name\n3,c\n1,a\n2,b\n1,a2\n", base);
+		FileUtils.writeStringToFile("score,id\n10,1\n40,4\n11,1\n30,3\n", supplement);
+		
+		MergeUtils.mergeFilesSorted(supplement, base, 1, 0, temp, JoinType.INNER, false, 1024*1024);
+		assertEquals(Arrays.asList("id,name,score","1,a,10","1,a,11","1,a2,10","1,a2,11","3,c,30"), readRows(temp));
+		
+		MergeUtils.mergeFilesSorted(supplement, base, 1, 0, temp, JoinType.LEFT, false, 100);
+		assertEquals(Arrays.asList("id,name,score","1,a,10","1,a,11","1,a2,10","1,a2,11","2,b,","3,c,30"), readRows(temp));
+		
+		MergeUtils.mergeFilesSorted(supplement, base, 1, 0, temp, JoinType.FULL_OUTER, false, 100);
+		assertEquals(Arrays.asList("id,name,score","1,a,10","1,a,11","1,a2,10","1,a2,11","2,b,","3,c,30","4,,40"), readRows(temp));
+	}
+
+	@Test
+	public void testSortFile() throws IOException, CsvValidationException {
+		File unsorted = File.createTempFile("tullfile_test", "csv");
+		File sorted = File.createTempFile("tullfile_test", "csv");
+		FileUtils.writeStringToFile("key,order\nb,1\na,2\nc,3\na,4\nb,5\n", unsorted);
+		MergeUtils.sortFile(unsorted, 0, sorted, 50);
+		assertEquals(Arrays.asList("key,order","a,2","a,4","b,1","b,5","c,3"), readRows(sorted));
+	}
+	
+	private static List<String> readRows(File f) throws IOException, CsvValidationException {
+		CSVReader reader = FileUtils.getCSVReader(f);
+		List<String> rows = new ArrayList<String>();
+		String[] line;
+		while((line = reader.readNext()) != null)
+			rows.add(String.join(",", line));
+		reader.close();
+		return rows;
+	}
+
 	@Test
 	public void testMergeFilesSlow() throws IOException, CsvValidationException {
 		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
@@ -70,6 +279,29 @@ public class MergeUtilsTest {
 		assertTrue(Arrays.equals(expectedData, actualData));
 	}
 
+	@Test
+	public void testMergeFilesCompressed() throws IOException, CsvValidationException {
+		File f1 = TestResourceLoader.getResource("csv/MergeTest1.csv");
+		File f2 = TestResourceLoader.getResource("csv/MergeTest2.csv");
+		File expected = File.createTempFile("tullfile_test", "csv");
+		File actual = File.createTempFile("tullfile_test", "csv");
+		for(CompressionCodec codec: Arrays.asList(CompressionCodec.gzip(), CompressionCodec.deflate(1), CompressionCodec.lz())){
+			MergeUtils.mergeFiles(f2, f1, 0, 0, expected);
+			MergeUtils.mergeFiles(f2, f1, 0, 0, actual, codec);
+			assertArrayEquals(FileUtils.getFileAsBytes(expected), decompress(actual, codec));
+			
+			MergeUtils.mergeFiles(Arrays.asList(new Supplement(f2, 0, 0)), f1, expected);
+			MergeUtils.mergeFiles(Arrays.asList(new Supplement(f2, 0, 0)), f1, actual, codec);
+			assertArrayEquals(FileUtils.getFileAsBytes(expected), decompress(actual, codec));
+			
+			MergeUtils.mergeFilesSorted(f2, f1, 0, 0, expected, JoinType.LEFT, false, 100);
+			MergeUtils.mergeFilesSorted(f2, f1, 0, 0, actual, JoinType.LEFT, false, 100, codec);
+			assertArrayEquals(FileUtils.getFileAsBytes(expected), decompress(actual, codec));
+		}
+		expected.delete();
+		actual.delete();
+	}
+
 	@Test
 	public void testMergeStringArrays() {
 		String[] array1 = {"Test","Oops"};
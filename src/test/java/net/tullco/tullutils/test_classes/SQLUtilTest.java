@@ -0,0 +1,571 @@
+package net.tullco.tullutils.test_classes;
+
+import static org.junit.Assert.*;
+import static net.tullco.tullutils.test_utils.TestStreams.decompress;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+import net.tullco.tullutils.SQLUtil;
+import net.tullco.tullutils.columnarutils.ColumnarReader;
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+import net.tullco.tullutils.sqlutils.PipelinedCSVExport;
+import net.tullco.tullutils.test_utils.StubJDBC;
+import net.tullco.tullutils.test_utils.StubJDBC.StubConnection;
+import net.tullco.tullutils.test_utils.StubJDBC.StubResultSet;
+
+public class SQLUtilTest {
+
+	private static final String[] LABELS = {"id","name","score","active","day","seen","extra"};
+	private static final int[] TYPES = {Types.BIGINT, Types.VARCHAR, Types.DOUBLE, Types.BOOLEAN, Types.DATE, Types.TIMESTAMP, Types.OTHER};
+
+	private static final String CHUNK_STATEMENT = "SELECT * FROM t WHERE id >= MIN_ID AND id < MAX_ID";
+	private static final Pattern CHUNK_RANGE = Pattern.compile("id >= (\\d+) AND id < (\\d+)");
+
+	private static Object[][] testRows(int count){
+		Object[][] rows = new Object[count][];
+		for(int i=0; i<count; i++){
+			rows[i] = new Object[]{
+					(long) i,
+					i%7==0 ? null : "name \"" + i + "\", line\n" + (i%3),
+					i%5==0 ? null : i*0.1,
+					i%2==0,
+					i%17==0 ? null : Date.valueOf(LocalDate.of(2020, 1, 1).plusDays(i)),
+					i%11==0 ? null : Timestamp.valueOf(LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(i*37)),
+					i%13==0 ? null : Integer.valueOf(i*i)};
+		}
+		return rows;
+	}
+
+	@Test
+	public void csvWriterMatchesOpenCSVTest() throws IOException, SQLException {
+		String[] labels = {"id","count","name","score","active","day","time","seen","extra"};
+		int[] types = {Types.BIGINT, Types.INTEGER, Types.VARCHAR, Types.DOUBLE, Types.BOOLEAN, Types.DATE, Types.TIME, Types.TIMESTAMP, Types.OTHER};
+		Object[][] first = openCSVTestRows(0, 300);
+		Object[][] second = openCSVTestRows(300, 50);
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		actual.deleteOnExit();
+		AtomicInteger queries = new AtomicInteger();
+		StubConnection connection = new StubConnection(() -> StubJDBC.resultSet(labels, types, queries.getAndIncrement()==0 ? first : second).get());
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			sql.getResultsAsCSV(actual, "SELECT");
+			sql.appendResultsToCSV(actual, "SELECT");
+		}
+		
+		StringWriter expected = new StringWriter();
+		try(CSVWriter writer = new CSVWriter(expected)){
+			writer.writeNext(labels);
+			for(Object[][] rows: new Object[][][]{first, second}){
+				ResultSet rs = StubJDBC.resultSet(labels, types, rows).get();
+				while(rs.next())
+					writer.writeNext(openCSVRow(rs));
+			}
+		}
+		assertEquals(expected.toString(), new String(Files.readAllBytes(actual.toPath()), "UTF-8"));
+	}
+	@Test
+	public void pipelinedExportMatchesCSVTest() throws IOException, SQLException {
+		Object[][] rows = testRows(1000);
+		File expected = File.createTempFile("tullfile_test", ".csv");
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		StubConnection connection = new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, rows).get());
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+			assertEquals(1000, sql.getResultsAsCSV(actual, "SELECT", 3));
+		}
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+		for(int batchRows: new int[]{1, 7, 1000, 5000}){
+			StringWriter writer = new StringWriter();
+			StubResultSet rs = StubJDBC.resultSet(LABELS, TYPES, rows);
+			assertEquals(1000, PipelinedCSVExport.export(rs.get(), writer, true, 4, batchRows));
+			assertEquals(new String(Files.readAllBytes(expected.toPath()), "UTF-8"), writer.toString());
+			assertTrue(rs.isClosed());
+		}
+	}
+	@Test
+	public void compressedExportTest() throws IOException, SQLException {
+		Object[][] rows = testRows(1000);
+		File expected = File.createTempFile("tullfile_test", ".csv");
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		StubConnection connection = new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, rows).get());
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+			byte[] csv = Files.readAllBytes(expected.toPath());
+			for(CompressionCodec codec: new CompressionCodec[]{CompressionCodec.gzip(), CompressionCodec.deflate(6), CompressionCodec.lz()}){
+				sql.getResultsAsCSV(actual, "SELECT", codec);
+				byte[] compressed = Files.readAllBytes(actual.toPath());
+				assertTrue(compressed.length < csv.length);
+				assertArrayEquals(csv, decompress(compressed, codec));
+				assertEquals(1000, sql.getResultsAsCSV(actual, "SELECT", 3, codec));
+				assertArrayEquals(csv, decompress(Files.readAllBytes(actual.toPath()), codec));
+			}
+		}
+	}
+	@Test
+	public void pipelinedExportEmptyTest() throws IOException, SQLException {
+		StringWriter writer = new StringWriter();
+		assertEquals(0, PipelinedCSVExport.export(StubJDBC.resultSet(LABELS, TYPES, new Object[0][]).get(), writer, true, 2, 10));
+		assertEquals("\"id\",\"name\",\"score\",\"active\",\"day\",\"seen\",\"extra\"\n", writer.toString());
+		writer = new StringWriter();
+		assertEquals(0, PipelinedCSVExport.export(StubJDBC.resultSet(LABELS, TYPES, new Object[0][]).get(), writer, false, 2, 10));
+		assertEquals("", writer.toString());
+	}
+	@Test
+	public void pipelinedExportWriterFailureTest() throws SQLException {
+		StubResultSet rs = StubJDBC.resultSet(LABELS, TYPES, testRows(100000));
+		Writer failing = new Writer(){
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException{
+				throw new IOException("Disk full");
+			}
+			@Override
+			public void flush(){}
+			@Override
+			public void close(){}
+		};
+		try{
+			PipelinedCSVExport.export(rs.get(), failing, true, 2, 10);
+			fail("The writer's failure should have been thrown.");
+		}catch(IOException e){
+			assertEquals("Disk full", e.getMessage());
+		}
+		assertTrue(rs.isClosed());
+		assertTrue(rs.getRowsRead() < 100000);
+	}
+	@Test
+	public void pipelinedExportWaitsForWriterTest() throws IOException, SQLException, InterruptedException {
+		Object[][] rows = new Object[400][];
+		for(int i=0; i<rows.length; i++)
+			rows[i] = new Object[]{i < 200 ? (Object) (i*0.5) : "not a number"};
+		StubResultSet rs = StubJDBC.resultSet(new String[]{"score"}, new int[]{Types.DOUBLE}, rows);
+		AtomicBoolean returned = new AtomicBoolean(false);
+		AtomicInteger lateWrites = new AtomicInteger();
+		Writer slow = new Writer(){
+			@Override
+			public void write(char[] cbuf, int off, int len){
+				long until = System.nanoTime() + 5000000;
+				while(System.nanoTime() < until);
+				if(returned.get())
+					lateWrites.incrementAndGet();
+			}
+			@Override
+			public void flush(){}
+			@Override
+			public void close(){}
+		};
+		try{
+			PipelinedCSVExport.export(rs.get(), slow, true, 2, 10);
+			fail("A value that can't be fetched should fail the export.");
+		}catch(ClassCastException e){
+			returned.set(true);
+		}
+		Thread.sleep(50);
+		assertEquals(0, lateWrites.get());
+		assertTrue(rs.isClosed());
+	}
+	@Test
+	public void columnarExportTest() throws IOException, SQLException {
+		String[] labels = {"id","amount","name"};
+		int[] types = {Types.BIGINT, Types.DECIMAL, Types.VARCHAR};
+		Object[][] rows = {{1L, new BigDecimal("9.50"), "a"}, {2L, null, null}, {3L, new BigDecimal("10"), "c"}};
+		File columnar = File.createTempFile("tullfile_test", ".col");
+		columnar.deleteOnExit();
+		StubConnection connection = new StubConnection(() -> StubJDBC.resultSet(labels, types, rows).get());
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			assertEquals(3, sql.getResultsAsColumnar(columnar, "SELECT", true));
+		}
+		try(ColumnarReader reader = new ColumnarReader(columnar)){
+			assertEquals(new BigDecimal("9.50"), reader.getBlockStatistics(0).getMin("amount"));
+			assertEquals(new BigDecimal("10"), reader.getBlockStatistics(0).getMax("amount"));
+			assertEquals(1, reader.getBlockStatistics(0).getNullCount("amount"));
+			Object[][] read = reader.readBlock(0, "id", "amount", "name");
+			assertArrayEquals(new Object[]{1L, 2L, 3L}, read[0]);
+			assertArrayEquals(new Object[]{new BigDecimal("9.50"), null, new BigDecimal("10")}, read[1]);
+			assertArrayEquals(new Object[]{"a", null, "c"}, read[2]);
+		}
+		
+		Object[][] badRows = {{1L, new BigDecimal("1"), "a"}, {"not a number", new BigDecimal("2"), "b"}};
+		StubConnection failing = new StubConnection(() -> StubJDBC.resultSet(labels, types, badRows).get());
+		try(SQLUtil sql = new SQLUtil(failing.get())){
+			sql.getResultsAsColumnar(columnar, "SELECT", false);
+			fail("A value that can't be read should fail the export.");
+		}catch(ClassCastException e){}
+		assertFalse(columnar.exists());
+	}
+	@Test
+	public void chunkifyParallelTest() throws IOException, SQLException {
+		Object[][] rows = testRows(95);
+		File expected = File.createTempFile("tullfile_test", ".csv");
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		try(SQLUtil sql = new SQLUtil(new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, rows).get()).get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+		}
+		Set<String> tempFiles = chunkTempFiles();
+		SQLUtil.chunkifyQueryByIdCSVParallel(() -> new StubConnection((sql, parameters) -> slowChunk(sql, rows)).get(),
+				3, 0, CHUNK_STATEMENT, "MIN_ID", "MAX_ID", 0, 95, 10, actual, false);
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+		assertEquals(tempFiles, chunkTempFiles());
+	}
+	@Test
+	public void chunkifyParallelSeparateFilesTest() throws IOException, SQLException {
+		Object[][] rows = testRows(95);
+		File directory = Files.createTempDirectory("tullfile_test").toFile();
+		directory.deleteOnExit();
+		SQLUtil.chunkifyQueryByIdCSVParallel(() -> new StubConnection((sql, parameters) -> slowChunk(sql, rows)).get(),
+				3, 0, CHUNK_STATEMENT, "MIN_ID", "MAX_ID", 0, 95, 10, directory, true);
+		String[] names = directory.list();
+		Arrays.sort(names);
+		List<String> expectedNames = new ArrayList<String>();
+		for(int left=0; left<95; left+=10)
+			expectedNames.add(left+"-"+(left+10)+".csv");
+		expectedNames.sort(null);
+		assertEquals(expectedNames, Arrays.asList(names));
+		for(int left=0; left<95; left+=10){
+			File chunk = new File(directory, left+"-"+(left+10)+".csv");
+			File expected = File.createTempFile("tullfile_test", ".csv");
+			expected.deleteOnExit();
+			String range = "id >= "+left+" AND id < "+(left+10);
+			try(SQLUtil sql = new SQLUtil(new StubConnection(() -> chunk(range, rows)).get())){
+				sql.getResultsAsCSV(expected, "SELECT");
+			}
+			assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(chunk.toPath()));
+			chunk.delete();
+		}
+		directory.delete();
+	}
+	@Test
+	public void chunkifyParallelRetryTest() throws IOException, SQLException {
+		Object[][] rows = testRows(95);
+		File expected = File.createTempFile("tullfile_test", ".csv");
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		try(SQLUtil sql = new SQLUtil(new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, rows).get()).get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+		}
+		AtomicInteger attempts = new AtomicInteger();
+		SQLUtil.chunkifyQueryByIdCSVParallel(() -> new StubConnection((sql, parameters) -> {
+					if(sql.contains("id >= 30 ") && attempts.getAndIncrement() == 0)
+						throw new SQLException("The connection was reset.");
+					return chunk(sql, rows);
+				}).get(),
+				3, 1, CHUNK_STATEMENT, "MIN_ID", "MAX_ID", 0, 95, 10, actual, false);
+		assertEquals(2, attempts.get());
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+	}
+	@Test
+	public void chunkifyParallelOutOfRetriesTest() throws IOException {
+		Object[][] rows = testRows(95);
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		actual.deleteOnExit();
+		Set<String> tempFiles = chunkTempFiles();
+		AtomicInteger attempts = new AtomicInteger();
+		try{
+			SQLUtil.chunkifyQueryByIdCSVParallel(() -> new StubConnection((sql, parameters) -> {
+						if(sql.contains("id >= 30 ")){
+							attempts.incrementAndGet();
+							throw new SQLException("The connection was reset.");
+						}
+						return chunk(sql, rows);
+					}).get(),
+					3, 1, CHUNK_STATEMENT, "MIN_ID", "MAX_ID", 0, 95, 10, actual, false);
+			fail("A chunk that keeps failing should fail the export.");
+		}catch(SQLException e){
+			assertEquals("The connection was reset.", e.getMessage());
+		}
+		assertEquals(2, attempts.get());
+		assertFalse(actual.exists());
+		assertEquals(tempFiles, chunkTempFiles());
+		
+		File directory = Files.createTempDirectory("tullfile_test").toFile();
+		directory.deleteOnExit();
+		try{
+			SQLUtil.chunkifyQueryByIdCSVParallel(() -> new StubConnection((sql, parameters) -> {
+						if(sql.contains("id >= 30 "))
+							throw new SQLException("The connection was reset.");
+						return chunk(sql, rows);
+					}).get(),
+					3, 0, CHUNK_STATEMENT, "MIN_ID", "MAX_ID", 0, 95, 10, directory, true);
+			fail("A chunk that keeps failing should fail the export.");
+		}catch(SQLException e){}
+		assertEquals(0, directory.list().length);
+		directory.delete();
+	}
+	@Test
+	public void keysetPagingTest() throws IOException, SQLException {
+		Object[][] rows = testRows(1500);
+		File expected = File.createTempFile("tullfile_test", ".csv");
+		File actual = File.createTempFile("tullfile_test", ".csv");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		try(SQLUtil sql = new SQLUtil(new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, rows).get()).get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+		}
+		List<List<Object>> pages = new ArrayList<List<Object>>();
+		StubConnection connection = new StubConnection((sql, parameters) -> keysetPage(rows, parameters, pages));
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			assertEquals(1500, sql.chunkifyQueryByKeysetCSV("SELECT * FROM t WHERE id > ? ORDER BY id LIMIT ?", "id", -1L, 400, 800, 200, actual));
+		}
+		assertEquals(Arrays.asList(
+				Arrays.<Object>asList(-1L, 400),
+				Arrays.<Object>asList(399L, 200),
+				Arrays.<Object>asList(599L, 400),
+				Arrays.<Object>asList(999L, 800)), pages);
+		assertEquals(1, connection.getPrepared());
+		assertEquals(0, connection.getOpenStatements());
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+		
+		Object[][] fullPages = testRows(1800);
+		try(SQLUtil sql = new SQLUtil(new StubConnection(() -> StubJDBC.resultSet(LABELS, TYPES, fullPages).get()).get())){
+			sql.getResultsAsCSV(expected, "SELECT");
+		}
+		pages.clear();
+		try(SQLUtil sql = new SQLUtil(new StubConnection((statement, parameters) -> keysetPage(fullPages, parameters, pages)).get())){
+			assertEquals(1800, sql.chunkifyQueryByKeysetCSV("SELECT * FROM t WHERE id > ? ORDER BY id LIMIT ?", "id", -1L, 400, 800, 200, actual));
+		}
+		assertEquals(Arrays.asList(
+				Arrays.<Object>asList(-1L, 400),
+				Arrays.<Object>asList(399L, 200),
+				Arrays.<Object>asList(599L, 400),
+				Arrays.<Object>asList(999L, 800),
+				Arrays.<Object>asList(1799L, 800)), pages);
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+	}
+	@Test
+	public void executeBatchTest() throws SQLException {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int i=0; i<25; i++)
+			rows.add(new Object[]{i, "name "+i});
+		StubConnection connection = new StubConnection(() -> null);
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			assertEquals(25, sql.executeBatch("INSERT INTO t (id,name) VALUES (?,?)", rows, 4, 2));
+			assertTrue(connection.get().getAutoCommit());
+		}
+		List<List<Map<Integer,Object>>> batches = connection.getBatches();
+		assertEquals(7, batches.size());
+		for(int b=0; b<6; b++)
+			assertEquals(4, batches.get(b).size());
+		assertEquals(1, batches.get(6).size());
+		assertEquals(24, batches.get(6).get(0).get(1));
+		assertEquals("name 24", batches.get(6).get(0).get(2));
+		assertEquals(Arrays.asList(2, 4, 6, 7), connection.getCommits());
+		assertEquals(0, connection.getRollbacks());
+	}
+	@Test
+	public void executeBatchFailureTest() throws SQLException {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int i=0; i<10; i++)
+			rows.add(new Object[]{i});
+		StubConnection connection = new StubConnection(() -> null);
+		connection.failOnBatch(3);
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			try{
+				sql.executeBatch("INSERT INTO t (id) VALUES (?)", rows, 2, 1);
+				fail("A failed batch should fail the load.");
+			}catch(SQLException e){
+				assertEquals("Batch 3 failed.", e.getMessage());
+			}
+			assertTrue(connection.get().getAutoCommit());
+			
+			connection.get().setAutoCommit(false);
+			try{
+				sql.executeBatch("INSERT INTO t (id) VALUES (?)", Arrays.asList(new Object[]{1}, null, new Object[]{3}), 1, 1);
+				fail("A null row should fail the load.");
+			}catch(IllegalArgumentException e){}
+			assertFalse(connection.get().getAutoCommit());
+		}
+		assertEquals(Arrays.asList(1, 2, 3), connection.getCommits());
+		assertEquals(2, connection.getRollbacks());
+		assertEquals(0, connection.getOpenStatements());
+	}
+	@Test
+	public void executeBatchArgumentsTest() throws SQLException, IOException, CsvValidationException {
+		StubConnection connection = new StubConnection(() -> null);
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			for(int[] sizes: new int[][]{{0, 1}, {1, 0}, {-1, 5}}){
+				try{
+					sql.executeBatch("INSERT INTO t (id) VALUES (?)", Arrays.<Object[]>asList(new Object[]{1}), sizes[0], sizes[1]);
+					fail("Batch sizes and commit intervals below 1 should be rejected.");
+				}catch(IllegalArgumentException e){}
+				try{
+					sql.executeBatch("INSERT INTO t (id) VALUES (?)", new CSVReader(new StringReader("1\n")), false, sizes[0], sizes[1]);
+					fail("Batch sizes and commit intervals below 1 should be rejected.");
+				}catch(IllegalArgumentException e){}
+			}
+		}
+		assertEquals(0, connection.getPrepared());
+		assertTrue(connection.getBatches().isEmpty());
+	}
+	@Test
+	public void executeBatchCSVNullsTest() throws SQLException, IOException, CsvValidationException {
+		String csv = "id,count,name\n1,,x\n,2,\n\"3\",\"\",\"\"\n";
+		StubConnection connection = new StubConnection(() -> null);
+		connection.setParameterTypes(Types.BIGINT, Types.INTEGER, Types.VARCHAR);
+		try(SQLUtil sql = new SQLUtil(connection.get())){
+			assertEquals(3, sql.executeBatch("INSERT INTO t (id,count,name) VALUES (?,?,?)", new CSVReader(new StringReader(csv)), true, 10, 1));
+		}
+		List<Map<Integer,Object>> rows = connection.getBatches().get(0);
+		assertEquals(3, rows.size());
+		assertEquals("1", rows.get(0).get(1));
+		assertEquals(StubJDBC.nullOf(Types.INTEGER), rows.get(0).get(2));
+		assertEquals("x", rows.get(0).get(3));
+		assertEquals(StubJDBC.nullOf(Types.BIGINT), rows.get(1).get(1));
+		assertEquals("2", rows.get(1).get(2));
+		assertEquals(StubJDBC.nullOf(Types.VARCHAR), rows.get(1).get(3));
+		assertEquals(StubJDBC.nullOf(Types.INTEGER), rows.get(2).get(2));
+		assertEquals(StubJDBC.nullOf(Types.VARCHAR), rows.get(2).get(3));
+		
+		StubConnection undescribed = new StubConnection(() -> null);
+		try(SQLUtil sql = new SQLUtil(undescribed.get())){
+			assertEquals(3, sql.executeBatch("INSERT INTO t (id,count,name) VALUES (?,?,?)", new CSVReader(new StringReader(csv)), true, 2, 1));
+		}
+		assertEquals(StubJDBC.nullOf(Types.VARCHAR), undescribed.getBatches().get(0).get(0).get(2));
+		assertEquals(StubJDBC.nullOf(Types.VARCHAR), undescribed.getBatches().get(1).get(0).get(2));
+		assertEquals(Arrays.asList(1, 2), undescribed.getCommits());
+	}
+
+	/**
+	 * Gets the rows of a parallel export chunk, with the chunks nearest the start taking the longest
+	 * so they finish out of order.
+	 */
+	private static ResultSet slowChunk(String sql, Object[][] rows){
+		ResultSet results = chunk(sql, rows);
+		try{
+			Thread.sleep(Math.max(0, 100 - chunkStart(sql)));
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		return results;
+	}
+	private static ResultSet chunk(String sql, Object[][] rows){
+		Matcher range = CHUNK_RANGE.matcher(sql);
+		assertTrue(range.find());
+		int left = Integer.parseInt(range.group(1));
+		int right = Math.min(rows.length, Integer.parseInt(range.group(2)));
+		return StubJDBC.resultSet(LABELS, TYPES, Arrays.copyOfRange(rows, Math.min(left, right), right)).get();
+	}
+	private static int chunkStart(String sql){
+		Matcher range = CHUNK_RANGE.matcher(sql);
+		assertTrue(range.find());
+		return Integer.parseInt(range.group(1));
+	}
+	/**
+	 * Gets a keyset page of the rows, whose ids are their indexes, recording the key and page size it was asked for.
+	 * The first page is slow so the page size has to shrink before it grows.
+	 */
+	private static ResultSet keysetPage(Object[][] rows, Map<Integer,Object> parameters, List<List<Object>> pages) throws SQLException{
+		long after = (Long) parameters.get(1);
+		int pageSize = (Integer) parameters.get(2);
+		pages.add(Arrays.asList(after, pageSize));
+		if(pages.size() == 1){
+			try{
+				Thread.sleep(500);
+			}catch(InterruptedException e){
+				throw new SQLException("Interrupted.", e);
+			}
+		}
+		int from = (int) Math.min(rows.length, after + 1);
+		return StubJDBC.resultSet(LABELS, TYPES, Arrays.copyOfRange(rows, from, Math.min(rows.length, from + pageSize))).get();
+	}
+	private static Set<String> chunkTempFiles(){
+		Set<String> names = new HashSet<String>();
+		for(String name: new File(System.getProperty("java.io.tmpdir")).list()){
+			if(name.startsWith("sql_chunk"))
+				names.add(name);
+		}
+		return names;
+	}
+	private static Object[][] openCSVTestRows(int start, int count){
+		Object[][] rows = new Object[count][];
+		for(int i=start; i<start+count; i++){
+			rows[i-start] = new Object[]{
+					(long) i,
+					i%9==0 ? null : Integer.valueOf(-i),
+					i%7==0 ? null : i%4==0 ? "" : "name \"" + i + "\", line\n" + (i%3) + "\r\n\"\"",
+					i%5==0 ? null : i*0.1,
+					i%6==0 ? null : Boolean.valueOf(i%2==0),
+					i%17==0 ? null : Date.valueOf(LocalDate.of(1999, 12, 31).plusDays(i)),
+					i%8==0 ? null : Time.valueOf(LocalTime.of(0, 0, 1).plusSeconds(i*97)),
+					i%11==0 ? null : Timestamp.valueOf(LocalDateTime.of(2020, 2, 28, 23, 59, 59).plusMinutes(i*37)),
+					i%13==0 ? null : "extra,\"" + i + "\""};
+		}
+		return rows;
+	}
+	/**
+	 * Converts the current row the way SQLUtil did before it had its own CSV writer, so the output can be written with OpenCSV for comparison.
+	 */
+	private static String[] openCSVRow(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		String[] row = new String[rsmd.getColumnCount()];
+		for(int i=1; i<=row.length; i++){
+			switch(rsmd.getColumnType(i)){
+				case Types.INTEGER:
+					row[i-1] = Integer.toString(rs.getInt(i));
+					break;
+				case Types.BIGINT:
+					row[i-1] = Long.toString(rs.getLong(i));
+					break;
+				case Types.DOUBLE:
+					row[i-1] = Double.toString(rs.getDouble(i));
+					break;
+				case Types.VARCHAR:
+					row[i-1] = rs.getString(i);
+					break;
+				case Types.BOOLEAN:
+					row[i-1] = Boolean.toString(rs.getBoolean(i));
+					break;
+				case Types.DATE:
+					row[i-1] = rs.getDate(i) == null ? null : rs.getDate(i).toLocalDate().toString();
+					break;
+				case Types.TIME:
+					row[i-1] = rs.getTime(i) == null ? null : rs.getTime(i).toLocalTime().toString();
+					break;
+				case Types.TIMESTAMP:
+					row[i-1] = rs.getTimestamp(i) == null ? null : rs.getTimestamp(i).toLocalDateTime().toString();
+					break;
+				default:
+					row[i-1] = rs.getObject(i) == null ? null : rs.getObject(i).toString();
+			}
+			if(rs.wasNull())
+				row[i-1] = "";
+		}
+		return row;
+	}
+}
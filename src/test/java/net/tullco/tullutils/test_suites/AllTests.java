@@ -5,13 +5,18 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import net.tullco.tullutils.test_classes.AESEncryptionTest;
+import net.tullco.tullutils.test_classes.ColumnarTest;
+import net.tullco.tullutils.test_classes.CompressionUtilsTest;
+import net.tullco.tullutils.test_classes.ConnectionPoolTest;
 import net.tullco.tullutils.test_classes.FileUtilsTest;
 import net.tullco.tullutils.test_classes.GraphTest;
+import net.tullco.tullutils.test_classes.HashUtilsTest;
 import net.tullco.tullutils.test_classes.LinqListTest;
 import net.tullco.tullutils.test_classes.ListUtilsTest;
 import net.tullco.tullutils.test_classes.MergeUtilsTest;
 import net.tullco.tullutils.test_classes.NullUtilsTest;
 import net.tullco.tullutils.test_classes.PairTest;
+import net.tullco.tullutils.test_classes.SQLUtilTest;
 import net.tullco.tullutils.test_classes.StopwatchTest;
 import net.tullco.tullutils.test_classes.StringUtilsTest;
 
@@ -27,6 +32,11 @@ import net.tullco.tullutils.test_classes.StringUtilsTest;
 	,StopwatchTest.class
 	,AESEncryptionTest.class
 	,LinqListTest.class
+	,ColumnarTest.class
+	,HashUtilsTest.class
+	,CompressionUtilsTest.class
+	,SQLUtilTest.class
+	,ConnectionPoolTest.class
 	})
 public class AllTests {
 
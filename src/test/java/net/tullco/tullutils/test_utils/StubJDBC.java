@@ -0,0 +1,391 @@
+package net.tullco.tullutils.test_utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * In-memory stand-ins for JDBC objects, so the SQL utilities can be tested without a database.
+ * Methods the stubs don't know about return null, false or 0.
+ */
+public class StubJDBC {
+
+	/**
+	 * Creates a result set over the given rows.
+	 * @param labels The column labels.
+	 * @param types The column types, from java.sql.Types.
+	 * @param rows The rows. Values should be the type the matching getter returns, like Integer for getInt or java.sql.Date for getDate.
+	 * @return The result set.
+	 */
+	public static StubResultSet resultSet(String[] labels, int[] types, Object[][] rows){
+		return new StubResultSet(labels, types, rows);
+	}
+
+	/**
+	 * What a stub statement records for a parameter bound with setNull.
+	 * @param type The SQL type given to setNull, from java.sql.Types.
+	 * @return The recorded value.
+	 */
+	public static TypedNull nullOf(int type){
+		return new TypedNull(type);
+	}
+
+	private static Object defaultValue(Class<?> type){
+		if(type == boolean.class)
+			return false;
+		if(type == int.class)
+			return 0;
+		if(type == long.class)
+			return 0L;
+		if(type == double.class)
+			return 0.0;
+		return null;
+	}
+	private static Object identity(Object proxy, Method method, Object[] args){
+		switch(method.getName()){
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return "Stub "+method.getDeclaringClass().getSimpleName();
+		}
+	}
+	private static boolean isObjectMethod(Method method){
+		return method.getDeclaringClass() == Object.class;
+	}
+
+	public static class StubResultSet implements InvocationHandler {
+		private final String[] labels;
+		private final int[] types;
+		private final Object[][] rows;
+		private final ResultSet proxy;
+		private int row = -1;
+		private int rowsRead = 0;
+		private boolean wasNull = false;
+		private volatile boolean closed = false;
+
+		private StubResultSet(String[] labels, int[] types, Object[][] rows){
+			this.labels = labels;
+			this.types = types;
+			this.rows = rows;
+			this.proxy = (ResultSet) Proxy.newProxyInstance(StubJDBC.class.getClassLoader(), new Class<?>[]{ResultSet.class}, this);
+		}
+		public ResultSet get(){
+			return proxy;
+		}
+		public int getRowsRead(){
+			return rowsRead;
+		}
+		public boolean isClosed(){
+			return closed;
+		}
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			if(isObjectMethod(method))
+				return identity(proxy, method, args);
+			switch(method.getName()){
+				case "next":
+					if(closed)
+						throw new SQLException("The result set is closed.");
+					if(row + 1 >= rows.length)
+						return false;
+					row++;
+					rowsRead++;
+					return true;
+				case "close":
+					closed = true;
+					return null;
+				case "isClosed":
+					return closed;
+				case "wasNull":
+					return wasNull;
+				case "getMetaData":
+					return Proxy.newProxyInstance(StubJDBC.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, this::metaData);
+			}
+			if(method.getName().startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer){
+				Object value = rows[row][(Integer) args[0] - 1];
+				wasNull = value == null;
+				if(value == null)
+					return defaultValue(method.getReturnType());
+				if(method.getReturnType() == String.class)
+					return value.toString();
+				if(method.getReturnType() == int.class)
+					return ((Number) value).intValue();
+				if(method.getReturnType() == long.class)
+					return ((Number) value).longValue();
+				if(method.getReturnType() == double.class)
+					return ((Number) value).doubleValue();
+				return value;
+			}
+			return defaultValue(method.getReturnType());
+		}
+		private Object metaData(Object proxy, Method method, Object[] args){
+			if(isObjectMethod(method))
+				return identity(proxy, method, args);
+			switch(method.getName()){
+				case "getColumnCount":
+					return labels.length;
+				case "getColumnLabel":
+				case "getColumnName":
+					return labels[(Integer) args[0] - 1];
+				case "getColumnType":
+					return types[(Integer) args[0] - 1];
+			}
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+	public static class TypedNull {
+		private final int type;
+
+		private TypedNull(int type){
+			this.type = type;
+		}
+		@Override
+		public boolean equals(Object o){
+			return o instanceof TypedNull && ((TypedNull) o).type == type;
+		}
+		@Override
+		public int hashCode(){
+			return type;
+		}
+		@Override
+		public String toString(){
+			return "NULL("+type+")";
+		}
+	}
+
+	/**
+	 * Answers the queries run against a stub connection.
+	 */
+	@FunctionalInterface
+	public interface StubQuery {
+		/**
+		 * Runs a query.
+		 * @param sql The SQL of the statement, as given to prepareStatement or executeQuery.
+		 * @param parameters The parameters bound to a prepared statement, by index. Empty for plain statements.
+		 * @return The results of the query.
+		 * @throws SQLException To make the query fail.
+		 */
+		public ResultSet execute(String sql, Map<Integer,Object> parameters) throws SQLException;
+	}
+
+	/**
+	 * A connection that keeps track of the statements opened on it. Every query returns a result set from the supplier.
+	 */
+	public static class StubConnection implements InvocationHandler {
+		private final StubQuery results;
+		private final Connection proxy;
+		private final List<StubStatement> statements = new ArrayList<StubStatement>();
+		private final AtomicInteger prepared = new AtomicInteger();
+		private volatile boolean closed = false;
+		private volatile boolean valid = true;
+		private final List<List<Map<Integer,Object>>> batches = new ArrayList<List<Map<Integer,Object>>>();
+		private final List<Integer> commits = new ArrayList<Integer>();
+		private boolean autoCommit = true;
+		private int rollbacks = 0;
+		private int[] parameterTypes = null;
+		private int failingBatch = 0;
+
+		public StubConnection(Supplier<ResultSet> results){
+			this((sql, parameters) -> results.get());
+		}
+		public StubConnection(StubQuery results){
+			this.results = results;
+			this.proxy = (Connection) Proxy.newProxyInstance(StubJDBC.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+		}
+		public Connection get(){
+			return proxy;
+		}
+		public boolean isClosed(){
+			return closed;
+		}
+		public void setValid(boolean valid){
+			this.valid = valid;
+		}
+		/**
+		 * Gets the number of times prepareStatement was called on this connection.
+		 * @return The number of statements prepared.
+		 */
+		public int getPrepared(){
+			return prepared.get();
+		}
+		/**
+		 * Gets the number of statements created or prepared on this connection that haven't been closed.
+		 * @return The number of open statements.
+		 */
+		public synchronized int getOpenStatements(){
+			int open = 0;
+			for(StubStatement statement: statements){
+				if(!statement.closed)
+					open++;
+			}
+			return open;
+		}
+		public synchronized int getRollbacks(){
+			return rollbacks;
+		}
+		/**
+		 * Gets the batches executed on this connection's statements, each a list of the parameters bound for every row.
+		 * @return The executed batches, in order.
+		 */
+		public synchronized List<List<Map<Integer,Object>>> getBatches(){
+			return new ArrayList<List<Map<Integer,Object>>>(batches);
+		}
+		/**
+		 * Gets how many batches had been executed when each commit was made.
+		 * @return The batch count at every commit, in order.
+		 */
+		public synchronized List<Integer> getCommits(){
+			return new ArrayList<Integer>(commits);
+		}
+		/**
+		 * Sets the parameter types prepared statements report in their metadata. Until this is called,
+		 * asking for parameter metadata fails the way it does on drivers that don't support it.
+		 * @param types The parameter types, from java.sql.Types.
+		 */
+		public synchronized void setParameterTypes(int... types){
+			this.parameterTypes = types;
+		}
+		/**
+		 * Makes the batch after the given number of successful ones fail, once.
+		 * @param batch The batch that should fail, counting from 1.
+		 */
+		public synchronized void failOnBatch(int batch){
+			this.failingBatch = batch;
+		}
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			if(isObjectMethod(method))
+				return identity(proxy, method, args);
+			switch(method.getName()){
+				case "close":
+					closed = true;
+					return null;
+				case "isClosed":
+					return closed;
+				case "isValid":
+					return valid && !closed;
+			}
+			if(closed)
+				throw new SQLException("The connection is closed.");
+			switch(method.getName()){
+				case "getAutoCommit":
+					return autoCommit;
+				case "setAutoCommit":
+					autoCommit = (Boolean) args[0];
+					return null;
+				case "rollback":
+					rollbacks++;
+					return null;
+				case "commit":
+					commits.add(batches.size());
+					return null;
+				case "prepareStatement":
+					prepared.incrementAndGet();
+					return newStatement(PreparedStatement.class, (String) args[0]);
+				case "createStatement":
+					return newStatement(Statement.class, null);
+			}
+			return defaultValue(method.getReturnType());
+		}
+		private Object newStatement(Class<? extends Statement> type, String sql){
+			StubStatement statement = new StubStatement(sql);
+			statements.add(statement);
+			return Proxy.newProxyInstance(StubJDBC.class.getClassLoader(), new Class<?>[]{type}, statement);
+		}
+
+		private class StubStatement implements InvocationHandler {
+			private final String sql;
+			private final Map<Integer,Object> parameters = new HashMap<Integer,Object>();
+			private final List<Map<Integer,Object>> pending = new ArrayList<Map<Integer,Object>>();
+			private volatile boolean closed = false;
+
+			private StubStatement(String sql){
+				this.sql = sql;
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+				if(isObjectMethod(method))
+					return identity(proxy, method, args);
+				switch(method.getName()){
+					case "close":
+						closed = true;
+						return null;
+					case "isClosed":
+						return closed;
+				}
+				if(closed)
+					throw new SQLException("The statement is closed.");
+				switch(method.getName()){
+					case "executeQuery":
+						return results.execute(sql == null ? (String) args[0] : sql, new HashMap<Integer,Object>(parameters));
+					case "setNull":
+						parameters.put((Integer) args[0], nullOf((Integer) args[1]));
+						return null;
+					case "clearParameters":
+						parameters.clear();
+						return null;
+					case "addBatch":
+						pending.add(new HashMap<Integer,Object>(parameters));
+						return null;
+					case "executeBatch":
+						return executeBatch();
+					case "getParameterMetaData":
+						return parameterMetaData();
+				}
+				if(method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer){
+					parameters.put((Integer) args[0], args[1]);
+					return null;
+				}
+				return defaultValue(method.getReturnType());
+			}
+			private int[] executeBatch() throws SQLException{
+				synchronized(StubConnection.this){
+					if(batches.size() + 1 == failingBatch){
+						failingBatch = 0;
+						throw new SQLException("Batch "+(batches.size() + 1)+" failed.");
+					}
+					batches.add(new ArrayList<Map<Integer,Object>>(pending));
+					int[] counts = new int[pending.size()];
+					pending.clear();
+					return counts;
+				}
+			}
+			private Object parameterMetaData() throws SQLException{
+				int[] types;
+				synchronized(StubConnection.this){
+					types = parameterTypes;
+				}
+				if(types == null)
+					throw new SQLException("Parameter metadata isn't supported.");
+				return Proxy.newProxyInstance(StubJDBC.class.getClassLoader(), new Class<?>[]{ParameterMetaData.class}, (proxy, method, args) -> {
+					if(isObjectMethod(method))
+						return identity(proxy, method, args);
+					switch(method.getName()){
+						case "getParameterCount":
+							return types.length;
+						case "getParameterType":
+							return types[(Integer) args[0] - 1];
+					}
+					return defaultValue(method.getReturnType());
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package net.tullco.tullutils.test_utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.tullco.tullutils.compressionutils.CompressionCodec;
+
+/**
+ * Reads streams and compressed data back into byte arrays, so tests can compare them to what was written.
+ */
+public class TestStreams {
+
+	/**
+	 * Reads the rest of the stream. The stream is not closed.
+	 * @param in The stream to read.
+	 * @return Everything left in the stream.
+	 * @throws IOException If the stream could not be read.
+	 */
+	public static byte[] readAll(InputStream in) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = in.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+	/**
+	 * Decompresses the data with the given codec.
+	 * @param compressed The compressed data.
+	 * @param codec The codec it was compressed with.
+	 * @return The decompressed data.
+	 * @throws IOException If the data could not be decompressed.
+	 */
+	public static byte[] decompress(byte[] compressed, CompressionCodec codec) throws IOException{
+		try(InputStream in = codec.decompress(new ByteArrayInputStream(compressed))){
+			return readAll(in);
+		}
+	}
+	/**
+	 * Decompresses a file with the given codec.
+	 * @param f The compressed file.
+	 * @param codec The codec it was compressed with.
+	 * @return The decompressed contents of the file.
+	 * @throws IOException If the file could not be read or decompressed.
+	 */
+	public static byte[] decompress(File f, CompressionCodec codec) throws IOException{
+		try(InputStream in = codec.decompress(new FileInputStream(f))){
+			return readAll(in);
+		}
+	}
+}